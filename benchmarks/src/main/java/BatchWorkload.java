@@ -0,0 +1,36 @@
+import bench.Workload;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Answers a batch of query lines the way {@code Ex1} does, one batch per run.
+ * Three out of four lines are elimination queries, the rest are Bayes-Ball queries.
+ */
+class BatchWorkload implements Workload {
+    private final BayesianNetwork network;
+    private final InferenceEngine engine; // null for variable elimination
+    private final List<String> lines = new ArrayList<>();
+
+    BatchWorkload(int nodes, int queries, String engine, long seed) {
+        Random random = new Random(seed);
+        this.network = RandomNetworks.network(nodes, 2, seed);
+        this.engine = engine.equals("jt") ? new JunctionTree(network) : engine.equals("lbp") ? new LoopyBeliefPropagation(network) : null;
+        for (int i = 0; i < queries; i++) {
+            lines.add(i % 4 == 3
+                    ? RandomNetworks.bayesBallQuery(network, 1 + random.nextInt(3), random)
+                    : RandomNetworks.eliminationQuery(network, 1 + random.nextInt(3), random));
+        }
+    }
+
+    @Override
+    public Object run() throws IOException {
+        List<String> results = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            results.add(Ex1.processQuery(network, engine, line));
+        }
+        return results;
+    }
+}
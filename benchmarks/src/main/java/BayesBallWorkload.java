@@ -0,0 +1,39 @@
+import bench.Workload;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks random pairs of nodes for independence on a random network, one pair per run.
+ */
+class BayesBallWorkload implements Workload {
+    private static final int CHECKS = 64;
+
+    private final BayesianNetwork network;
+    private final int[] first = new int[CHECKS];
+    private final int[] second = new int[CHECKS];
+    private final BitSet[] evidence = new BitSet[CHECKS];
+    private int next;
+
+    BayesBallWorkload(int nodes, int evidenceCount, long seed) {
+        Random random = new Random(seed);
+        this.network = RandomNetworks.network(nodes, 2, seed);
+        for (int i = 0; i < CHECKS; i++) {
+            first[i] = random.nextInt(nodes);
+            second[i] = random.nextInt(nodes);
+            evidence[i] = new BitSet(nodes);
+            while (evidence[i].cardinality() < Math.min(evidenceCount, nodes - 2)) {
+                int e = random.nextInt(nodes);
+                if (e != first[i] && e != second[i]) {
+                    evidence[i].set(e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Object run() {
+        int i = next++ % CHECKS;
+        return BayesBall.isIndependent(network, first[i], second[i], evidence[i]);
+    }
+}
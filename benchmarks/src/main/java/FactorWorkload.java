@@ -0,0 +1,64 @@
+import bench.Workload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs one factor operation on random factors.
+ * The two factors have {@code width} variables each and share half of them, the operations work on the first one.
+ * Only a {@code fill} share of the entries is non-zero, so low fills give sparse factors.
+ */
+class FactorWorkload implements Workload {
+    private final String operation;
+    private final Factor first;
+    private final Factor second;
+    private final String variable; // variable that is eliminated or instantiated
+    private final String outcome; // outcome it is instantiated to
+
+    FactorWorkload(String operation, int width, int cardinality, double fill, long seed) {
+        Random random = new Random(seed);
+        List<String> outcomes = new ArrayList<>();
+        for (int o = 0; o < cardinality; o++) {
+            outcomes.add("s" + o);
+        }
+        this.operation = operation;
+        this.first = randomFactor(0, width, outcomes, fill, random);
+        this.second = randomFactor(width / 2, width, outcomes, fill, random);
+        this.variable = "V" + (width / 2);
+        this.outcome = outcomes.get(cardinality - 1);
+    }
+
+    /**
+     * Creates a factor over consecutive variables with random values, each of them non-zero with probability {@code fill}.
+     */
+    private static Factor randomFactor(int firstVariable, int width, List<String> outcomes, double fill, Random random) {
+        List<String> names = new ArrayList<>();
+        List<List<String>> domains = new ArrayList<>();
+        long size = 1;
+        for (int v = firstVariable; v < firstVariable + width; v++) {
+            names.add("V" + v);
+            domains.add(outcomes);
+            size *= outcomes.size();
+        }
+        double[] values = new double[Math.toIntExact(size)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() < fill ? random.nextDouble() : 0;
+        }
+        return new Factor(names, domains, values);
+    }
+
+    @Override
+    public Object run() {
+        switch (operation) {
+            case "join":
+                return first.join(second);
+            case "eliminate":
+                return first.eliminate(variable);
+            case "instantiate":
+                return first.instantiate(variable, outcome);
+            default:
+                throw new IllegalArgumentException("Unknown factor operation " + operation);
+        }
+    }
+}
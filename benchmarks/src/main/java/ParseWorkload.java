@@ -0,0 +1,32 @@
+import bench.Workload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads a random network from a temporary XML or compiled file, one load per run.
+ */
+class ParseWorkload implements Workload {
+    private final Path file;
+    private final boolean compiled;
+
+    ParseWorkload(int nodes, String format, long seed) throws IOException {
+        this.compiled = format.equals("bnc");
+        Path xml = Files.createTempFile("network-" + nodes, ".xml");
+        xml.toFile().deleteOnExit();
+        XmlBifWriter.write(RandomNetworks.network(nodes, 2, seed), xml);
+        if (compiled) {
+            file = Files.createTempFile("network-" + nodes, CompiledNetwork.EXTENSION);
+            file.toFile().deleteOnExit();
+            CompiledNetwork.compile(xml.toString(), file.toString());
+        } else {
+            file = xml;
+        }
+    }
+
+    @Override
+    public Object run() throws IOException {
+        return compiled ? CompiledNetwork.load(file).toBayesianNetwork() : BayesianNetwork.parseXML(file.toString());
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.*;
+
+/**
+ * Generates random networks and queries with an exact number of evidence variables for the benchmarks.
+ * The networks are random DAGs of {@link NetworkGenerator} in which every variable picks up to
+ * {@value #MAX_PARENTS} parents among the {@value #WINDOW} variables before it, which keeps their junction trees small.
+ */
+class RandomNetworks {
+    static final int MAX_PARENTS = 3;
+    static final int WINDOW = 8;
+
+    /**
+     * Generates a random frozen network.
+     *
+     * @param nodes the number of variables
+     * @param cardinality the number of outcomes of every variable
+     * @param seed the seed of the generator
+     * @return the network
+     */
+    static BayesianNetwork network(int nodes, int cardinality, long seed) {
+        return NetworkGenerator.randomDag(nodes, MAX_PARENTS, WINDOW, cardinality, seed);
+    }
+
+    /**
+     * Generates a random elimination query line in the input format, eliminating all other variables.
+     *
+     * @param network the network
+     * @param evidence the number of evidence variables
+     * @param random the generator
+     * @return the query line
+     */
+    static String eliminationQuery(BayesianNetwork network, int evidence, Random random) {
+        SymbolTable symbols = network.getSymbolTable();
+        List<Integer> variables = shuffledVariables(symbols, random);
+        int query = variables.get(0);
+        StringBuilder line = new StringBuilder("P(").append(assignment(symbols, query, random)).append("|");
+        for (int e = 1; e <= evidence; e++) {
+            line.append(e > 1 ? "," : "").append(assignment(symbols, variables.get(e), random));
+        }
+        line.append(") ");
+        for (int h = evidence + 1; h < variables.size(); h++) {
+            line.append(h > evidence + 1 ? "-" : "").append(symbols.getVariableName(variables.get(h)));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Generates a random Bayes-Ball query line in the input format.
+     *
+     * @param network the network
+     * @param evidence the number of evidence variables
+     * @param random the generator
+     * @return the query line
+     */
+    static String bayesBallQuery(BayesianNetwork network, int evidence, Random random) {
+        SymbolTable symbols = network.getSymbolTable();
+        List<Integer> variables = shuffledVariables(symbols, random);
+        StringBuilder line = new StringBuilder(symbols.getVariableName(variables.get(0))).append("-")
+                .append(symbols.getVariableName(variables.get(1))).append("|");
+        for (int e = 2; e < evidence + 2; e++) {
+            line.append(e > 2 ? "," : "").append(assignment(symbols, variables.get(e), random));
+        }
+        return line.toString();
+    }
+
+    private static List<Integer> shuffledVariables(SymbolTable symbols, Random random) {
+        List<Integer> variables = new ArrayList<>();
+        for (int v = 0; v < symbols.getVariableCount(); v++) {
+            variables.add(v);
+        }
+        Collections.shuffle(variables, random);
+        return variables;
+    }
+
+    private static String assignment(SymbolTable symbols, int variable, Random random) {
+        return symbols.getVariableName(variable) + "=" + symbols.getOutcomeName(variable, random.nextInt(symbols.getCardinality(variable)));
+    }
+}
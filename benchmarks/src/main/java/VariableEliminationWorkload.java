@@ -0,0 +1,33 @@
+import bench.Workload;
+
+import java.util.Random;
+
+/**
+ * Prunes and answers random elimination queries on a random network, one query per run.
+ */
+class VariableEliminationWorkload implements Workload {
+    private static final int QUERIES = 16;
+
+    private final BayesianNetwork network;
+    private final Query[] queries;
+    private int next;
+
+    VariableEliminationWorkload(int nodes, int evidence, long seed) {
+        Random random = new Random(seed);
+        this.network = RandomNetworks.network(nodes, 2, seed);
+        this.queries = new Query[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = new Query(RandomNetworks.eliminationQuery(network, evidence, random));
+        }
+    }
+
+    @Override
+    public Object run() {
+        Query query = queries[next++ % QUERIES];
+        SymbolTable symbols = network.getSymbolTable();
+        NetworkView view = new NetworkView(network);
+        Query cleanQuery = view.removeIrrelevantNodes(query);
+        return new VariableElimination().runVariableElimination(view, cleanQuery.getEvidenceVariableIds(symbols),
+                cleanQuery.getEvidenceOutcomeIds(symbols), cleanQuery.getHiddenVariableIds(symbols));
+    }
+}
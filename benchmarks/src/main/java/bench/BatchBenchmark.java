@@ -0,0 +1,43 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the end-to-end throughput of {@code Ex1}-style batches: every call answers a batch of
+ * {@value #QUERIES} query lines, mixing elimination and Bayes-Ball queries, through the same code as {@code Ex1}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    public static final int QUERIES = 64;
+
+    @Param({"30", "100"})
+    public int nodes;
+
+    @Param({"ve", "jt", "lbp"})
+    public String engine;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create("BatchWorkload", nodes, QUERIES, engine, 42L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public Object answerBatch() throws Exception {
+        return workload.run();
+    }
+}
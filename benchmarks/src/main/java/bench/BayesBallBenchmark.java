@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks Bayes-Ball independence checks over the size of the network and the number of evidence variables.
+ * Every call checks the next pair of a fixed set of random pairs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BayesBallBenchmark {
+
+    @Param({"50", "200", "1000"})
+    public int nodes;
+
+    @Param({"0", "5", "20"})
+    public int evidence;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create("BayesBallWorkload", nodes, evidence, 42L);
+    }
+
+    @Benchmark
+    public Object isIndependent() throws Exception {
+        return workload.run();
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the factor operations over the width of the factors, the cardinality of their variables and the share of
+ * non-zero entries, which decides between the dense and the sparse storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactorBenchmark {
+
+    @Param({"2", "4", "6"})
+    public int width; // number of variables of every factor
+
+    @Param({"2", "3", "5"})
+    public int cardinality; // number of outcomes of every variable
+
+    @Param({"1.0", "0.05"})
+    public double fill; // share of non-zero entries of every factor
+
+    private Workload join;
+    private Workload eliminate;
+    private Workload instantiate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        join = Workload.create("FactorWorkload", "join", width, cardinality, fill, 42L);
+        eliminate = Workload.create("FactorWorkload", "eliminate", width, cardinality, fill, 42L);
+        instantiate = Workload.create("FactorWorkload", "instantiate", width, cardinality, fill, 42L);
+    }
+
+    @Benchmark
+    public Object join() throws Exception {
+        return join.run();
+    }
+
+    @Benchmark
+    public Object eliminate() throws Exception {
+        return eliminate.run();
+    }
+
+    @Benchmark
+    public Object instantiate() throws Exception {
+        return instantiate.run();
+    }
+}
@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading a network over its size, from XML with {@code BayesianNetwork.parseXML} and from the compiled
+ * binary format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"50", "500"})
+    public int nodes;
+
+    @Param({"xml", "bnc"})
+    public String format;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create("ParseWorkload", nodes, format, 42L);
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return workload.run();
+    }
+}
@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks pruning and variable elimination of single queries over the size of the network and the number of
+ * evidence variables. Every call answers the next query of a fixed set of random queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableEliminationBenchmark {
+
+    @Param({"20", "50", "100"})
+    public int nodes;
+
+    @Param({"1", "3", "8"})
+    public int evidence;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create("VariableEliminationWorkload", nodes, evidence, 42L);
+    }
+
+    @Benchmark
+    public Object runVariableElimination() throws Exception {
+        return workload.run();
+    }
+}
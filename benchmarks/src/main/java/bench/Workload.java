@@ -0,0 +1,51 @@
+package bench;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * One benchmarked operation on the classes of the project.
+ * JMH only accepts benchmark classes in a named package, while the project lives in the default package, which named
+ * packages can't refer to. The workloads are therefore written in the default package against this interface and
+ * created by name once per trial, so the measured calls are plain interface calls.
+ */
+public interface Workload extends AutoCloseable {
+
+    /**
+     * Runs the operation once.
+     *
+     * @return the result of the operation, to be consumed by the benchmark
+     * @throws Exception if the operation fails
+     */
+    Object run() throws Exception;
+
+    /**
+     * Releases what the workload set up, by default nothing.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Creates a workload of the default package.
+     *
+     * @param className the name of the workload class
+     * @param args the arguments of its constructor
+     * @return the workload
+     */
+    static Workload create(String className, Object... args) {
+        try {
+            for (Constructor<?> constructor : Class.forName(className).getDeclaredConstructors()) {
+                if (constructor.getParameterCount() == args.length) {
+                    constructor.setAccessible(true);
+                    return (Workload) constructor.newInstance(args);
+                }
+            }
+            throw new IllegalArgumentException("No constructor of " + className + " takes " + args.length + " arguments");
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Can't set up " + className, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't set up " + className, e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks likelihood weighting and Gibbs sampling on the alarm network: the estimates against variable elimination,
+ * their independence of the number of threads, the standard error of degenerate samples and the parsing of the
+ * sampling options.
+ */
+class ApproximateInferenceTest {
+    private static final List<String> QUERIES = List.of("P(B=T|J=T,M=T)", "P(J=T|B=T)", "P(E=T|A=T)", "P(A=F|J=F,M=T)", "P(M=T|E=T)");
+
+    private static BayesianNetwork network;
+
+    @BeforeAll
+    static void loadNetwork() throws IOException {
+        network = BayesianNetwork.load("alarm_net.xml");
+    }
+
+    /**
+     * Samples a query directly, on the whole network.
+     *
+     * @param network the network
+     * @param variable the query variable
+     * @param value the queried outcome
+     * @param evidenceVariable the observed variable
+     * @param evidenceValue its outcome
+     * @param settings the sampling settings
+     * @return the estimate
+     */
+    private static ApproximateInference.Result sample(BayesianNetwork network, String variable, String value, String evidenceVariable,
+                                                      String evidenceValue, String settings) {
+        SymbolTable symbols = network.getSymbolTable();
+        int observed = symbols.getVariableId(evidenceVariable);
+        int queried = symbols.getVariableId(variable);
+        ApproximateInference sampler = new ApproximateInference(new NetworkView(network), new int[]{observed},
+                new int[]{symbols.getOutcomeId(observed, evidenceValue)});
+        return sampler.estimate(queried, symbols.getOutcomeId(queried, value), ApproximateInference.Settings.parse(settings));
+    }
+
+    /**
+     * Both methods land within four standard errors of the exact probability.
+     */
+    @Test
+    void estimatesMatchVariableElimination() throws IOException {
+        for (String query : QUERIES) {
+            String exact = Ex1.processQuery(network, null, query + " auto");
+            double probability = Double.parseDouble(exact.substring(0, exact.indexOf(',')));
+            for (String method : List.of("lw", "gibbs")) {
+                String[] estimate = Ex1.processQuery(network, null, query + " sample:" + method + ":n=200000:seed=3").split(",");
+                double standardError = Double.parseDouble(estimate[1]);
+                assertTrue(standardError > 0, query + " " + method);
+                assertEquals(probability, Double.parseDouble(estimate[0]), 4 * standardError + 1e-5, query + " " + method);
+            }
+        }
+    }
+
+    /**
+     * The same seed gives the same estimate and error on one thread and on four, with a fixed number of samples and
+     * with a confidence interval target.
+     */
+    @Test
+    void sameSeedGivesSameResultOnAnyNumberOfThreads() throws Exception {
+        for (String query : QUERIES) {
+            for (String settings : List.of("lw:n=50000:seed=11", "gibbs:n=50000:seed=11", "lw:ci=0.01:seed=5", "gibbs:ci=0.01:seed=5")) {
+                String line = query + " sample:" + settings;
+                String sequential = FactorKernelTest.inPool(1, () -> Ex1.processQuery(network, null, line));
+                String parallel = FactorKernelTest.inPool(4, () -> Ex1.processQuery(network, null, line));
+                assertEquals(sequential, parallel, line);
+            }
+        }
+    }
+
+    /**
+     * When no sample hits the queried outcome the estimate is 0 but its standard error is not, and a confidence
+     * interval target keeps sampling until the outcome was seen.
+     */
+    @Test
+    void degenerateSamplesKeepTheirUncertainty() throws IOException {
+        String[] estimate = Ex1.processQuery(network, null, "P(B=T|J=T,M=T) sample:n=1000").split(",");
+        assertEquals("0.00000", estimate[0]);
+        assertTrue(Double.parseDouble(estimate[1]) > 0.05, estimate[1]);
+
+        BayesianNetwork rare = BayesianNetwork.load("alarm_net.xml"); // a burglary is a hundred times rarer
+        Node burglary = rare.getNode("B");
+        double[] prior = new double[2];
+        prior[rare.getSymbolTable().getOutcomeId(burglary.getId(), "T")] = 1e-5;
+        prior[rare.getSymbolTable().getOutcomeId(burglary.getId(), "F")] = 1 - 1e-5;
+        burglary.generateCPT(prior);
+        ApproximateInference.Result firstRound = sample(rare, "B", "T", "A", "F", ":n=8192");
+        assertTrue(firstRound.isDegenerate(), "the first round of the target below must miss the outcome");
+        assertEquals(0, firstRound.getEstimate());
+        assertTrue(firstRound.getStandardError() > 0);
+
+        ApproximateInference.Result targeted = sample(rare, "B", "T", "A", "F", ":ci=0.01");
+        assertFalse(targeted.isDegenerate());
+        assertTrue(targeted.getSamples() > 8192);
+        assertTrue(targeted.getHalfWidth() <= 0.01);
+    }
+
+    /**
+     * Unknown methods and options, values that are not numbers and values that are not positive are rejected.
+     */
+    @Test
+    void rejectsInvalidSettings() {
+        for (String settings : List.of(":metropolis", ":lw:bogus=1", ":n=x", ":n=0", ":n=-5", ":ci=0", ":ci=-0.1", ":seed=1.5", ":burn-in=-1")) {
+            assertThrows(IllegalArgumentException.class, () -> ApproximateInference.Settings.parse(settings), settings);
+        }
+        ApproximateInference.Settings settings = ApproximateInference.Settings.parse(":gibbs:n=500:ci=0.02:seed=4:burn-in=10");
+        assertEquals(ApproximateInference.Method.GIBBS, settings.getMethod());
+        assertEquals(500, settings.getSamples());
+        assertEquals(0.02, settings.getHalfWidth());
+        assertEquals(4, settings.getSeed());
+        assertEquals(10, settings.getBurnIn());
+    }
+}
@@ -0,0 +1,211 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the Bayes Ball traversals on generated networks against the pairwise definition: a plain reachability search
+ * over (node, direction) states per pair of nodes, with the moves of the original implementation. This covers
+ * {@code isIndependent}, the sets of {@code dSeparatedFrom} and {@code dSeparatedTo}, their cached results, and the
+ * views left by pruning.
+ */
+class BayesBallTest {
+    private static final int FORWARD = 0; // came from above
+    private static final int BACKWARD = 1; // came from below
+
+    /**
+     * Decides independence the way the original implementation did: a breadth-first search from A going forward
+     * that fails as soon as B is reached, skipping the nodes that are not part of the network.
+     *
+     * @param network the Bayesian network
+     * @param active whether a node is part of the network
+     * @param A the id of the first node
+     * @param B the id of the second node
+     * @param evidence the set of evidence node ids
+     * @return true if B can't be reached from A
+     */
+    private static boolean naiveIndependent(BayesianNetwork network, IntPredicate active, int A, int B, BitSet evidence) {
+        SymbolTable symbols = network.getSymbolTable();
+        Set<List<Integer>> visited = new HashSet<>();
+        Deque<List<Integer>> queue = new ArrayDeque<>();
+        queue.add(List.of(A, FORWARD));
+        while (!queue.isEmpty()) {
+            List<Integer> state = queue.poll();
+            if (!visited.add(state)) {
+                continue;
+            }
+            int curr = state.get(0);
+            if (curr == B) {
+                return false;
+            }
+            if (!active.test(curr)) {
+                continue;
+            }
+            Node node = network.getNode(symbols.getVariableName(curr));
+            if (state.get(1) == FORWARD) {
+                for (Node child : node.getChildren()) {
+                    if (evidence.get(child.getId())) {
+                        for (Node parent : child.getParents()) {
+                            queue.add(List.of(parent.getId(), BACKWARD));
+                        }
+                    } else {
+                        queue.add(List.of(child.getId(), FORWARD));
+                    }
+                }
+            } else {
+                for (Node parent : node.getParents()) {
+                    if (!evidence.get(parent.getId())) {
+                        queue.add(List.of(parent.getId(), BACKWARD));
+                        for (Node sibling : parent.getChildren()) {
+                            queue.add(List.of(sibling.getId(), FORWARD));
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the generated networks of the checks, of every family.
+     *
+     * @param seed the seed of the networks
+     * @return the networks
+     */
+    private static List<BayesianNetwork> networks(long seed) {
+        return List.of(NetworkGenerator.randomDag(30, 3, 8, 2, seed), NetworkGenerator.layered(30, 5, 3, 2, seed),
+                NetworkGenerator.grid(25, 5, 2, seed), NetworkGenerator.polytree(30, 2, seed));
+    }
+
+    /**
+     * Draws a random set of evidence nodes.
+     *
+     * @param nodes the number of nodes
+     * @param density the probability that a node is observed
+     * @param random the generator
+     * @return the evidence
+     */
+    private static BitSet evidence(int nodes, double density, Random random) {
+        BitSet evidence = new BitSet(nodes);
+        for (int node = 0; node < nodes; node++) {
+            if (random.nextDouble() < density) {
+                evidence.set(node);
+            }
+        }
+        return evidence;
+    }
+
+    /**
+     * Checks every pair of nodes and both d-separated sets of every node against the naive search.
+     *
+     * @param network the Bayesian network
+     * @param view the view to traverse, or null for the whole network
+     * @param evidence the set of evidence node ids
+     * @return the number of independent pairs found
+     */
+    private static int assertMatchesNaive(BayesianNetwork network, NetworkView view, BitSet evidence) {
+        IntPredicate active = view == null ? node -> true : view::contains;
+        int nodes = network.getSymbolTable().getVariableCount();
+        int independent = 0;
+        for (int a = 0; a < nodes; a++) {
+            BitSet from = view == null ? BayesBall.dSeparatedFrom(network, a, evidence) : BayesBall.dSeparatedFrom(view, a, evidence);
+            BitSet to = view == null ? BayesBall.dSeparatedTo(network, a, evidence) : BayesBall.dSeparatedTo(view, a, evidence);
+            for (int b = 0; b < nodes; b++) {
+                boolean expected = naiveIndependent(network, active, a, b, evidence);
+                String pair = a + "," + b + " given " + evidence;
+                assertEquals(expected, view == null ? BayesBall.isIndependent(network, a, b, evidence)
+                        : BayesBall.isIndependent(view, a, b, evidence), pair);
+                assertEquals(expected, from.get(b), "from " + pair);
+                assertEquals(naiveIndependent(network, active, b, a, evidence), to.get(b), "to " + pair);
+                if (expected) {
+                    independent++;
+                }
+            }
+        }
+        return independent;
+    }
+
+    /**
+     * Pairs of nodes are independent exactly when the naive search says so, and the sets of one traversal per node
+     * hold exactly the nodes the pairwise checks find, in both directions.
+     */
+    @Test
+    void matchesPairwiseDefinition() {
+        int independent = 0;
+        int pairs = 0;
+        for (int seed = 0; seed < 3; seed++) {
+            Random random = new Random(seed);
+            for (BayesianNetwork network : networks(seed)) {
+                for (double density : new double[]{0, 0.1, 0.3}) {
+                    BitSet evidence = evidence(network.getSymbolTable().getVariableCount(), density, random);
+                    independent += assertMatchesNaive(network, null, evidence);
+                    pairs += network.getSymbolTable().getVariableCount() * network.getSymbolTable().getVariableCount();
+                }
+            }
+        }
+        assertTrue(independent > 0 && independent < pairs, independent + " of " + pairs); // both answers are checked
+    }
+
+    /**
+     * The same question is answered from the cache of a frozen network with the same set, and changing a returned set
+     * doesn't change the cached one.
+     */
+    @Test
+    void cachedSetsMatchFreshTraversals() {
+        BayesianNetwork network = NetworkGenerator.randomDag(40, 3, 8, 2, 7);
+        assertTrue(network.isFrozen());
+        DSeparationCache cache = network.getDSeparationCache();
+        Random random = new Random(7);
+        IntPredicate all = node -> true;
+        for (int round = 0; round < 20; round++) {
+            BitSet evidence = evidence(40, 0.2, random);
+            int node = random.nextInt(40);
+            for (boolean forward : new boolean[]{true, false}) {
+                BitSet first = forward ? BayesBall.dSeparatedFrom(network, node, evidence) : BayesBall.dSeparatedTo(network, node, evidence);
+                BitSet expectedSet = (BitSet) first.clone();
+                long hits = cache.getHits();
+                first.flip(0, 40); // a change of the caller's copy
+                BitSet second = forward ? BayesBall.dSeparatedFrom(network, node, evidence) : BayesBall.dSeparatedTo(network, node, evidence);
+                assertEquals(hits + 1, cache.getHits());
+                assertEquals(expectedSet, second);
+                for (int other = 0; other < 40; other++) {
+                    boolean expected = forward ? naiveIndependent(network, all, node, other, evidence)
+                            : naiveIndependent(network, all, other, node, evidence);
+                    assertEquals(expected, second.get(other), node + "," + other + " given " + evidence);
+                }
+            }
+        }
+        assertTrue(cache.getMisses() > 0);
+        assertTrue(cache.size() > 0);
+    }
+
+    /**
+     * On the views left by pruning generated queries the traversals skip the masked out nodes like the naive search,
+     * and a view with masked out nodes doesn't use the cache of the network.
+     */
+    @Test
+    void matchesPairwiseDefinitionOnPrunedViews() {
+        int pruned = 0;
+        for (int seed = 0; seed < 3; seed++) {
+            for (BayesianNetwork network : networks(seed)) {
+                SymbolTable symbols = network.getSymbolTable();
+                for (String line : NetworkGenerator.queries(network, 5, 0, 0.2, false, seed + 1)) {
+                    Query query = new Query(line);
+                    NetworkView view = new NetworkView(network);
+                    view.removeIrrelevantNodes(query);
+                    if (view.isComplete()) {
+                        continue;
+                    }
+                    pruned++;
+                    DSeparationCache cache = network.getDSeparationCache();
+                    long lookups = cache.getHits() + cache.getMisses();
+                    assertMatchesNaive(network, view, query.getEvidenceSet(symbols));
+                    assertEquals(lookups, cache.getHits() + cache.getMisses(), line);
+                }
+            }
+        }
+        assertTrue(pruned > 10, pruned + " pruned views");
+    }
+}
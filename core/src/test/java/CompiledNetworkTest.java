@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a compiled network loads back into the network it was compiled from, and that damaged files are
+ * rejected with a {@link NetworkParseException}.
+ */
+class CompiledNetworkTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * The compiled file holds the variables, the structure and every CPT value of the network, and the loaded network
+     * answers every query like the original.
+     */
+    @Test
+    void roundTripsNetworks() throws IOException {
+        List<BayesianNetwork> networks = List.of(BayesianNetwork.load("alarm_net.xml"),
+                NetworkGenerator.randomDag(40, 3, 8, 3, 1), NetworkGenerator.grid(25, 5, 2, 2), NetworkGenerator.polytree(30, 4, 3));
+        for (int i = 0; i < networks.size(); i++) {
+            BayesianNetwork network = networks.get(i);
+            Path path = directory.resolve("network" + i + CompiledNetwork.EXTENSION);
+            CompiledNetwork.write(network, path);
+            CompiledNetwork compiled = CompiledNetwork.load(path);
+
+            SymbolTable symbols = network.getSymbolTable();
+            assertEquals(symbols.getVariableCount(), compiled.getSymbolTable().getVariableCount());
+            assertArrayEquals(network.getTopologicalOrder(), compiled.getTopologicalOrder());
+            for (Node node : network.getNodes()) {
+                int id = node.getId();
+                assertEquals(node.getName(), compiled.getSymbolTable().getVariableName(id));
+                assertEquals(node.getOutcomes(), compiled.getSymbolTable().getOutcomes(id));
+                assertArrayEquals(node.getParents().stream().mapToInt(Node::getId).toArray(), compiled.getParents(id));
+                DoubleBuffer cpt = compiled.getCPT(id);
+                double[] values = new double[cpt.remaining()];
+                cpt.get(values);
+                assertArrayEquals(node.getProbabilities(), values);
+            }
+
+            BayesianNetwork loaded = BayesianNetwork.load(path.toString());
+            for (String line : NetworkGenerator.queries(network, 30, 0.2, 0.15, i % 2 == 0, i + 1)) {
+                assertEquals(Ex1.processQuery(network, null, line), Ex1.processQuery(loaded, null, line), line);
+            }
+        }
+    }
+
+    /**
+     * A file cut anywhere, with the wrong magic number or with another version is rejected.
+     */
+    @Test
+    void rejectsDamagedFiles() throws IOException {
+        Path path = directory.resolve("alarm" + CompiledNetwork.EXTENSION);
+        CompiledNetwork.write(BayesianNetwork.load("alarm_net.xml"), path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path damaged = directory.resolve("damaged" + CompiledNetwork.EXTENSION);
+        for (int length = 0; length < bytes.length; length += 1 + length / 8) {
+            Files.write(damaged, Arrays.copyOf(bytes, length));
+            int cut = length;
+            assertThrows(NetworkParseException.class, () -> CompiledNetwork.load(damaged), "cut at " + cut);
+        }
+        Files.write(damaged, Arrays.copyOf(bytes, bytes.length - Double.BYTES));
+        assertTrue(assertThrows(NetworkParseException.class, () -> CompiledNetwork.load(damaged)).getMessage().contains("out of the file"));
+
+        byte[] magic = bytes.clone();
+        magic[0] ^= 0x7f;
+        Files.write(damaged, magic);
+        assertTrue(assertThrows(NetworkParseException.class, () -> CompiledNetwork.load(damaged)).getMessage().contains("Not a compiled network"));
+
+        byte[] version = bytes.clone();
+        version[4] = 99; // the little-endian version follows the magic number
+        Files.write(damaged, version);
+        assertTrue(assertThrows(NetworkParseException.class, () -> CompiledNetwork.load(damaged)).getMessage().contains("version 99"));
+
+        Files.write(damaged, "<NETWORK></NETWORK>".getBytes());
+        assertThrows(NetworkParseException.class, () -> BayesianNetwork.load(damaged.toString()));
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Answers the queries of the sample {@code input.txt} on the alarm network, whose results are known by hand.
+ */
+class Ex1Test {
+    private static BayesianNetwork network;
+
+    @BeforeAll
+    static void loadNetwork() throws IOException {
+        network = BayesianNetwork.load("alarm_net.xml");
+    }
+
+    /**
+     * Bayes Ball answers whether two variables are independent given the evidence.
+     */
+    @Test
+    void answersBayesBallQueries() throws IOException {
+        assertEquals("yes", Ex1.processQuery(network, null, "B-E|"));
+        assertEquals("no", Ex1.processQuery(network, null, "B-E|J=T"));
+    }
+
+    /**
+     * Variable elimination gives the same probability in every order, but counts the operations of the given order.
+     */
+    @Test
+    void answersEliminationQueries() throws IOException {
+        assertEquals("0.28417,7,16", Ex1.processQuery(network, null, "P(B=T|J=T,M=T) A-E"));
+        assertEquals("0.28417,7,16", Ex1.processQuery(network, null, "P(B=T|J=T,M=T) E-A"));
+        assertEquals("0.84902,7,12", Ex1.processQuery(network, null, "P(J=T|B=T) A-E-M"));
+        assertEquals("0.84902,5,8", Ex1.processQuery(network, null, "P(J=T|B=T) M-E-A"));
+    }
+
+    /**
+     * An automatic order is planned on the pruned network and gives the same probability as a listed one.
+     */
+    @Test
+    void answersAutoOrderQueries() throws IOException {
+        String result = Ex1.processQuery(network, null, "P(B=T|J=T,M=T) auto");
+        assertEquals("0.28417", result.substring(0, result.indexOf(',')));
+    }
+}
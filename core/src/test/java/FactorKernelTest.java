@@ -0,0 +1,259 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the factor kernels against the plain definitions of join and sum-out, and against each other: the fused
+ * bucket kernel against pairwise joins followed by an elimination, the sparse storage against the dense one and the
+ * parallel fill against the sequential one. Values are compared bit for bit against definitions that multiply and add
+ * in the same order as the kernel. The fused kernel multiplies in bucket order while pairwise joins may group the
+ * products differently, so those two only agree up to rounding.
+ */
+class FactorKernelTest {
+
+    /**
+     * Returns the outcomes of a variable with the given cardinality.
+     *
+     * @param cardinality the number of outcomes
+     * @return the outcomes "o0".."o(k-1)"
+     */
+    private static List<String> domain(int cardinality) {
+        List<String> outcomes = new ArrayList<>();
+        for (int o = 0; o < cardinality; o++) {
+            outcomes.add("o" + o);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Creates a factor with random values, a share of which is zero.
+     *
+     * @param columns the column names
+     * @param cardinalities the cardinality of every variable
+     * @param fill the share of non-zero entries
+     * @param random the generator
+     * @return the factor, stored sparsely if it is large and empty enough
+     */
+    private static Factor randomFactor(List<String> columns, Map<String, Integer> cardinalities, double fill, Random random) {
+        List<List<String>> domains = new ArrayList<>();
+        int size = 1;
+        for (String column : columns) {
+            domains.add(domain(cardinalities.get(column)));
+            size *= cardinalities.get(column);
+        }
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextDouble() < fill ? random.nextDouble() : 0;
+        }
+        return new Factor(columns, domains, values);
+    }
+
+    /**
+     * Returns the value of a factor for an assignment of a superset of its variables.
+     *
+     * @param factor the factor
+     * @param assignment the outcome of every variable
+     * @return the value of the factor
+     */
+    private static double valueAt(Factor factor, Map<String, Integer> assignment) {
+        List<String> columns = factor.getColumnNames();
+        int[] outcomes = new int[columns.size()];
+        for (int c = 0; c < outcomes.length; c++) {
+            outcomes[c] = assignment.get(columns.get(c));
+        }
+        return factor.getValue(outcomes);
+    }
+
+    /**
+     * Returns the assignment of the columns of a factor at an index of its values.
+     *
+     * @param factor the factor
+     * @param index the row-major index
+     * @return the outcome of every column
+     */
+    private static Map<String, Integer> assignmentAt(Factor factor, int index) {
+        Map<String, Integer> assignment = new HashMap<>();
+        List<String> columns = factor.getColumnNames();
+        for (int c = columns.size() - 1; c >= 0; c--) {
+            int cardinality = factor.getDomains().get(c).size();
+            assignment.put(columns.get(c), index % cardinality);
+            index /= cardinality;
+        }
+        return assignment;
+    }
+
+    /**
+     * Joins the factors of a bucket pairwise in their sorted order and sums the variable out of the product, the way
+     * variable elimination did before the fused kernel.
+     *
+     * @param bucket the factors of the bucket
+     * @param variable the variable to sum out
+     * @return the message and the counts of all joins and the elimination
+     */
+    static FactorOperationResult pairwise(List<Factor> bucket, String variable) {
+        List<Factor> factors = new ArrayList<>(bucket);
+        factors.sort(Comparator.naturalOrder());
+        int multiplications = 0;
+        while (factors.size() > 1) {
+            FactorOperationResult joined = factors.get(0).join(factors.get(1));
+            factors.remove(1);
+            factors.remove(0);
+            factors.add(joined.getFactor());
+            factors.sort(Comparator.naturalOrder());
+            multiplications += joined.getMultiplications();
+        }
+        FactorOperationResult eliminated = factors.get(0).eliminate(variable);
+        return new FactorOperationResult(eliminated.getFactor(), multiplications, eliminated.getAdditions());
+    }
+
+    /**
+     * Runs a task on a fork-join pool, so the kernels see its parallelism.
+     *
+     * @param parallelism the number of threads of the pool
+     * @param task the task
+     * @param <T> the type of the result
+     * @return the result of the task
+     * @throws Exception if the task fails
+     */
+    static <T> T inPool(int parallelism, Callable<T> task) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(task).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Join multiplies the matching entries and eliminate sums over the outcomes in order, whatever the storage.
+     */
+    @Test
+    void joinAndEliminateFollowTheDefinition() {
+        Random random = new Random(1);
+        int sparse = 0;
+        for (int iteration = 0; iteration < 400; iteration++) {
+            Map<String, Integer> cardinalities = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            int variables = 3 + random.nextInt(4);
+            for (int v = 0; v < variables; v++) {
+                names.add("V" + v);
+                cardinalities.put("V" + v, 2 + random.nextInt(3));
+            }
+            double fill = new double[]{0.02, 0.1, 0.3, 1.0}[random.nextInt(4)];
+            List<String> firstColumns = new ArrayList<>(names.subList(0, 1 + random.nextInt(names.size())));
+            List<String> secondColumns = new ArrayList<>(names.subList(random.nextInt(names.size()), names.size()));
+            Collections.shuffle(firstColumns, random);
+            Collections.shuffle(secondColumns, random);
+            Factor first = randomFactor(firstColumns, cardinalities, fill, random);
+            Factor second = randomFactor(secondColumns, cardinalities, fill, random);
+            sparse += (first.isSparse() ? 1 : 0) + (second.isSparse() ? 1 : 0);
+
+            FactorOperationResult joined = first.join(second);
+            Factor product = joined.getFactor();
+            assertEquals(product.size(), joined.getMultiplications());
+            for (int i = 0; i < product.size(); i++) {
+                Map<String, Integer> assignment = assignmentAt(product, i);
+                assertEquals(valueAt(first, assignment) * valueAt(second, assignment), product.getValue(i), 0.0);
+            }
+
+            String variable = firstColumns.get(random.nextInt(firstColumns.size()));
+            FactorOperationResult eliminated = first.eliminate(variable);
+            Factor message = eliminated.getFactor();
+            assertEquals(message.size() * (cardinalities.get(variable) - 1), eliminated.getAdditions());
+            for (int i = 0; i < message.size(); i++) {
+                Map<String, Integer> assignment = assignmentAt(message, i);
+                assignment.put(variable, 0);
+                double sum = valueAt(first, assignment);
+                for (int o = 1; o < cardinalities.get(variable); o++) {
+                    assignment.put(variable, o);
+                    sum += valueAt(first, assignment);
+                }
+                assertEquals(sum, message.getValue(i), 0.0);
+            }
+        }
+        assertTrue(sparse > 0, "no factor was stored sparsely");
+    }
+
+    /**
+     * The fused bucket kernel multiplies the factors in bucket order and sums over the outcomes in order, and reports
+     * the counts and the columns of joining pairwise and eliminating afterwards.
+     */
+    @Test
+    void sumProductMatchesPairwiseJoinAndEliminate() {
+        Random random = new Random(2);
+        for (int iteration = 0; iteration < 600; iteration++) {
+            Map<String, Integer> cardinalities = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            int variables = 3 + random.nextInt(4);
+            for (int v = 0; v < variables; v++) {
+                names.add("V" + v);
+                cardinalities.put("V" + v, 2 + random.nextInt(3));
+            }
+            double fill = new double[]{0.02, 0.1, 0.3, 1.0}[random.nextInt(4)];
+            String variable = names.get(random.nextInt(names.size()));
+            List<Factor> bucket = new ArrayList<>();
+            for (int f = 1 + random.nextInt(4); f > 0; f--) {
+                List<String> columns = new ArrayList<>(names);
+                Collections.shuffle(columns, random);
+                columns = new ArrayList<>(columns.subList(0, 1 + random.nextInt(names.size())));
+                if (!columns.contains(variable)) {
+                    columns.add(random.nextInt(columns.size() + 1), variable);
+                }
+                bucket.add(randomFactor(columns, cardinalities, fill, random));
+            }
+
+            FactorOperationResult expected = pairwise(bucket, variable);
+            FactorOperationResult actual = Factor.sumProduct(bucket, variable);
+            Factor message = actual.getFactor();
+            assertEquals(expected.getFactor().getColumnNames(), message.getColumnNames());
+            assertEquals(expected.getMultiplications(), actual.getMultiplications());
+            assertEquals(expected.getAdditions(), actual.getAdditions());
+            for (int i = 0; i < message.size(); i++) {
+                Map<String, Integer> assignment = assignmentAt(message, i);
+                double sum = 0;
+                for (int o = 0; o < cardinalities.get(variable); o++) {
+                    assignment.put(variable, o);
+                    double product = valueAt(bucket.get(0), assignment);
+                    for (int f = 1; f < bucket.size(); f++) {
+                        product *= valueAt(bucket.get(f), assignment);
+                    }
+                    sum = o == 0 ? product : sum + product;
+                }
+                assertEquals(sum, message.getValue(i), 0.0);
+                assertEquals(expected.getFactor().getValue(i), message.getValue(i), 1e-12 * Math.abs(sum));
+            }
+        }
+    }
+
+    /**
+     * Results large enough to be filled in parallel hold the values of the sequential fill.
+     */
+    @Test
+    void parallelFillMatchesSequentialFill() throws Exception {
+        Random random = new Random(3);
+        Map<String, Integer> cardinalities = new HashMap<>();
+        for (int v = 0; v < 10; v++) {
+            cardinalities.put("V" + v, 4);
+        }
+        Factor first = randomFactor(List.of("V0", "V1", "V2", "V3", "V4", "V5", "V6", "V7"), cardinalities, 1.0, random);
+        Factor second = randomFactor(List.of("V4", "V5", "V6", "V7", "V8", "V9"), cardinalities, 1.0, random);
+        assertTrue(first.size() >= Factor.PARALLEL_THRESHOLD);
+
+        Callable<List<FactorOperationResult>> kernels = () -> List.of(
+                first.join(second),
+                first.eliminate("V3"),
+                Factor.sumProduct(List.of(first, second), "V5"));
+        List<FactorOperationResult> sequential = inPool(1, kernels);
+        List<FactorOperationResult> parallel = inPool(4, kernels);
+        for (int k = 0; k < sequential.size(); k++) {
+            assertEquals(sequential.get(k).getFactor(), parallel.get(k).getFactor());
+            assertEquals(sequential.get(k).getMultiplications(), parallel.get(k).getMultiplications());
+            assertEquals(sequential.get(k).getAdditions(), parallel.get(k).getAdditions());
+        }
+        assertEquals(pairwise(List.of(first, second), "V5").getFactor(), parallel.get(2).getFactor());
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.AbstractMap.SimpleEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a session answers every query like a run from scratch on the same evidence, counts included, while
+ * evidence is added and retracted between the queries.
+ */
+class InferenceSessionTest {
+
+    /**
+     * Answers a query without any cache.
+     *
+     * @param network the network
+     * @param variable the query variable
+     * @param value the query value
+     * @param evidence the evidence
+     * @param hidden the hidden variables in elimination order, or null for a min-fill order
+     * @return the result line
+     * @throws IOException if an I/O error occurs
+     */
+    private static String fromScratch(BayesianNetwork network, String variable, String value, Map<String, String> evidence,
+                                      List<String> hidden) throws IOException {
+        List<SimpleEntry<String, String>> observed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : evidence.entrySet()) {
+            observed.add(new SimpleEntry<>(entry.getKey(), entry.getValue()));
+        }
+        Query query = hidden == null
+                ? Query.elimination(variable, value, observed, List.of(), EliminationOrderPlanner.Heuristic.MIN_FILL)
+                : Query.elimination(variable, value, observed, hidden, null);
+        return Ex1.answerVariableEliminationQuery(network, query, new RunOptions(), new QueryMetrics(query.toString()),
+                new VariableElimination());
+    }
+
+    /**
+     * Adds, retracts and queries at random and compares every answer with a run from scratch.
+     *
+     * @param networks the number of generated networks
+     * @param steps the number of steps on every network
+     * @param maxCacheBytes the memory budget of the session cache
+     * @return the number of reused factors and messages
+     * @throws IOException if an I/O error occurs
+     */
+    private static long compareWithFreshRuns(int networks, int steps, long maxCacheBytes) throws IOException {
+        long hits = 0;
+        for (int seed = 0; seed < networks; seed++) {
+            BayesianNetwork network = seed % 3 == 0 ? NetworkGenerator.grid(36, 6, 2, seed)
+                    : seed % 3 == 1 ? NetworkGenerator.randomDag(40, 3, 8, 2 + seed % 2, seed)
+                    : NetworkGenerator.polytree(40, 3, seed);
+            SymbolTable symbols = network.getSymbolTable();
+            List<String> variables = new ArrayList<>();
+            for (int v = 0; v < symbols.getVariableCount(); v++) {
+                variables.add(symbols.getVariableName(v));
+            }
+            Random random = new Random(seed);
+            List<String> order = new ArrayList<>(variables); // one fixed order, so messages can be reused
+            Collections.shuffle(order, random);
+            InferenceSession session = new InferenceSession(network, maxCacheBytes);
+            for (int step = 0; step < steps; step++) {
+                Map<String, String> evidence = session.getEvidence();
+                if (!evidence.isEmpty() && random.nextInt(3) == 0) {
+                    List<String> observed = new ArrayList<>(evidence.keySet());
+                    assertTrue(session.retractEvidence(observed.get(random.nextInt(observed.size()))));
+                } else {
+                    int id = random.nextInt(variables.size());
+                    session.addEvidence(variables.get(id), symbols.getOutcomeName(id, random.nextInt(symbols.getCardinality(id))));
+                }
+                evidence = session.getEvidence();
+
+                String variable;
+                do {
+                    variable = variables.get(random.nextInt(variables.size()));
+                } while (evidence.containsKey(variable));
+                int id = symbols.getVariableId(variable);
+                String value = symbols.getOutcomeName(id, random.nextInt(symbols.getCardinality(id)));
+                if (random.nextBoolean()) {
+                    List<String> hidden = new ArrayList<>(order);
+                    hidden.remove(variable);
+                    String answer = session.query(variable, value, hidden);
+                    hidden.removeAll(evidence.keySet());
+                    assertEquals(fromScratch(network, variable, value, evidence, hidden), answer);
+                } else {
+                    assertEquals(fromScratch(network, variable, value, evidence, null), session.query(variable, value));
+                }
+            }
+            assertTrue(session.getMessageCache().getStoredBytes() <= maxCacheBytes);
+            hits += session.getMessageCache().getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * With the default budget the session reuses work and still answers like runs from scratch.
+     */
+    @Test
+    void answersLikeFreshRuns() throws IOException {
+        assertTrue(compareWithFreshRuns(12, 60, MessageCache.DEFAULT_MAX_BYTES) > 0, "nothing was reused");
+    }
+
+    /**
+     * A budget too small for most factors evicts all the time, which must not change any answer.
+     */
+    @Test
+    void answersLikeFreshRunsWithATinyCache() throws IOException {
+        compareWithFreshRuns(4, 30, 2000);
+    }
+
+    /**
+     * Evidence on unknown variables or outcomes is rejected when it is added, not at the next query.
+     */
+    @Test
+    void rejectsUnknownEvidence() throws IOException {
+        InferenceSession session = new InferenceSession(BayesianNetwork.load("alarm_net.xml"));
+        assertThrows(IllegalArgumentException.class, () -> session.addEvidence("Nope", "T"));
+        assertThrows(IllegalArgumentException.class, () -> session.addEvidence("B", "Maybe"));
+        assertFalse(session.retractEvidence("B"));
+        assertTrue(session.getEvidence().isEmpty());
+    }
+
+    /**
+     * The session answers the alarm network queries of the sample input once their evidence is observed.
+     */
+    @Test
+    void answersSampleQueries() throws IOException {
+        InferenceSession session = new InferenceSession(BayesianNetwork.load("alarm_net.xml"));
+        session.addEvidence("J", "T");
+        session.addEvidence("M", "T");
+        assertEquals("0.28417,7,16", session.query("B", "T", List.of("A", "E")));
+        session.clearEvidence();
+        session.addEvidence("B", "T");
+        assertEquals("0.84902,5,8", session.query("J", "T", List.of("M", "E", "A")));
+    }
+}
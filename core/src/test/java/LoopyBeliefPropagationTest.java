@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks loopy belief propagation: exact beliefs on networks without loops, the convergence and iteration limit it
+ * reports, and the counts of queries that reuse a cached propagation.
+ */
+class LoopyBeliefPropagationTest {
+
+    /**
+     * On a polytree the messages converge to the exact beliefs, so every outcome matches variable elimination.
+     */
+    @Test
+    void beliefsOnPolytreesMatchVariableElimination() throws IOException {
+        int compared = 0;
+        for (int seed = 0; seed < 10; seed++) {
+            BayesianNetwork network = NetworkGenerator.polytree(30, 2 + seed % 2, seed);
+            SymbolTable symbols = network.getSymbolTable();
+            LoopyBeliefPropagation engine = new LoopyBeliefPropagation(network);
+            for (String line : NetworkGenerator.queries(network, 5, 0, 0.15, false, seed + 1)) {
+                Query query = new Query(line);
+                LoopyBeliefPropagation.Beliefs beliefs = engine.propagate(query.getEvidenceVariableIds(symbols),
+                        query.getEvidenceOutcomeIds(symbols));
+                assertTrue(beliefs.isConverged(), line);
+                assertTrue(beliefs.getResidual() <= LoopyBeliefPropagation.DEFAULT_TOLERANCE, line);
+                String evidence = line.substring(line.indexOf('|') + 1, line.indexOf(')'));
+                BitSet observed = query.getEvidenceSet(symbols);
+                for (int variable = 0; variable < symbols.getVariableCount(); variable++) {
+                    if (observed.get(variable)) {
+                        continue;
+                    }
+                    double[] marginal = beliefs.getMarginal(variable);
+                    for (int outcome = 0; outcome < marginal.length; outcome++) {
+                        String answer = Ex1.processQuery(network, null, "P(" + symbols.getVariableName(variable) + "="
+                                + symbols.getOutcomeName(variable, outcome) + "|" + evidence + ") auto");
+                        double expected = Double.parseDouble(answer.substring(0, answer.indexOf(',')));
+                        assertEquals(expected, marginal[outcome], 0.5e-5 + 1e-7, line); // within the rounding of the answer
+                        compared++;
+                    }
+                }
+            }
+        }
+        assertTrue(compared > 1000);
+    }
+
+    /**
+     * A propagation that hits the iteration limit on a loopy network reports that it did not converge, with the
+     * residual it stopped at, while one with room to converge reports the opposite.
+     */
+    @Test
+    void reportsConvergenceAndTheIterationLimit() {
+        BayesianNetwork network = NetworkGenerator.grid(36, 6, 2, 4);
+        SymbolTable symbols = network.getSymbolTable();
+        int[] evidenceVariables = {symbols.getVariableCount() - 1}; // a corner of the grid
+        int[] evidenceOutcomes = {0};
+
+        LoopyBeliefPropagation.Beliefs limited = new LoopyBeliefPropagation(network, 0, 1e-12, 1)
+                .propagate(evidenceVariables, evidenceOutcomes);
+        assertFalse(limited.isConverged());
+        assertEquals(1, limited.getIterations());
+        assertTrue(limited.getResidual() > 1e-12);
+
+        LoopyBeliefPropagation.Beliefs converged = new LoopyBeliefPropagation(network).propagate(evidenceVariables, evidenceOutcomes);
+        assertTrue(converged.isConverged());
+        assertTrue(converged.getIterations() >= 1 && converged.getIterations() <= LoopyBeliefPropagation.DEFAULT_MAX_ITERATIONS);
+        assertTrue(converged.getResidual() <= LoopyBeliefPropagation.DEFAULT_TOLERANCE);
+        for (int variable = 0; variable < symbols.getVariableCount(); variable++) {
+            assertEquals(1, Arrays.stream(converged.getMarginal(variable)).sum(), 1e-9);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new LoopyBeliefPropagation(network, 1, 1e-8, 10));
+        assertThrows(IllegalArgumentException.class, () -> new LoopyBeliefPropagation(network, 0.3, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new LoopyBeliefPropagation(network, 0.3, 1e-8, 0));
+    }
+
+    /**
+     * A query with evidence that was already propagated, in any order, reads the cached beliefs and reports no
+     * operations; new evidence is propagated and counted again.
+     */
+    @Test
+    void reusesPropagationsOfTheSameEvidence() throws IOException {
+        BayesianNetwork network = BayesianNetwork.load("alarm_net.xml");
+        SymbolTable symbols = network.getSymbolTable();
+        LoopyBeliefPropagation engine = new LoopyBeliefPropagation(network);
+        int b = symbols.getVariableId("B");
+        int e = symbols.getVariableId("E");
+        int j = symbols.getVariableId("J");
+        int m = symbols.getVariableId("M");
+        int jt = symbols.getOutcomeId(j, "T");
+        int mt = symbols.getOutcomeId(m, "T");
+
+        FactorOperationResult first = engine.query(b, symbols.getOutcomeId(b, "T"), new int[]{j, m}, new int[]{jt, mt});
+        assertTrue(first.getMultiplications() > 0);
+        assertTrue(first.getAdditions() > 0);
+
+        FactorOperationResult again = engine.query(e, symbols.getOutcomeId(e, "T"), new int[]{m, j}, new int[]{mt, jt});
+        assertEquals(0, again.getMultiplications());
+        assertEquals(0, again.getAdditions());
+        LoopyBeliefPropagation.Beliefs beliefs = engine.propagate(new int[]{j, m}, new int[]{jt, mt});
+        assertArrayEquals(beliefs.getMarginal(e), new double[]{again.getFactor().getValue(0), again.getFactor().getValue(1)}, 1e-12);
+
+        FactorOperationResult other = engine.query(b, symbols.getOutcomeId(b, "T"), new int[]{j}, new int[]{jt});
+        assertTrue(other.getMultiplications() > 0);
+        assertTrue(other.getAdditions() > 0);
+    }
+}
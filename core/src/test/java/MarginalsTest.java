@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the distributions of an all-marginals query, all read from one junction tree calibration, are the
+ * probabilities variable elimination gives for every outcome on its own.
+ */
+class MarginalsTest {
+
+    /**
+     * Every distribution sums to one and every outcome matches the rounded answer of variable elimination.
+     */
+    @Test
+    void allMarginalsMatchVariableElimination() throws IOException {
+        int marginals = 0;
+        for (int seed = 0; seed < 12; seed++) {
+            BayesianNetwork network = seed % 3 == 0 ? NetworkGenerator.grid(36, 6, 2, seed)
+                    : seed % 3 == 1 ? NetworkGenerator.randomDag(40, 3, 8, 2 + seed % 2, seed)
+                    : NetworkGenerator.layered(40, 8, 3, 3, seed);
+            SymbolTable symbols = network.getSymbolTable();
+            JunctionTree tree = new JunctionTree(network);
+            for (String line : NetworkGenerator.queries(network, 5, 0, 0.1, false, seed + 1)) {
+                String evidence = line.substring(line.indexOf('|') + 1, line.indexOf(')'));
+                Query query = new Query("P(*|" + evidence + ")");
+                BitSet observed = query.getEvidenceSet(symbols);
+                int[] variables = new int[symbols.getVariableCount() - observed.cardinality()];
+                for (int v = 0, n = 0; v < symbols.getVariableCount(); v++) {
+                    if (!observed.get(v)) {
+                        variables[n++] = v;
+                    }
+                }
+
+                List<Factor> distributions = new ArrayList<>();
+                tree.marginals(variables, query.getEvidenceVariableIds(symbols), query.getEvidenceOutcomeIds(symbols),
+                        result -> distributions.add(result.getFactor()));
+                assertEquals(variables.length, distributions.size());
+                for (int d = 0; d < variables.length; d++) {
+                    Factor distribution = distributions.get(d);
+                    int variable = distribution.getVariables()[0];
+                    assertEquals(variables[d], variable, "distributions come in the requested order");
+                    double total = 0;
+                    for (int outcome = 0; outcome < distribution.size(); outcome++) {
+                        double probability = distribution.getValue(new int[]{outcome});
+                        total += probability;
+                        String answer = Ex1.processQuery(network, null, "P(" + symbols.getVariableName(variable) + "="
+                                + symbols.getOutcomeName(variable, outcome) + "|" + evidence + ") auto");
+                        double expected = Double.parseDouble(answer.substring(0, answer.indexOf(',')));
+                        assertEquals(expected, probability, 0.5e-5 + 1e-12, line); // within the rounding of the answer
+                        marginals++;
+                    }
+                    assertEquals(1, total, 1e-9);
+                }
+            }
+        }
+        assertTrue(marginals > 1000);
+    }
+
+    /**
+     * An all-marginals query gives one line per requested variable and ends with the counts.
+     */
+    @Test
+    void writesOneLinePerVariable() throws IOException {
+        BayesianNetwork network = BayesianNetwork.load("alarm_net.xml");
+        String[] lines = Ex1.processQuery(network, null, "P(B,E|J=T,M=T)").split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("B:T=0.28417,F=0.71583", lines[0]);
+        assertTrue(lines[1].startsWith("E:T="));
+        assertTrue(lines[2].matches("\\*,\\d+,\\d+"), lines[2]);
+        String[] all = Ex1.processQuery(network, null, "P(*|J=T,M=T)").split("\n");
+        assertEquals(network.getNodes().size() - 2 + 1, all.length); // every unobserved variable and the counts
+    }
+}
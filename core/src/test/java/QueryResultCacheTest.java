@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the canonical keys of the result cache and that answers taken from the cache are the answers of uncached runs.
+ */
+class QueryResultCacheTest {
+
+    /**
+     * Rewrites a query line with its evidence in random order, and with its elimination order reversed if it lists one.
+     *
+     * @param line the query line
+     * @param reverse whether to reverse the elimination order
+     * @param random the generator
+     * @return the rewritten line, the same question
+     */
+    private static String rewrite(String line, boolean reverse, Random random) {
+        int bar = line.indexOf('|');
+        int end = line.startsWith("P(") ? line.indexOf(')') : line.length();
+        List<String> evidence = new ArrayList<>(Arrays.asList(line.substring(bar + 1, end).split(",")));
+        evidence.remove("");
+        Collections.shuffle(evidence, random);
+        String rest = line.substring(end);
+        if (reverse && rest.startsWith(") ") && !rest.startsWith(") " + Query.AUTO_ORDER)) {
+            List<String> order = new ArrayList<>(Arrays.asList(rest.substring(2).split("-")));
+            Collections.reverse(order);
+            rest = ") " + String.join("-", order);
+        }
+        return line.substring(0, bar + 1) + String.join(",", evidence) + rest;
+    }
+
+    /**
+     * The same question written with the evidence in another order finds the same entry, the order of an elimination
+     * query is part of its key, and Bayes Ball is keyed symmetrically without the evidence values.
+     */
+    @Test
+    void keysAreCanonical() {
+        Query query = new Query("P(B=T|J=T,M=T) A-E");
+        assertEquals(QueryResultCache.resultKey(query), QueryResultCache.resultKey(new Query("P(B=T|M=T,J=T) A-E")));
+        assertNotEquals(QueryResultCache.resultKey(query), QueryResultCache.resultKey(new Query("P(B=T|J=T,M=T) E-A")));
+        assertNotEquals(QueryResultCache.resultKey(query), QueryResultCache.resultKey(new Query("P(B=F|J=T,M=T) A-E")));
+        assertEquals(QueryResultCache.resultKey(new Query("B-E|J=T,M=F")), QueryResultCache.resultKey(new Query("E-B|M=T,J=F")));
+    }
+
+    /**
+     * The least recently used entry is dropped first.
+     */
+    @Test
+    void dropsLeastRecentlyUsedEntries() {
+        QueryResultCache cache = new QueryResultCache(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals(2, cache.size());
+        assertThrows(IllegalArgumentException.class, () -> new QueryResultCache(0));
+    }
+
+    /**
+     * A line answered under a memory budget or in a dry run is not the answer of the same query under other options.
+     */
+    @Test
+    void keepsAnswersOfOtherOptionsApart() throws IOException {
+        BayesianNetwork network = BayesianNetwork.load("alarm_net.xml");
+        String line = "P(B=T|J=T,M=T) A-E";
+        RunOptions cached = RunOptions.parse(new String[]{"--result-cache"});
+        RunOptions rejecting = RunOptions.parse(new String[]{"--result-cache", "--memory-budget=16", "--over-budget=reject"});
+        RunOptions dryRun = RunOptions.parse(new String[]{"--result-cache", "--dry-run"});
+        assertTrue(Ex1.processQuery(network, null, line, rejecting, new QueryMetrics(line)).startsWith("Query could not be answered"));
+        assertEquals("?,7,16", Ex1.processQuery(network, null, line, dryRun, new QueryMetrics(line)));
+        QueryMetrics metrics = new QueryMetrics(line);
+        assertEquals("0.28417,7,16", Ex1.processQuery(network, null, line, cached, metrics));
+        assertEquals(QueryMetrics.CacheResult.MISS, metrics.getCacheResult());
+        assertEquals("?,7,16", Ex1.processQuery(network, null, line, dryRun, new QueryMetrics(line)));
+        assertTrue(Ex1.processQuery(network, null, line, rejecting, new QueryMetrics(line)).startsWith("Query could not be answered"));
+    }
+
+    /**
+     * Workloads with repeated questions, shuffled evidence and reversed orders give the output of uncached runs, the
+     * repeats and shuffles from the cache and the reversed orders, which have other counts, from scratch.
+     */
+    @Test
+    void cachedAnswersMatchUncachedAnswers() throws IOException {
+        Map<QueryMetrics.CacheResult, Integer> results = new EnumMap<>(QueryMetrics.CacheResult.class);
+        int queries = 0;
+        for (int seed = 0; seed < 6; seed++) {
+            BayesianNetwork network = seed % 2 == 0 ? NetworkGenerator.randomDag(30, 3, 8, 2, seed) : NetworkGenerator.grid(25, 5, 2, seed);
+            Random random = new Random(seed);
+            List<String> workload = new ArrayList<>();
+            for (String line : NetworkGenerator.queries(network, 50, 0.2, 0.15, seed % 3 == 0, seed + 1)) {
+                workload.add(line);
+                workload.add(rewrite(line, false, random)); // a hit
+                workload.add(rewrite(line, true, random)); // a miss for a listed order
+                workload.add(rewrite(line, true, random));
+            }
+            Collections.shuffle(workload, random);
+
+            List<String> uncached = new ArrayList<>();
+            for (String line : workload) {
+                uncached.add(Ex1.processQuery(network, null, line));
+            }
+            RunOptions options = RunOptions.parse(new String[]{"--result-cache"});
+            for (int q = 0; q < workload.size(); q++) {
+                QueryMetrics metrics = new QueryMetrics(workload.get(q));
+                assertEquals(uncached.get(q), Ex1.processQuery(network, null, workload.get(q), options, metrics), workload.get(q));
+                results.merge(metrics.getCacheResult(), 1, Integer::sum);
+                queries++;
+            }
+        }
+        assertEquals(1200, queries);
+        assertTrue(results.getOrDefault(QueryMetrics.CacheResult.HIT, 0) > 0, "no hit");
+        assertTrue(results.getOrDefault(QueryMetrics.CacheResult.MISS, 0) > 0, "no miss");
+    }
+}
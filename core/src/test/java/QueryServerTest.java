@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the line protocol of the query server: pipelined queries answered in request order, the commands, and
+ * failed requests that are answered with an error line while the connection stays open.
+ */
+class QueryServerTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Sends all the request lines at once and returns the response lines.
+     *
+     * @param server the server
+     * @param requests the request lines
+     * @return the response lines
+     * @throws IOException if serving fails
+     */
+    private static List<String> serve(QueryServer server, List<String> requests) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream(String.join("\n", requests).getBytes(StandardCharsets.UTF_8)), out);
+        String responses = out.toString(StandardCharsets.UTF_8);
+        return responses.isEmpty() ? List.of() : Arrays.asList(responses.split("\n"));
+    }
+
+    /**
+     * Hundreds of pipelined queries on two networks, mixed with commands, blank lines and failing requests, are
+     * answered in request order with the answers of single queries, and nothing after {@code :quit} is read.
+     */
+    @Test
+    void answersPipelinedRequestsInOrder() throws IOException {
+        BayesianNetwork alarm = BayesianNetwork.load("alarm_net.xml");
+        BayesianNetwork generated = NetworkGenerator.randomDag(40, 3, 8, 2, 5);
+        Path compiled = directory.resolve("generated" + CompiledNetwork.EXTENSION);
+        CompiledNetwork.write(generated, compiled);
+
+        List<String> requests = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        requests.add("P(B=T|J=T,M=T) A-E");
+        expected.add("error: no network loaded");
+        requests.add(":load a alarm_net.xml");
+        expected.add("ok a");
+        requests.add(":load g " + compiled);
+        expected.add("ok g");
+        requests.add(":networks");
+        expected.add("a,g");
+        List<String> alarmQueries = NetworkGenerator.queries(alarm, 100, 0.2, 0.3, false, 1);
+        List<String> generatedQueries = NetworkGenerator.queries(generated, 100, 0.2, 0.15, true, 2);
+        for (int q = 0; q < 100; q++) {
+            requests.add(alarmQueries.get(q)); // the first loaded network is the default
+            expected.add(Ex1.processQuery(alarm, null, alarmQueries.get(q)));
+            requests.add("@g " + generatedQueries.get(q));
+            expected.add(Ex1.processQuery(generated, null, generatedQueries.get(q)));
+            if (q % 25 == 0) {
+                requests.add("");
+            }
+        }
+        requests.add(":use g");
+        expected.add("ok g");
+        requests.add(":use nope");
+        expected.add("error: unknown network nope");
+        requests.add(generatedQueries.get(0)); // still on g
+        expected.add(Ex1.processQuery(generated, null, generatedQueries.get(0)));
+        requests.add("@nope P(B=T|J=T)");
+        expected.add("error: unknown network nope");
+        requests.add(":bogus 1");
+        expected.add("error: unknown command :bogus");
+        requests.add("@a P(X=T|J=T)");
+        expected.add("error: Variable X not found in the network.");
+        requests.add("@a P(*|J=T,M=T)"); // one line per variable and the counts
+        expected.addAll(Arrays.asList(Ex1.processQuery(alarm, null, "P(*|J=T,M=T)").split("\n")));
+        requests.add("@a P(B=T|J=T,M=T) A-E");
+        expected.add("0.28417,7,16");
+        requests.add(":quit");
+        requests.add(":networks"); // not read
+
+        RunOptions options = RunOptions.parse(new String[]{"--threads=4"});
+        InferenceMetrics metrics = new InferenceMetrics(false);
+        try (QueryServer server = new QueryServer(options, metrics)) {
+            assertEquals(expected, serve(server, requests));
+            assertEquals(List.of("a", "g"), server.getNetworkNames());
+            assertEquals(204, metrics.getQueryCount()); // every answered or failed query, not the commands
+
+            // a new connection starts on the default network again, and its first request may fail
+            assertEquals(List.of("error: unknown command :load-all", "0.28417,7,16"),
+                    serve(server, List.of(":load-all", "P(B=T|J=T,M=T) A-E")));
+        }
+    }
+
+    /**
+     * A client that waits for every response gets it before sending the next request, including after an error.
+     */
+    @Test
+    void answersEachRequestBeforeTheNextOne() throws Exception {
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try (QueryServer server = new QueryServer(RunOptions.parse(new String[]{"--threads=2"}), new InferenceMetrics(false))) {
+            server.load("a", "alarm_net.xml");
+            PipedOutputStream requests = new PipedOutputStream();
+            PipedInputStream serverIn = new PipedInputStream(requests);
+            PipedOutputStream serverOut = new PipedOutputStream();
+            BufferedReader responses = new BufferedReader(new InputStreamReader(new PipedInputStream(serverOut), StandardCharsets.UTF_8));
+            Writer writer = new OutputStreamWriter(requests, StandardCharsets.UTF_8);
+            Future<?> serving = client.submit(() -> {
+                server.serve(serverIn, serverOut);
+                return null;
+            });
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                for (String[] exchange : new String[][]{{"P(B=T|J=T,M=T) A-E", "0.28417,7,16"},
+                        {"P(X=T|J=T)", "error: Variable X not found in the network."}, {":use b", "error: unknown network b"},
+                        {"B-E|", "yes"}, {":networks", "a"}}) {
+                    writer.write(exchange[0] + "\n");
+                    writer.flush();
+                    assertEquals(exchange[1], responses.readLine(), exchange[0]);
+                }
+                writer.write(":quit\n");
+                writer.flush();
+                serving.get();
+            });
+        } finally {
+            client.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs variable elimination on generated networks and checks the bucket tree against the sequential run and against
+ * the single factor list of the original algorithm, which joins pairwise and eliminates afterwards.
+ */
+class VariableEliminationTest {
+
+    /**
+     * Generates the networks of the test: binary networks eliminated in their listed random order, and networks with
+     * four outcomes whose larger CPTs are deterministic, so their factors are stored sparsely.
+     *
+     * @param seed the seed of the network
+     * @return the network
+     */
+    private static BayesianNetwork network(int seed) {
+        switch (seed % 4) {
+            case 0:
+                return NetworkGenerator.grid(25, 5, 2, seed);
+            case 1:
+                return NetworkGenerator.randomDag(30, 3, 8, 2, seed);
+            case 2:
+                return NetworkGenerator.polytree(30, 2, seed);
+            default:
+                BayesianNetwork network = NetworkGenerator.randomDag(24, 2, 5, 4, seed);
+                for (Node node : network.getNodes()) {
+                    double[] probabilities = node.getProbabilities();
+                    if (probabilities.length >= Factor.SPARSE_MIN_SIZE) { // one outcome per row, picked by the row
+                        double[] deterministic = new double[probabilities.length];
+                        for (int row = 0; row < probabilities.length / 4; row++) {
+                            deterministic[row * 4 + row % 4] = 1;
+                        }
+                        node.setProbabilities(deterministic);
+                    }
+                }
+                return network;
+        }
+    }
+
+    /**
+     * Eliminates the hidden variables with a single sorted factor list: the two smallest factors that contain the
+     * variable are joined until one is left, which is then summed out.
+     *
+     * @param factors the initial factors, sorted
+     * @param hidden the hidden variables in elimination order
+     * @return the final factor and the counts, or null if a hidden variable is in no factor
+     */
+    private static FactorOperationResult baseline(List<Factor> factors, List<String> hidden) {
+        factors = new ArrayList<>(factors);
+        int multiplications = 0;
+        int additions = 0;
+        for (String variable : hidden) {
+            List<Integer> containing = new ArrayList<>();
+            for (int f = 0; f < factors.size(); f++) {
+                if (factors.get(f).getColumnNames().contains(variable)) {
+                    containing.add(f);
+                }
+            }
+            if (containing.isEmpty()) {
+                return null;
+            }
+            while (containing.size() > 1) {
+                Factor first = factors.get(containing.get(0));
+                Factor second = factors.get(containing.get(1));
+                FactorOperationResult joined = first.join(second);
+                factors.remove(containing.get(1).intValue());
+                factors.remove(containing.get(0).intValue());
+                factors.add(joined.getFactor());
+                factors.sort(Comparator.naturalOrder());
+                multiplications += joined.getMultiplications();
+                containing.clear();
+                for (int f = 0; f < factors.size(); f++) {
+                    if (factors.get(f).getColumnNames().contains(variable)) {
+                        containing.add(f);
+                    }
+                }
+            }
+            FactorOperationResult eliminated = factors.remove(containing.get(0).intValue()).eliminate(variable);
+            additions += eliminated.getAdditions();
+            if (!eliminated.getFactor().canBeDiscarded()) {
+                factors.add(eliminated.getFactor());
+                factors.sort(Comparator.naturalOrder());
+            }
+        }
+        while (factors.size() > 1) {
+            FactorOperationResult joined = factors.get(0).join(factors.get(1));
+            factors.remove(1);
+            factors.remove(0);
+            factors.add(joined.getFactor());
+            factors.sort(Comparator.naturalOrder());
+            multiplications += joined.getMultiplications();
+        }
+        return new FactorOperationResult(factors.get(0), multiplications, additions);
+    }
+
+    /**
+     * The parallel bucket tree gives the factor of the sequential run bit for bit, and the counts and, up to rounding,
+     * the values of the original single-list algorithm.
+     */
+    @Test
+    void bucketTreeMatchesSequentialAndBaselineRuns() throws Exception {
+        EliminationOrderPlanner planner = new EliminationOrderPlanner();
+        int queries = 0;
+        int branched = 0;
+        int sparse = 0;
+        for (int seed = 0; seed < 40; seed++) {
+            BayesianNetwork network = network(seed);
+            SymbolTable symbols = network.getSymbolTable();
+            for (String line : NetworkGenerator.queries(network, 15, 0, 0.1, false, seed + 1)) {
+                NetworkView view = new NetworkView(network);
+                Query query = view.removeIrrelevantNodes(new Query(line));
+                int[] evidenceVariables = query.getEvidenceVariableIds(symbols);
+                int[] evidenceOutcomes = query.getEvidenceOutcomeIds(symbols);
+                int[] hidden = query.getHiddenVariableIds(symbols);
+                if (seed % 4 == 3) { // a random order over four outcomes builds huge factors
+                    hidden = planner.plan(view, query.getEvidenceSet(symbols), hidden, EliminationOrderPlanner.Heuristic.MIN_FILL);
+                }
+                int[] order = hidden;
+
+                VariableElimination initial = new VariableElimination();
+                initial.initializeFactors(view, evidenceVariables, evidenceOutcomes);
+                List<Factor> factors = new ArrayList<>(initial.getFactors());
+                for (Factor factor : factors) {
+                    sparse += factor.isSparse() ? 1 : 0;
+                }
+                EliminationTree tree = new EliminationTree(factors, order);
+                if (tree.getMissingVariable() == -1 && tree.getLeafCount() > 1) {
+                    branched++;
+                }
+
+                FactorOperationResult sequential = FactorKernelTest.inPool(1,
+                        () -> new VariableElimination().runVariableElimination(view, evidenceVariables, evidenceOutcomes, order));
+                FactorOperationResult parallel = FactorKernelTest.inPool(4,
+                        () -> new VariableElimination().runVariableElimination(view, evidenceVariables, evidenceOutcomes, order));
+                List<String> hiddenNames = new ArrayList<>();
+                for (int variable : order) {
+                    hiddenNames.add(symbols.getVariableName(variable));
+                }
+                FactorOperationResult expected = baseline(factors, hiddenNames);
+                queries++;
+                if (expected == null) {
+                    assertNull(sequential, line);
+                    assertNull(parallel, line);
+                    continue;
+                }
+
+                assertEquals(sequential.getFactor(), parallel.getFactor(), line);
+                assertEquals(sequential.getMultiplications(), parallel.getMultiplications(), line);
+                assertEquals(sequential.getAdditions(), parallel.getAdditions(), line);
+                assertEquals(sequential.getMaxFactorSize(), parallel.getMaxFactorSize(), line);
+
+                Factor actual = parallel.getFactor();
+                assertEquals(expected.getMultiplications(), parallel.getMultiplications(), line);
+                assertEquals(expected.getAdditions(), parallel.getAdditions(), line);
+                assertEquals(expected.getFactor().getColumnNames(), actual.getColumnNames(), line);
+                for (int i = 0; i < actual.size(); i++) {
+                    double value = expected.getFactor().getValue(i);
+                    assertEquals(value, actual.getValue(i), 1e-12 * Math.abs(value), line);
+                }
+            }
+        }
+        assertEquals(600, queries);
+        assertTrue(branched > 0, "no query had independent buckets");
+        assertTrue(sparse > 0, "no factor was stored sparsely");
+    }
+}
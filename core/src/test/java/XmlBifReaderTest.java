@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the XML reader on variations of the alarm network: definitions in any position relative to their variables,
+ * and a {@link NetworkParseException} with the position of the problem for every kind of invalid file.
+ */
+class XmlBifReaderTest {
+    private static String alarm;
+
+    @BeforeAll
+    static void readAlarm() throws IOException {
+        alarm = Files.readString(Paths.get("alarm_net.xml"));
+    }
+
+    /**
+     * Reads a network from the text of an XML file.
+     *
+     * @param xml the text of the file
+     * @return the network
+     * @throws IOException if the text is not a valid network
+     */
+    private static BayesianNetwork read(String xml) throws IOException {
+        return XmlBifReader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "test.xml");
+    }
+
+    /**
+     * Reads an invalid network and returns the failure.
+     *
+     * @param xml the text of the file
+     * @param message a part of the expected message
+     * @return the failure
+     */
+    private static NetworkParseException assertInvalid(String xml, String message) {
+        NetworkParseException e = assertThrows(NetworkParseException.class, () -> read(xml));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+        assertEquals("test.xml", e.getSource());
+        assertTrue(e.getLine() > 0, e.getMessage());
+        return e;
+    }
+
+    /**
+     * Definitions that come before their variables, or between them, give the network of the original file.
+     */
+    @Test
+    void readsDefinitionsBeforeTheirVariables() throws IOException {
+        int firstDefinition = alarm.indexOf("<DEFINITION>");
+        String variables = alarm.substring(alarm.indexOf("<VARIABLE>"), firstDefinition);
+        String definitions = alarm.substring(firstDefinition, alarm.lastIndexOf("</NETWORK>"));
+        List<String> reordered = List.of(
+                "<NETWORK>\n" + definitions + variables + "</NETWORK>",
+                "<NETWORK>\n" + definitions.substring(0, definitions.indexOf("<DEFINITION>", 1)) + variables
+                        + definitions.substring(definitions.indexOf("<DEFINITION>", 1)) + "</NETWORK>");
+
+        BayesianNetwork expected = read(alarm);
+        for (String xml : reordered) {
+            BayesianNetwork network = read(xml);
+            assertEquals(expected.getNodes().size(), network.getNodes().size());
+            for (Node node : expected.getNodes()) {
+                Node other = network.getNode(node.getName());
+                assertEquals(node.getOutcomes(), other.getOutcomes());
+                assertEquals(names(node.getParents()), names(other.getParents()));
+                assertArrayEquals(node.getProbabilities(), other.getProbabilities());
+            }
+            assertEquals("0.28417,7,16", Ex1.processQuery(network, null, "P(B=T|J=T,M=T) A-E"));
+            assertEquals("0.84902,5,8", Ex1.processQuery(network, null, "P(J=T|B=T) M-E-A"));
+        }
+    }
+
+    /**
+     * Returns the names of nodes.
+     *
+     * @param nodes the nodes
+     * @return their names, in the same order
+     */
+    private static List<String> names(List<Node> nodes) {
+        List<String> names = new ArrayList<>();
+        for (Node node : nodes) {
+            names.add(node.getName());
+        }
+        return names;
+    }
+
+    /**
+     * An unknown parent, a table of the wrong length, malformed XML and the other invalid files are reported with
+     * their position instead of being printed and skipped.
+     */
+    @Test
+    void reportsInvalidFiles() {
+        assertInvalid(alarm.replace("<GIVEN>A</GIVEN>\n\t<TABLE>0.9", "<GIVEN>X</GIVEN>\n\t<TABLE>0.9"), "Parent node X not found");
+        assertInvalid(alarm.replace("0.9 0.1 0.05 0.95", "0.9 0.1 0.05"), "Table of J has 3");
+        assertInvalid(alarm.replace("</VARIABLE>\n\n<VARIABLE>\n\t<NAME>B</NAME>", "\n\n<VARIABLE>\n\t<NAME>B</NAME>"), "test.xml");
+        assertInvalid(alarm.replace("</NETWORK>", ""), "test.xml");
+        assertInvalid(alarm.replace("0.002 0.998", "0.002 oops"), "Invalid probability 'oops'");
+        assertInvalid(alarm.replace("<FOR>E</FOR>", "<FOR>Z</FOR>"), "Node Z not found");
+        assertInvalid(alarm.replace("<FOR>M</FOR>", "<FOR>J</FOR>"), "defined twice");
+        assertInvalid(alarm.replace("<NAME>M</NAME>", "<NAME>J</NAME>"), "declared twice");
+        assertInvalid(alarm.replace("<FOR>E</FOR>\n\t<TABLE>0.002 0.998</TABLE>", "<FOR>E</FOR>\n\t<GIVEN>J</GIVEN>\n\t<TABLE>0.002 0.998 0.002 0.998</TABLE>"),
+                "cycle");
+        assertInvalid(alarm.substring(0, alarm.indexOf("<DEFINITION>\n\t<FOR>M</FOR>")) + "</NETWORK>", "Variable M has no DEFINITION");
+    }
+}
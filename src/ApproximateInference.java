@@ -0,0 +1,653 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Approximate inference by sampling, for networks whose treewidth is too high for exact variable elimination.
+ * Answers {@code P(Q=q|e)} with likelihood weighting or Gibbs sampling on the CPTs of the nodes of a (pruned) view,
+ * sampled in topological order.
+ * <p>
+ * The samples are drawn by a fixed number of independent streams, each with its own {@link SplittableRandom} split
+ * off the seed in order, so the estimate only depends on the seed and not on the number of threads. The streams run
+ * in parallel on the fork-join pool, in rounds until the target number of samples or the target confidence interval
+ * is reached.
+ * <p>
+ * The standard error is never below the Agresti-Coull error of the effective number of samples, which stays positive
+ * when every sample or no sample hit the queried outcome, where the plain estimates of the variance are zero. A
+ * target confidence interval only counts as reached once samples both hit and missed the outcome.
+ */
+public class ApproximateInference {
+    private static final int STREAMS = 8; // independent random streams, the chains of Gibbs sampling
+    private static final long DEFAULT_SAMPLES = 100_000; // samples drawn without a target confidence interval
+    private static final long DEFAULT_MAX_SAMPLES = 10_000_000; // most samples drawn to reach a confidence interval
+    private static final long FIRST_ROUND = 1 << 13; // samples of the first round, every later round doubles the total
+    private static final int BATCH_SIZE = 100; // sweeps of a Gibbs chain averaged into one batch mean
+    private static final int INIT_ATTEMPTS = 1000; // forward samples tried to start a Gibbs chain in a possible state
+    private static final double Z_95 = 1.959963984540054; // quantile of the normal distribution for 95% confidence
+
+    /**
+     * Enumeration for the sampling methods.
+     */
+    public enum Method {
+        LIKELIHOOD_WEIGHTING("lw"),
+        GIBBS("gibbs");
+
+        private final String name;
+
+        Method(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of the method in query lines.
+         *
+         * @return the name of the method
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the method with the given name.
+         *
+         * @param name the name of the method, e.g. "gibbs"
+         * @return the method
+         * @throws IllegalArgumentException if no method has the name
+         */
+        public static Method fromName(String name) {
+            for (Method method : values()) {
+                if (method.name.equals(name)) {
+                    return method;
+                }
+            }
+            throw new IllegalArgumentException("Unknown sampling method " + name + ", expected lw or gibbs");
+        }
+    }
+
+    /**
+     * The sampling settings of a query line, e.g. {@code sample:gibbs:ci=0.005:seed=7}.
+     */
+    public static final class Settings {
+        private Method method = Method.LIKELIHOOD_WEIGHTING;
+        private long samples = -1; // target number of samples, or the maximum with a confidence interval, -1 for the default
+        private double halfWidth = -1; // target half width of the 95% confidence interval, -1 for none
+        private long seed;
+        private int burnIn = 500; // sweeps every Gibbs chain makes before its samples count
+
+        /**
+         * Parses the settings after the "sample" keyword: an optional method followed by {@code key=value} options,
+         * all separated by colons. The options are {@code n} (number of samples), {@code ci} (half width of the 95%
+         * confidence interval), {@code seed} and {@code burn-in} (sweeps of every Gibbs chain before sampling).
+         *
+         * @param text the settings, e.g. ":gibbs:n=200000", empty for the defaults
+         * @return the parsed settings
+         * @throws IllegalArgumentException if a setting is unknown or invalid
+         */
+        public static Settings parse(String text) {
+            Settings settings = new Settings();
+            for (String part : text.split(":")) {
+                if (part.isEmpty()) {
+                    continue;
+                }
+                String[] keyValue = part.split("=", 2);
+                if (keyValue.length == 1) {
+                    settings.method = Method.fromName(part);
+                    continue;
+                }
+                try {
+                    switch (keyValue[0]) {
+                        case "n":
+                            settings.samples = Long.parseLong(keyValue[1]);
+                            if (settings.samples < 1) {
+                                throw new IllegalArgumentException("Sampling options must be positive: " + text);
+                            }
+                            break;
+                        case "ci":
+                            settings.halfWidth = Double.parseDouble(keyValue[1]);
+                            if (!(settings.halfWidth > 0)) { // also rejects NaN
+                                throw new IllegalArgumentException("Sampling options must be positive: " + text);
+                            }
+                            break;
+                        case "seed":
+                            settings.seed = Long.parseLong(keyValue[1]);
+                            break;
+                        case "burn-in":
+                            settings.burnIn = Integer.parseInt(keyValue[1]);
+                            if (settings.burnIn < 0) {
+                                throw new IllegalArgumentException("Sampling options must be positive: " + text);
+                            }
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown sampling option " + keyValue[0] + ", expected n, ci, seed or burn-in");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid sampling option " + part);
+                }
+            }
+            return settings;
+        }
+
+        /**
+         * Returns the sampling method.
+         *
+         * @return the method
+         */
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns the number of samples to draw, or the most samples to draw when a confidence interval is targeted.
+         *
+         * @return the number of samples
+         */
+        public long getSamples() {
+            if (samples > 0) {
+                return samples;
+            }
+            return halfWidth > 0 ? DEFAULT_MAX_SAMPLES : DEFAULT_SAMPLES;
+        }
+
+        /**
+         * Returns the target half width of the 95% confidence interval of the estimate.
+         *
+         * @return the half width, or -1 if the number of samples is fixed
+         */
+        public double getHalfWidth() {
+            return halfWidth;
+        }
+
+        /**
+         * Returns the seed the random streams are split off.
+         *
+         * @return the seed
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Returns the number of sweeps every Gibbs chain makes before its samples count.
+         *
+         * @return the burn-in sweeps
+         */
+        public int getBurnIn() {
+            return burnIn;
+        }
+
+        @Override
+        public String toString() {
+            return method.getName() + (samples > 0 ? ":n=" + samples : "") + (halfWidth > 0 ? ":ci=" + halfWidth : "")
+                    + ":seed=" + seed + (method == Method.GIBBS ? ":burn-in=" + burnIn : "");
+        }
+    }
+
+    private final int[] order; // ids of the nodes of the view in topological order
+    private final int[][] parents; // parent ids of every node, in CPT order
+    private final int[][] children; // child ids of every node that are in the view
+    private final double[][] probabilities; // CPT of every node, the node's own outcome changes fastest
+    private final int[] cardinalities; // number of outcomes of every variable
+    private final int[] evidence; // observed outcome of every variable, -1 if not observed
+
+    /**
+     * Prepares sampling from the nodes of a view. The view must keep the parents of its nodes, as the pruned views of
+     * the queries do.
+     *
+     * @param view the (pruned) view of the Bayesian network
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     */
+    public ApproximateInference(NetworkView view, int[] evidenceVariables, int[] evidenceOutcomes) {
+        SymbolTable symbols = view.getSymbolTable();
+        int count = symbols.getVariableCount();
+        parents = new int[count][];
+        children = new int[count][];
+        probabilities = new double[count][];
+        cardinalities = new int[count];
+        evidence = new int[count];
+        Arrays.fill(evidence, -1);
+        for (int e = 0; e < evidenceVariables.length; e++) {
+            evidence[evidenceVariables[e]] = evidenceOutcomes[e];
+        }
+
+        int[] topological = view.getNetwork().getTopologicalOrder();
+        int placed = 0;
+        for (int id : topological) {
+            if (view.contains(id)) {
+                topological[placed++] = id;
+            }
+        }
+        order = Arrays.copyOf(topological, placed);
+        for (int id : order) {
+            Node node = view.getNode(id);
+            cardinalities[id] = symbols.getCardinality(id);
+            probabilities[id] = node.getProbabilities();
+            parents[id] = new int[node.getParents().size()];
+            for (int p = 0; p < parents[id].length; p++) {
+                int parent = node.getParents().get(p).getId();
+                if (!view.contains(parent)) {
+                    throw new IllegalArgumentException("Parent " + symbols.getVariableName(parent) + " of " + node.getName() + " is not in the view");
+                }
+                parents[id][p] = parent;
+            }
+            children[id] = node.getChildren().stream().mapToInt(Node::getId).filter(view::contains).toArray(); // pruned children are barren
+        }
+    }
+
+    /**
+     * Estimates the probability of an outcome of the query variable given the evidence.
+     *
+     * @param queryVariable the id of the query variable, must be in the view
+     * @param queryOutcome the id of the queried outcome
+     * @param settings the sampling settings
+     * @return the estimate, or null if no sample agrees with the evidence
+     */
+    public Result estimate(int queryVariable, int queryOutcome, Settings settings) {
+        if (probabilities[queryVariable] == null) {
+            throw new IllegalArgumentException("Query variable " + queryVariable + " is not in the view");
+        }
+        SplittableRandom seed = new SplittableRandom(settings.getSeed());
+        Stream[] streams = new Stream[STREAMS];
+        for (int s = 0; s < STREAMS; s++) { // split in order, so every stream gets the same random numbers on every run
+            streams[s] = new Stream(seed.split(), queryVariable, queryOutcome, settings);
+        }
+
+        long target = settings.getSamples();
+        long drawn = 0;
+        Result result = null;
+        while (drawn < target) {
+            long round = settings.getHalfWidth() > 0 ? Math.min(Math.max(drawn, FIRST_ROUND), target - drawn) : target;
+            long perStream = round / STREAMS;
+            long extra = round % STREAMS; // the first streams draw one sample more
+            run(streams, s -> perStream + (s < extra ? 1 : 0));
+            drawn += round;
+            result = combine(streams, settings.getMethod());
+            if (result == null || settings.getHalfWidth() > 0 && !result.isDegenerate() && result.getHalfWidth() <= settings.getHalfWidth()) {
+                break; // the evidence is impossible, or the interval is narrow enough
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Advances all streams, in parallel on the fork-join pool when it has more than one thread.
+     *
+     * @param streams the streams
+     * @param samples the number of samples every stream draws
+     */
+    private static void run(Stream[] streams, IntToLongFunction samples) {
+        int parallelism = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        if (parallelism == 1) {
+            for (int s = 0; s < streams.length; s++) {
+                streams[s].draw(samples.applyAsLong(s));
+            }
+            return;
+        }
+        new StreamTask(streams, samples, 0, streams.length).invoke();
+    }
+
+    /**
+     * Combines the statistics of all streams, in stream order so the result doesn't depend on the threads.
+     *
+     * @param streams the streams
+     * @param method the sampling method
+     * @return the estimate, or null if no sample agrees with the evidence
+     */
+    private static Result combine(Stream[] streams, Method method) {
+        long samples = 0;
+        double weights = 0, hitWeights = 0, squaredWeights = 0, squaredHitWeights = 0;
+        double batchMeans = 0, squaredBatchMeans = 0;
+        long batches = 0;
+        for (Stream stream : streams) {
+            if (stream.impossible) {
+                return null;
+            }
+            samples += stream.samples;
+            weights += stream.weights;
+            hitWeights += stream.hitWeights;
+            squaredWeights += stream.squaredWeights;
+            squaredHitWeights += stream.squaredHitWeights;
+            batchMeans += stream.batchMeans;
+            squaredBatchMeans += stream.squaredBatchMeans;
+            batches += stream.batches;
+        }
+        if (weights == 0) {
+            return null;
+        }
+        double estimate = hitWeights / weights;
+        double variance;
+        if (method == Method.LIKELIHOOD_WEIGHTING) { // delta method for the ratio of the weighted sums
+            double missWeights = squaredWeights - squaredHitWeights;
+            variance = (squaredHitWeights * (1 - estimate) * (1 - estimate) + missWeights * estimate * estimate) / (weights * weights);
+        } else if (batches > 1) { // batch means, the samples of a chain are correlated
+            double mean = batchMeans / batches;
+            variance = Math.max(squaredBatchMeans - batches * mean * mean, 0) / (batches - 1) / batches;
+        } else {
+            variance = estimate * (1 - estimate) / samples; // too few batches, as if the samples were independent
+        }
+        double effectiveSamples = method == Method.LIKELIHOOD_WEIGHTING ? weights * weights / squaredWeights : samples; // Kish's size for the weights
+        double standardError = Math.max(Math.sqrt(variance), agrestiCoullError(estimate, effectiveSamples));
+        return new Result(estimate, standardError, samples, hitWeights == 0 || hitWeights == weights);
+    }
+
+    /**
+     * Computes the Agresti-Coull standard error of a proportion: the error of the estimate after adding half of
+     * z<sup>2</sup> hits and half of z<sup>2</sup> misses to the samples, for the 95% quantile z. Unlike the plain
+     * error it is positive when every sample or no sample hit.
+     *
+     * @param estimate the estimated proportion
+     * @param samples the (effective) number of samples
+     * @return the standard error
+     */
+    private static double agrestiCoullError(double estimate, double samples) {
+        double adjustedSamples = samples + Z_95 * Z_95;
+        double adjusted = (estimate * samples + Z_95 * Z_95 / 2) / adjustedSamples;
+        return Math.sqrt(adjusted * (1 - adjusted) / adjustedSamples);
+    }
+
+    /**
+     * Computes the row of the CPT of a node that the outcomes of its parents select.
+     *
+     * @param node the id of the node
+     * @param state the outcome of every variable
+     * @return the index of the first entry of the row
+     */
+    private int row(int node, int[] state) {
+        int index = 0;
+        for (int parent : parents[node]) {
+            index = index * cardinalities[parent] + state[parent];
+        }
+        return index * cardinalities[node];
+    }
+
+    /**
+     * Draws an outcome from a distribution that doesn't have to sum to one.
+     *
+     * @param random the random stream
+     * @param weights the weights of the outcomes
+     * @param offset the index of the weight of the first outcome
+     * @param cardinality the number of outcomes
+     * @param total the sum of the weights
+     * @return the drawn outcome
+     */
+    private static int draw(SplittableRandom random, double[] weights, int offset, int cardinality, double total) {
+        double u = random.nextDouble() * total;
+        for (int o = 0; o < cardinality - 1; o++) {
+            u -= weights[offset + o];
+            if (u < 0) {
+                return o;
+            }
+        }
+        return cardinality - 1; // rounding may leave a tiny remainder
+    }
+
+    /**
+     * Samples the unobserved variables in topological order and sets the observed ones to their evidence.
+     *
+     * @param random the random stream
+     * @param state the outcome of every variable, overwritten
+     * @return the likelihood of the evidence given the sampled parents, the weight of the sample
+     */
+    private double forwardSample(SplittableRandom random, int[] state) {
+        double weight = 1;
+        for (int node : order) {
+            int row = row(node, state);
+            if (evidence[node] != -1) {
+                state[node] = evidence[node];
+                weight *= probabilities[node][row + evidence[node]];
+            } else {
+                state[node] = draw(random, probabilities[node], row, cardinalities[node], 1);
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Resamples every unobserved variable from its distribution given its Markov blanket.
+     *
+     * @param random the random stream
+     * @param state the outcome of every variable, updated in place
+     * @param blanket scratch space for the weights of the outcomes
+     */
+    private void sweep(SplittableRandom random, int[] state, double[] blanket) {
+        for (int node : order) {
+            if (evidence[node] != -1) {
+                continue;
+            }
+            int row = row(node, state);
+            double total = 0;
+            for (int o = 0; o < cardinalities[node]; o++) {
+                state[node] = o;
+                double weight = probabilities[node][row + o];
+                for (int child : children[node]) {
+                    if (weight == 0) {
+                        break;
+                    }
+                    weight *= probabilities[child][row(child, state) + state[child]];
+                }
+                blanket[o] = weight;
+                total += weight;
+            }
+            state[node] = draw(random, blanket, 0, cardinalities[node], total); // the current outcome has a positive weight
+        }
+    }
+
+    /**
+     * An estimated probability with its standard error.
+     */
+    public static final class Result {
+        private final double estimate;
+        private final double standardError;
+        private final long samples;
+        private final boolean degenerate; // every sample hit the queried outcome, or none did
+
+        /**
+         * Constructs a result.
+         *
+         * @param estimate the estimated probability
+         * @param standardError the standard error of the estimate
+         * @param samples the number of samples the estimate is based on
+         * @param degenerate whether every sample hit the queried outcome, or none did
+         */
+        Result(double estimate, double standardError, long samples, boolean degenerate) {
+            this.estimate = estimate;
+            this.standardError = standardError;
+            this.samples = samples;
+            this.degenerate = degenerate;
+        }
+
+        /**
+         * Returns the estimated probability.
+         *
+         * @return the estimate
+         */
+        public double getEstimate() {
+            return estimate;
+        }
+
+        /**
+         * Returns the standard error of the estimate.
+         *
+         * @return the standard error
+         */
+        public double getStandardError() {
+            return standardError;
+        }
+
+        /**
+         * Returns the half width of the 95% confidence interval of the estimate.
+         *
+         * @return the half width
+         */
+        public double getHalfWidth() {
+            return Z_95 * standardError;
+        }
+
+        /**
+         * Returns the number of samples the estimate is based on, the sweeps after the burn-in for Gibbs sampling.
+         *
+         * @return the number of samples
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * Checks if every sample hit the queried outcome, or none did. The estimate is then 1 or 0 and its standard
+         * error only comes from the Agresti-Coull bound.
+         *
+         * @return true if the samples didn't both hit and miss the outcome
+         */
+        public boolean isDegenerate() {
+            return degenerate;
+        }
+    }
+
+    /**
+     * One random stream and the statistics of its samples. For Gibbs sampling it is a Markov chain.
+     */
+    private final class Stream {
+        private final SplittableRandom random;
+        private final int queryVariable;
+        private final int queryOutcome;
+        private final Settings settings;
+        private final int[] state; // outcome of every variable, the state of the chain for Gibbs sampling
+        private final double[] blanket; // scratch space of the Gibbs sweeps
+        private boolean started; // whether the chain found a possible state and finished its burn-in
+        private boolean impossible; // whether no possible state was found
+        private long samples;
+        private double weights, hitWeights, squaredWeights, squaredHitWeights;
+        private int batchFill; // sweeps in the current batch
+        private int batchHits; // sweeps of the current batch that hit the queried outcome
+        private double batchMeans, squaredBatchMeans;
+        private long batches;
+
+        /**
+         * Constructs a stream.
+         *
+         * @param random the random numbers of the stream
+         * @param queryVariable the id of the query variable
+         * @param queryOutcome the id of the queried outcome
+         * @param settings the sampling settings
+         */
+        Stream(SplittableRandom random, int queryVariable, int queryOutcome, Settings settings) {
+            this.random = random;
+            this.queryVariable = queryVariable;
+            this.queryOutcome = queryOutcome;
+            this.settings = settings;
+            this.state = new int[cardinalities.length];
+            this.blanket = new double[Arrays.stream(cardinalities).max().orElse(1)];
+        }
+
+        /**
+         * Draws more samples and adds them to the statistics.
+         *
+         * @param count the number of samples to draw
+         */
+        void draw(long count) {
+            if (settings.getMethod() == Method.LIKELIHOOD_WEIGHTING) {
+                for (long i = 0; i < count; i++) {
+                    double weight = forwardSample(random, state);
+                    add(weight, state[queryVariable] == queryOutcome);
+                }
+                return;
+            }
+            if (!start()) {
+                return;
+            }
+            for (long i = 0; i < count; i++) {
+                sweep(random, state, blanket);
+                boolean hit = state[queryVariable] == queryOutcome;
+                add(1, hit);
+                batchFill++;
+                batchHits += hit ? 1 : 0;
+                if (batchFill == BATCH_SIZE) {
+                    double mean = (double) batchHits / BATCH_SIZE;
+                    batchMeans += mean;
+                    squaredBatchMeans += mean * mean;
+                    batches++;
+                    batchFill = 0;
+                    batchHits = 0;
+                }
+            }
+        }
+
+        /**
+         * Starts the chain in a state that agrees with the evidence and runs the burn-in, once.
+         *
+         * @return true if the chain is running, false if no possible state was found
+         */
+        private boolean start() {
+            if (!started && !impossible) {
+                impossible = true;
+                for (int attempt = 0; attempt < INIT_ATTEMPTS && impossible; attempt++) {
+                    impossible = forwardSample(random, state) == 0;
+                }
+                if (!impossible) {
+                    for (int i = 0; i < settings.getBurnIn(); i++) {
+                        sweep(random, state, blanket);
+                    }
+                    started = true;
+                }
+            }
+            return started;
+        }
+
+        /**
+         * Adds a sample to the statistics.
+         *
+         * @param weight the weight of the sample
+         * @param hit whether the query variable has the queried outcome
+         */
+        private void add(double weight, boolean hit) {
+            samples++;
+            weights += weight;
+            squaredWeights += weight * weight;
+            if (hit) {
+                hitWeights += weight;
+                squaredHitWeights += weight * weight;
+            }
+        }
+    }
+
+    /**
+     * Splits the streams in halves until every task advances one stream.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private static final class StreamTask extends RecursiveAction {
+        private final Stream[] streams;
+        private final IntToLongFunction samples;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructs a task advancing a range of streams.
+         *
+         * @param streams the streams
+         * @param samples the number of samples every stream draws
+         * @param from the first stream, inclusive
+         * @param to the last stream, exclusive
+         */
+        StreamTask(Stream[] streams, IntToLongFunction samples, int from, int to) {
+            this.streams = streams;
+            this.samples = samples;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Advances the stream, or splits the range and advances both halves in parallel.
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                streams[from].draw(samples.applyAsLong(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new StreamTask(streams, samples, from, middle), new StreamTask(streams, samples, middle, to));
+        }
+    }
+}
@@ -4,9 +4,8 @@ import java.util.*;
  * Implements the Bayes Ball algorithm to determine conditional independence in a Bayesian network.
  */
 public class BayesBall {
-    private enum Direction {
-        FORWARD, BACKWARD
-    }
+    private static final int FORWARD = 0; // came from above
+    private static final int BACKWARD = 1; // came from below
 
     /**
      * Determines if two nodes, A and B, are conditionally independent given a set of evidence nodes in a Bayesian network.
@@ -18,42 +17,187 @@ public class BayesBall {
      * @return true if A and B are conditionally independent given the evidence, false otherwise
      */
     public static boolean isIndependent(BayesianNetwork network, String A, String B, Set<String> evidence) {
-        Set<String> visited = new HashSet<>(); // Set to keep track of visited nodes
-        Queue<Pair> queue = new LinkedList<>(); // Queue to perform traversal of the network
-        queue.add(new Pair(A, Direction.FORWARD));  // Start from A and traverse forward
+        SymbolTable symbols = network.getSymbolTable();
+        return isIndependent(network, symbols.getVariableId(A), symbols.getVariableId(B), symbols.getVariableSet(evidence));
+    }
 
-        while (!queue.isEmpty()) {
-            Pair pair = queue.poll(); // Get the next node to visit
-            String curr = pair.node;
-            Direction dir = pair.direction;
+    /**
+     * Determines if two nodes, A and B, are conditionally independent given a set of evidence nodes in a Bayesian network.
+     * Every visit is a state (node, direction) encoded as {@code node * 2 + direction}.
+     *
+     * @param network the Bayesian network
+     * @param A the id of the first node
+     * @param B the id of the second node
+     * @param evidence the set of evidence node ids
+     * @return true if A and B are conditionally independent given the evidence, false otherwise
+     */
+    public static boolean isIndependent(BayesianNetwork network, int A, int B, BitSet evidence) {
+        return traverseFrom(network, null, A, B, evidence);
+    }
 
-            if (visited.contains(curr + dir)) { // Skip if already visited
-                continue;
+    /**
+     * Determines if two nodes, A and B, are conditionally independent given a set of evidence nodes,
+     * traversing only the nodes of a view.
+     *
+     * @param view the view of the Bayesian network
+     * @param A the id of the first node
+     * @param B the id of the second node
+     * @param evidence the set of evidence node ids
+     * @return true if A and B are conditionally independent given the evidence, false otherwise
+     */
+    public static boolean isIndependent(NetworkView view, int A, int B, BitSet evidence) {
+        return traverseFrom(view.getNetwork(), view, A, B, evidence);
+    }
+
+    /**
+     * Returns every node that is d-separated from a source given the evidence, i.e. every node X for which
+     * {@code isIndependent(source, X)} holds, computed with a single traversal from the source.
+     * Results for frozen networks are cached per (source, evidence).
+     *
+     * @param network the Bayesian network
+     * @param source the id of the source node
+     * @param evidence the set of evidence node ids
+     * @return the set of ids of the d-separated nodes, a copy the caller may modify
+     */
+    public static BitSet dSeparatedFrom(BayesianNetwork network, int source, BitSet evidence) {
+        return dSeparated(network, null, source, evidence, true);
+    }
+
+    /**
+     * Returns every node of a view that is d-separated from a source given the evidence.
+     *
+     * @param view the view of the Bayesian network
+     * @param source the id of the source node
+     * @param evidence the set of evidence node ids
+     * @return the set of ids of the d-separated nodes, a copy the caller may modify
+     * @see #dSeparatedFrom(BayesianNetwork, int, BitSet)
+     */
+    public static BitSet dSeparatedFrom(NetworkView view, int source, BitSet evidence) {
+        return dSeparated(view.getNetwork(), view, source, evidence, true);
+    }
+
+    /**
+     * Returns every node that a target is d-separated from given the evidence, i.e. every node X for which
+     * {@code isIndependent(X, target)} holds. The traversal is run once backwards from the target, following the
+     * moves of the ball in reverse, instead of once from every node.
+     * Results for frozen networks are cached per (target, evidence).
+     *
+     * @param network the Bayesian network
+     * @param target the id of the target node
+     * @param evidence the set of evidence node ids
+     * @return the set of ids of the d-separated nodes, a copy the caller may modify
+     */
+    public static BitSet dSeparatedTo(BayesianNetwork network, int target, BitSet evidence) {
+        return dSeparated(network, null, target, evidence, false);
+    }
+
+    /**
+     * Returns every node of a view that a target is d-separated from given the evidence.
+     *
+     * @param view the view of the Bayesian network
+     * @param target the id of the target node
+     * @param evidence the set of evidence node ids
+     * @return the set of ids of the d-separated nodes, a copy the caller may modify
+     * @see #dSeparatedTo(BayesianNetwork, int, BitSet)
+     */
+    public static BitSet dSeparatedTo(NetworkView view, int target, BitSet evidence) {
+        return dSeparated(view.getNetwork(), view, target, evidence, false);
+    }
+
+    /**
+     * Computes the d-separated nodes of one direction, going through the cache of the network when the whole frozen
+     * network is traversed.
+     *
+     * @param network the Bayesian network
+     * @param view the view of the network, or null to traverse the whole network
+     * @param node the id of the source (forward) or target (backward) node
+     * @param evidence the set of evidence node ids
+     * @param forward true for the nodes d-separated from the source, false for the nodes the target is d-separated from
+     * @return the set of ids of the d-separated nodes, a copy the caller may modify
+     */
+    private static BitSet dSeparated(BayesianNetwork network, NetworkView view, int node, BitSet evidence, boolean forward) {
+        boolean wholeNetwork = view == null || view.isComplete();
+        if (network.isFrozen() && wholeNetwork) {
+            return network.getDSeparationCache().get(node, evidence, forward,
+                    () -> collectUnvisited(network, view, node, evidence, forward));
+        }
+        return collectUnvisited(network, view, node, evidence, forward);
+    }
+
+    /**
+     * Runs a full traversal and collects the nodes it never reached.
+     *
+     * @param network the Bayesian network
+     * @param view the view of the network, or null to traverse the whole network
+     * @param node the id of the source (forward) or target (backward) node
+     * @param evidence the set of evidence node ids
+     * @param forward true to traverse from the source, false to traverse backwards to the target
+     * @return the set of ids of the nodes that were not reached
+     */
+    private static BitSet collectUnvisited(BayesianNetwork network, NetworkView view, int node, BitSet evidence, boolean forward) {
+        Traversal traversal = TRAVERSAL.get();
+        if (forward) {
+            traverseFrom(network, view, node, -1, evidence);
+        } else {
+            traverseTo(network, view, node, evidence);
+        }
+        int nodes = network.getParentIds().length;
+        BitSet separated = new BitSet(nodes);
+        separated.set(0, nodes);
+        for (int w = 0; w < traversal.words; w++) {
+            long reached = forward
+                    ? traversal.visitedFromParent[w] | traversal.visitedFromChild[w] // reached in any direction
+                    : traversal.visitedFromParent[w]; // backwards only the forward state of a start node counts
+            for (long bits = reached; bits != 0; bits &= bits - 1) {
+                separated.clear(w * 64 + Long.numberOfTrailingZeros(bits));
             }
-            visited.add(curr + dir); // Mark as visited
+        }
+        return separated;
+    }
+
+    /**
+     * Runs the traversal from A on the nodes of a network, or of a view of it when one is given.
+     *
+     * @param network the Bayesian network
+     * @param view the view of the network, or null to traverse the whole network
+     * @param A the id of the first node
+     * @param B the id of the node to stop at, or -1 to traverse everything reachable
+     * @param evidence the set of evidence node ids
+     * @return true if A and B are conditionally independent given the evidence, false otherwise
+     */
+    private static boolean traverseFrom(BayesianNetwork network, NetworkView view, int A, int B, BitSet evidence) {
+        int[][] parents = network.getParentIds();
+        int[][] children = network.getChildIds();
+        Traversal traversal = TRAVERSAL.get(); // reused by every check of this thread
+        traversal.reset(parents.length);
+        traversal.visit(A, FORWARD); // Start from A and traverse forward
 
-            if (curr.equals(B)) { // If B is reached, A and B are not conditionally independent
+        while (!traversal.isEmpty()) {
+            int state = traversal.poll(); // Get the next node to visit
+            int curr = state >> 1;
+            if (curr == B) { // If B is reached, A and B are not conditionally independent
                 return false;
             }
+            if (view != null ? !view.contains(curr) : network.getNode(curr) == null) { // node was pruned from the network
+                continue;
+            }
 
-            Node currNode = network.getNode(curr); // Get the current node
-
-            if (dir == Direction.FORWARD) { // came from above
-                for (Node child : currNode.getChildren()) { // Traverse children
-                    if (evidence.contains(child.getName())) { // If child is evidence, traverse parents
-                        for (Node parent : child.getParents()) {
-                            queue.add(new Pair(parent.getName(), Direction.BACKWARD));
+            if ((state & 1) == FORWARD) { // came from above
+                for (int child : children[curr]) { // Traverse children
+                    if (evidence.get(child)) { // If child is evidence, traverse parents
+                        for (int parent : parents[child]) {
+                            traversal.visit(parent, BACKWARD);
                         }
                     } else { // Otherwise, traverse children
-                        queue.add(new Pair(child.getName(), Direction.FORWARD));
+                        traversal.visit(child, FORWARD);
                     }
                 }
-            } else if (dir == Direction.BACKWARD) { // came from below
-                for (Node parent : currNode.getParents()) { // Traverse parents
-                    if (!evidence.contains(parent.getName())) { // If parent is not evidence, traverse children
-                        queue.add(new Pair(parent.getName(), Direction.BACKWARD));
-                        for (Node sibling : parent.getChildren()) {
-                            queue.add(new Pair(sibling.getName(), Direction.FORWARD));
+            } else { // came from below
+                for (int parent : parents[curr]) { // Traverse parents
+                    if (!evidence.get(parent)) { // If parent is not evidence, traverse children
+                        traversal.visit(parent, BACKWARD);
+                        for (int sibling : children[parent]) {
+                            traversal.visit(sibling, FORWARD);
                         }
                     }
                 }
@@ -63,15 +207,125 @@ public class BayesBall {
     }
 
     /**
-     * Helper class to represent a node and its traversal direction.
+     * Runs the traversal backwards from a target: a state is visited if the ball can move from it to an already
+     * visited state, so when the traversal ends a node X can reach the target iff its start state (X, forward) was
+     * visited. The moves are the ones of {@link #traverseFrom} in reverse, and a state only moves on if its node is
+     * part of the network.
+     *
+     * @param network the Bayesian network
+     * @param view the view of the network, or null to traverse the whole network
+     * @param target the id of the target node
+     * @param evidence the set of evidence node ids
+     */
+    private static void traverseTo(BayesianNetwork network, NetworkView view, int target, BitSet evidence) {
+        int[][] parents = network.getParentIds();
+        int[][] children = network.getChildIds();
+        Traversal traversal = TRAVERSAL.get();
+        traversal.reset(parents.length);
+        traversal.visit(target, FORWARD); // the ball stops as soon as it reaches the target, in any direction
+        traversal.visit(target, BACKWARD);
+
+        while (!traversal.isEmpty()) {
+            int state = traversal.poll();
+            int y = state >> 1;
+            if ((state & 1) == BACKWARD) {
+                // (x, forward) moves to (y, backward) when x and y are parents of the same evidence child
+                for (int child : children[y]) {
+                    if (evidence.get(child)) {
+                        for (int x : parents[child]) {
+                            visitIfActive(traversal, network, view, x, FORWARD);
+                        }
+                    }
+                }
+                // (x, backward) moves to (y, backward) when y is a parent of x that is not evidence
+                if (!evidence.get(y)) {
+                    for (int x : children[y]) {
+                        visitIfActive(traversal, network, view, x, BACKWARD);
+                    }
+                }
+            } else {
+                // (x, forward) moves to (y, forward) when y is a child of x that is not evidence
+                if (!evidence.get(y)) {
+                    for (int x : parents[y]) {
+                        visitIfActive(traversal, network, view, x, FORWARD);
+                    }
+                }
+                // (x, backward) moves to (y, forward) when x and y share a parent that is not evidence
+                for (int parent : parents[y]) {
+                    if (!evidence.get(parent)) {
+                        for (int x : children[parent]) {
+                            visitIfActive(traversal, network, view, x, BACKWARD);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits a state of the backward traversal if its node is part of the network, as only those nodes move the ball.
+     *
+     * @param traversal the traversal state
+     * @param network the Bayesian network
+     * @param view the view of the network, or null to use the whole network
+     * @param node the id of the node
+     * @param direction the direction of the state
+     */
+    private static void visitIfActive(Traversal traversal, BayesianNetwork network, NetworkView view, int node, int direction) {
+        if (view != null ? view.contains(node) : network.getNode(node) != null) {
+            traversal.visit(node, direction);
+        }
+    }
+
+    private static final ThreadLocal<Traversal> TRAVERSAL = ThreadLocal.withInitial(Traversal::new);
+
+    /**
+     * Helper class to hold the reusable state of a traversal: one visited bitset per direction and a ring buffer of
+     * states. States are marked when they are queued, so every state is queued at most once and the buffer never
+     * holds more than two states per node. After the first checks on a network no memory is allocated.
      */
-    private static class Pair {
-        String node;
-        Direction direction;
+    private static final class Traversal {
+        long[] visitedFromParent = new long[0]; // nodes reached going forward
+        long[] visitedFromChild = new long[0]; // nodes reached going backward
+        int[] queue = new int[0]; // states encoded as node * 2 + direction
+        int head;
+        int tail;
+        int words; // words of the bitsets in use by the current traversal
+
+        void reset(int nodes) {
+            words = (nodes + 63) >>> 6;
+            if (visitedFromParent.length < words) {
+                visitedFromParent = new long[words];
+                visitedFromChild = new long[words];
+            } else {
+                Arrays.fill(visitedFromParent, 0, words, 0L);
+                Arrays.fill(visitedFromChild, 0, words, 0L);
+            }
+            int capacity = Integer.highestOneBit(Math.max(2 * nodes, 1) * 2 - 1); // power of two, at least 2 * nodes
+            if (queue.length < capacity) {
+                queue = new int[capacity];
+            }
+            head = 0;
+            tail = 0;
+        }
+
+        void visit(int node, int direction) {
+            long[] visited = direction == FORWARD ? visitedFromParent : visitedFromChild;
+            long bit = 1L << node;
+            if ((visited[node >>> 6] & bit) != 0) { // Skip if already visited
+                return;
+            }
+            visited[node >>> 6] |= bit; // Mark as visited
+            queue[tail & (queue.length - 1)] = node * 2 + direction;
+            tail++;
+        }
+
+        int poll() {
+            return queue[head++ & (queue.length - 1)];
+        }
 
-        Pair(String node, Direction direction) {
-            this.node = node;
-            this.direction = direction;
+        boolean isEmpty() {
+            return head == tail;
         }
     }
 }
@@ -4,9 +4,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Arrays;
-import org.w3c.dom.*;
-import javax.xml.parsers.*;
-import java.io.*;
+import java.util.PriorityQueue;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Represents a Bayesian network.
@@ -14,6 +14,13 @@ import java.io.*;
 public class BayesianNetwork {
 
     private Map<String, Node> network;
+    private volatile SymbolTable symbols; // ids of the variables and outcomes, null until assigned
+    private volatile Node[] nodesById; // node of every variable id, null until needed (volatile as queries may share the network)
+    private boolean frozen; // parsed networks are shared between queries and can't be modified
+    private volatile int[][] parentIds; // ids of the parents of every node id, cached once the network is frozen
+    private volatile int[][] childIds; // ids of the children of every node id, cached once the network is frozen
+    private volatile int[] topologicalOrder; // ids of the nodes, parents first, cached once the network is frozen
+    private final DSeparationCache dSeparationCache = new DSeparationCache(); // d-separation results, used once frozen
 
     /**
      * Constructs an empty Bayesian network.
@@ -23,7 +30,41 @@ public class BayesianNetwork {
     }
 
     /**
-     * Constructs a copy of the given Bayesian network.
+     * Constructs a frozen network from parsed nodes.
+     *
+     * @param nodes the nodes, indexed by id
+     * @param symbols the symbol table of the nodes
+     */
+    BayesianNetwork(List<Node> nodes, SymbolTable symbols) {
+        network = new HashMap<>();
+        for (Node node : nodes) {
+            network.put(node.getName(), node);
+        }
+        this.symbols = symbols;
+        this.frozen = true; // shared by all queries from now on
+    }
+
+    /**
+     * Constructs a frozen network from loaded nodes whose adjacency and topological order are already known, so they
+     * are not derived again from the nodes.
+     *
+     * @param nodes the nodes, indexed by id
+     * @param symbols the symbol table of the nodes
+     * @param parentIds the ids of the parents of every node, in the order of the CPT columns
+     * @param childIds the ids of the children of every node
+     * @param topologicalOrder the ids of the nodes, every node after its parents
+     */
+    BayesianNetwork(List<Node> nodes, SymbolTable symbols, int[][] parentIds, int[][] childIds, int[] topologicalOrder) {
+        this(nodes, symbols);
+        this.parentIds = parentIds;
+        this.childIds = childIds;
+        this.topologicalOrder = topologicalOrder;
+    }
+
+    /**
+     * Constructs a modifiable copy of the given Bayesian network.
+     * The parents and children of the copied nodes are the copies as well, so the copy never reaches the original nodes.
+     * Queries should prefer a {@link NetworkView}, which doesn't copy anything.
      *
      * @param network the Bayesian network to copy
      */
@@ -32,6 +73,10 @@ public class BayesianNetwork {
         for (Node node : network.getNodes()) {
             this.network.put(node.getName(), new Node(node));
         }
+        for (Node node : this.network.values()) {
+            node.relink(this.network);
+        }
+        this.symbols = network.symbols; // the copy keeps the ids of the original
     }
 
     /**
@@ -40,7 +85,17 @@ public class BayesianNetwork {
      * @param node the node to add
      */
     public void addNode(Node node) {
+        checkNotFrozen();
         this.network.put(node.getName(), node);
+        int id = node.getId();
+        if (symbols != null && id >= 0 && id < symbols.getVariableCount() && symbols.getVariableName(id).equals(node.getName())) {
+            if (nodesById != null) {
+                nodesById[id] = node;
+            }
+        } else { // the node is not part of the symbol table, it is rebuilt on next use
+            symbols = null;
+            nodesById = null;
+        }
     }
 
     /**
@@ -53,6 +108,146 @@ public class BayesianNetwork {
         return this.network.get(name);
     }
 
+    /**
+     * Retrieves a node by its id in the symbol table.
+     *
+     * @param id the id of the node
+     * @return the node with the given id, or null if it is not in the network
+     */
+    public Node getNode(int id) {
+        Node[] byId = nodesById;
+        if (byId == null) { // built at most a few times when queries race, every copy is complete
+            byId = new Node[getSymbolTable().getVariableCount()];
+            for (Node node : network.values()) {
+                byId[node.getId()] = node;
+            }
+            nodesById = byId;
+        }
+        return byId[id];
+    }
+
+    /**
+     * Returns the ids of the parents of every node, indexed by node id.
+     * The arrays are cached for frozen networks and must not be modified.
+     *
+     * @return the parent ids of every node id, empty for ids that are not in the network
+     */
+    int[][] getParentIds() {
+        int[][] ids = parentIds;
+        if (ids == null) {
+            ids = buildAdjacency(true);
+            if (frozen) {
+                parentIds = ids;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of the children of every node, indexed by node id.
+     * The arrays are cached for frozen networks and must not be modified.
+     *
+     * @return the child ids of every node id, empty for ids that are not in the network
+     */
+    int[][] getChildIds() {
+        int[][] ids = childIds;
+        if (ids == null) {
+            ids = buildAdjacency(false);
+            if (frozen) {
+                childIds = ids;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of the nodes in topological order, every node comes after its parents.
+     * Nodes whose parents are all placed are taken in id order, so the order is deterministic.
+     *
+     * @return a copy of the topological order of the node ids
+     * @throws IllegalStateException if the network has a cycle
+     */
+    public int[] getTopologicalOrder() {
+        int[] order = topologicalOrder;
+        if (order == null) {
+            int[][] parents = getParentIds();
+            int[][] children = getChildIds();
+            int[] remainingParents = new int[parents.length];
+            PriorityQueue<Integer> ready = new PriorityQueue<>();
+            for (Node node : network.values()) {
+                for (int parent : parents[node.getId()]) {
+                    if (getNode(parent) != null) { // parents that were removed don't hold the node back
+                        remainingParents[node.getId()]++;
+                    }
+                }
+                if (remainingParents[node.getId()] == 0) {
+                    ready.add(node.getId());
+                }
+            }
+            order = new int[network.size()];
+            int placed = 0;
+            while (!ready.isEmpty()) {
+                int id = ready.poll();
+                order[placed++] = id;
+                for (int child : children[id]) {
+                    if (--remainingParents[child] == 0) {
+                        ready.add(child);
+                    }
+                }
+            }
+            if (placed < order.length) {
+                throw new IllegalStateException("The network has a cycle");
+            }
+            if (frozen) {
+                topologicalOrder = order;
+            }
+        }
+        return order.clone();
+    }
+
+    /**
+     * Builds the int adjacency lists of the nodes.
+     *
+     * @param parents true to list the parents of every node, false to list the children
+     * @return the adjacent ids of every node id
+     */
+    private int[][] buildAdjacency(boolean parents) {
+        int[][] ids = new int[getSymbolTable().getVariableCount()][];
+        Arrays.fill(ids, new int[0]);
+        for (Node node : network.values()) {
+            List<Node> adjacent = parents ? node.getParents() : node.getChildren();
+            int[] adjacentIds = new int[adjacent.size()];
+            for (int i = 0; i < adjacentIds.length; i++) {
+                adjacentIds[i] = adjacent.get(i).getId();
+            }
+            ids[node.getId()] = adjacentIds;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the symbol table of the network.
+     * Networks parsed from XML number their variables in declaration order, the variables of a network built by hand
+     * are numbered by name when the table is first needed.
+     *
+     * @return the symbol table
+     */
+    public synchronized SymbolTable getSymbolTable() {
+        if (symbols == null) {
+            List<String> names = new ArrayList<>(network.keySet());
+            names.sort(null);
+            List<List<String>> outcomes = new ArrayList<>();
+            for (int id = 0; id < names.size(); id++) {
+                Node node = network.get(names.get(id));
+                node.setId(id);
+                outcomes.add(node.getOutcomes());
+            }
+            symbols = new SymbolTable(names, outcomes);
+            nodesById = null;
+        }
+        return symbols;
+    }
+
     /**
      * Returns a collection of all nodes in the network.
      *
@@ -68,7 +263,39 @@ public class BayesianNetwork {
      * @param name the name of the node to remove
      */
     public void removeNode(String name) {
-        this.network.remove(name);
+        checkNotFrozen();
+        Node removed = this.network.remove(name);
+        if (removed != null && nodesById != null) {
+            nodesById[removed.getId()] = null;
+        }
+    }
+
+    /**
+     * Checks if the network can't be modified anymore.
+     *
+     * @return true if the network was parsed and is shared, false otherwise
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns the cache of d-separation results of the network.
+     * It is only used while the network is frozen, as the results of a modifiable network may change.
+     *
+     * @return the d-separation cache
+     */
+    public DSeparationCache getDSeparationCache() {
+        return dSeparationCache;
+    }
+
+    /**
+     * Fails if the network can't be modified.
+     */
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("The network is shared and can't be modified, use a copy or a NetworkView");
+        }
     }
 
     /**
@@ -90,58 +317,28 @@ public class BayesianNetwork {
      * Parses a Bayesian network from an XML file.
      *
      * @param filename the name of the XML file
-     * @return the parsed Bayesian network
-     */
-    public static BayesianNetwork parseXML(String filename) {
-        BayesianNetwork network = new BayesianNetwork();
-        try {
-            File file = new File(filename);
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(file);
-            doc.getDocumentElement().normalize();
-
-            NodeList nodeList = doc.getElementsByTagName("VARIABLE");
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Element element = (Element) nodeList.item(i);
-                String name = element.getElementsByTagName("NAME").item(0).getTextContent();
-                Node node = new Node(name);
-                NodeList outcomes = element.getElementsByTagName("OUTCOME");
-                for (int j = 0; j < outcomes.getLength(); j++) {
-                    node.addOutcome(outcomes.item(j).getTextContent());
-                }
-                network.addNode(node);
-            }
-
-            NodeList definitionList = doc.getElementsByTagName("DEFINITION");
-            for (int i = 0; i < definitionList.getLength(); i++) {
-                Element element = (Element) definitionList.item(i);
-                String name = element.getElementsByTagName("FOR").item(0).getTextContent();
-                Node node = network.getNode(name);
-                if (node == null) {
-                    throw new IllegalArgumentException("Node " + name + " not found in the network.");
-                }
-                NodeList givenNodes = element.getElementsByTagName("GIVEN");
-                for (int j = 0; j < givenNodes.getLength(); j++) {
-                    String parentName = givenNodes.item(j).getTextContent();
-                    Node parent = network.getNode(parentName);
-                    if (parent == null) {
-                        throw new IllegalArgumentException("Parent node " + parentName + " not found in the network.");
-                    }
-                    node.addParent(parent);
-                    parent.addChild(node);
-                }
+     * @return the parsed Bayesian network, frozen
+     * @throws NetworkParseException if the file is not a valid network
+     * @throws IOException if the file can't be read
+     * @see XmlBifReader
+     */
+    public static BayesianNetwork parseXML(String filename) throws IOException {
+        return XmlBifReader.read(filename);
+    }
 
-                NodeList givenProbabilities = element.getElementsByTagName("TABLE");
-                String probs = givenProbabilities.item(0).getTextContent();
-                String[] probsArr = probs.split(" ");
-                List<Double> probsLst = Arrays.asList(probsArr).stream().map(Double::parseDouble).toList();
-                node.generateCPT(probsLst);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Loads a Bayesian network from a compiled file ({@value CompiledNetwork#EXTENSION}) or from an XML file.
+     *
+     * @param filename the name of the compiled or XML file
+     * @return the loaded Bayesian network, frozen
+     * @throws NetworkParseException if the file is not a valid network
+     * @throws IOException if the file can't be read
+     */
+    public static BayesianNetwork load(String filename) throws IOException {
+        if (filename.endsWith(CompiledNetwork.EXTENSION)) {
+            return CompiledNetwork.load(Paths.get(filename)).toBayesianNetwork();
         }
-        return network;
+        return parseXML(filename);
     }
 
     /**
@@ -149,47 +346,17 @@ public class BayesianNetwork {
      *
      * @param query the query to process
      * @return a new Query object with irrelevant nodes removed
+     * @see NetworkView#removeIrrelevantNodes(Query)
      */
     public Query removeIrrelevantNodes(Query query) {
-        Query newQuery = new Query(query);
-        List<String> hidden = query.getHiddenVariables();
-        for (String h : hidden) {
-            boolean isLeaf = isLeafNode(h); // leaf nodes that are not in the query are irrelevant
-            boolean isIndependent = BayesBall.isIndependent(this, query.getQueryVariable(), h, query.getEvidenceVariables()) // independent hidden nodes are irrelevant
-                    && BayesBall.isIndependent(this, h, query.getQueryVariable(), query.getEvidenceVariables());  // check both directions
-            if (isIndependent || isLeaf) { // if node is irrelevant
-                removeSubtree(h); // remove the subtree rooted at the node
-                newQuery.removeHiddenVariable(h); // remove the node from the list of hidden variables
+        checkNotFrozen();
+        NetworkView view = new NetworkView(this);
+        Query newQuery = view.removeIrrelevantNodes(query);
+        for (Node node : new ArrayList<>(getNodes())) { // remove what the view masked out
+            if (!view.contains(node.getId())) {
+                removeNode(node.getName());
             }
         }
         return newQuery;
     }
-
-    /**
-     * Recursively removes a subtree starting from the given root node.
-     *
-     * @param root the root node of the subtree to remove
-     */
-    private void removeSubtree(String root) {
-        Node curr = getNode(root);
-
-        for (Node child : curr.getChildren()) {
-            removeSubtree(child.getName());
-        }
-        this.network.remove(root);
-    }
-
-    /**
-     * Checks if a node is a leaf node.
-     *
-     * @param nodeName the name of the node
-     * @return true if the node is a leaf node, false otherwise
-     */
-    private boolean isLeafNode(String nodeName) {
-        Node node = getNode(nodeName);
-        if (node == null) {
-            return false;
-        }
-        return node.getChildren().isEmpty();
-    }
 }
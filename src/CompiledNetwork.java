@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compiled binary form of a Bayesian network, which loads without parsing XML.
+ * A compiled file holds, in little-endian order:
+ * <pre>
+ *   int magic "BNC1", int version
+ *   int n, then for every variable: its name and outcomes (int length + UTF-8 bytes each)
+ *   for every variable: int parent count + parent ids, int child count + child ids
+ *   n ints: the topological order
+ *   for every variable: long offset and int length of its CPT, in doubles
+ *   padding to a multiple of 8 bytes, then all CPTs as contiguous doubles
+ * </pre>
+ * The loader memory-maps the file and exposes the CPTs as slices of the mapped buffer, without copying them. The
+ * factor kernels work on {@code double[]}, so {@link #toBayesianNetwork()} copies every CPT into its node once; the
+ * saving over XML is the parsing, not the copy.
+ */
+public class CompiledNetwork {
+    public static final String EXTENSION = ".bnc";
+    private static final int MAGIC = 0x31434E42; // "BNC1" in little-endian order
+    private static final int VERSION = 1;
+
+    private final SymbolTable symbols;
+    private final int[][] parents; // parent ids of every variable
+    private final int[][] children; // child ids of every variable
+    private final int[] topologicalOrder;
+    private final long[] cptOffsets; // first double of every CPT
+    private final int[] cptLengths; // number of doubles of every CPT
+    private final DoubleBuffer cpts; // all CPTs, backed by the mapped file
+
+    /**
+     * Constructs a compiled network from its loaded parts.
+     */
+    private CompiledNetwork(SymbolTable symbols, int[][] parents, int[][] children, int[] topologicalOrder,
+                            long[] cptOffsets, int[] cptLengths, DoubleBuffer cpts) {
+        this.symbols = symbols;
+        this.parents = parents;
+        this.children = children;
+        this.topologicalOrder = topologicalOrder;
+        this.cptOffsets = cptOffsets;
+        this.cptLengths = cptLengths;
+        this.cpts = cpts;
+    }
+
+    /**
+     * Writes a Bayesian network in the compiled format.
+     *
+     * @param network the Bayesian network, every variable of its symbol table must be in it
+     * @param path the path of the compiled file
+     * @throws IOException if the file can't be written
+     */
+    public static void write(BayesianNetwork network, Path path) throws IOException {
+        SymbolTable symbols = network.getSymbolTable();
+        int n = symbols.getVariableCount();
+        int[][] parents = network.getParentIds();
+        int[][] children = network.getChildIds();
+        int[] order = network.getTopologicalOrder();
+        if (order.length != n) {
+            throw new IllegalArgumentException("Only complete networks can be compiled");
+        }
+
+        // Encode the strings first, so the size of the header is known
+        List<byte[]> strings = new ArrayList<>();
+        long headerSize = 3 * Integer.BYTES + (long) n * Integer.BYTES;
+        for (int v = 0; v < n; v++) {
+            strings.add(symbols.getVariableName(v).getBytes(StandardCharsets.UTF_8));
+            headerSize += Integer.BYTES; // number of outcomes
+            for (String outcome : symbols.getOutcomes(v)) {
+                strings.add(outcome.getBytes(StandardCharsets.UTF_8));
+            }
+            headerSize += (2L + parents[v].length + children[v].length) * Integer.BYTES;
+            headerSize += Long.BYTES + Integer.BYTES; // CPT offset and length
+        }
+        for (byte[] string : strings) {
+            headerSize += Integer.BYTES + string.length;
+        }
+        int padding = (int) ((Double.BYTES - headerSize % Double.BYTES) % Double.BYTES);
+
+        ByteBuffer header = ByteBuffer.allocate(Math.toIntExact(headerSize + padding)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n);
+        Iterator<byte[]> string = strings.iterator();
+        for (int v = 0; v < n; v++) {
+            putString(header, string.next());
+            header.putInt(symbols.getCardinality(v));
+            for (int o = 0; o < symbols.getCardinality(v); o++) {
+                putString(header, string.next());
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            putIds(header, parents[v]);
+            putIds(header, children[v]);
+        }
+        for (int id : order) {
+            header.putInt(id);
+        }
+        long offset = 0;
+        for (int v = 0; v < n; v++) {
+            int length = network.getNode(v).getProbabilities().length;
+            header.putLong(offset).putInt(length);
+            offset += length;
+        }
+        header.position(header.position() + padding).flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int v = 0; v < n; v++) { // CPTs in id order, as the offsets were assigned
+                for (double value : network.getNode(v).getProbabilities()) {
+                    if (!chunk.hasRemaining()) {
+                        chunk.flip();
+                        writeFully(channel, chunk);
+                        chunk.clear();
+                    }
+                    chunk.putDouble(value);
+                }
+            }
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    /**
+     * Loads a compiled network by memory-mapping the file.
+     *
+     * @param path the path of the compiled file
+     * @return the compiled network
+     * @throws NetworkParseException if the file is not a valid compiled network
+     * @throws IOException if the file can't be read
+     */
+    public static CompiledNetwork load(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after closing
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new NetworkParseException(path.toString(), -1, -1, "Not a compiled network file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new NetworkParseException(path.toString(), -1, -1, "Unsupported compiled network version " + version);
+            }
+            int n = buffer.getInt();
+            List<String> names = new ArrayList<>(n);
+            List<List<String>> outcomes = new ArrayList<>(n);
+            for (int v = 0; v < n; v++) {
+                names.add(getString(buffer));
+                int cardinality = buffer.getInt();
+                List<String> variableOutcomes = new ArrayList<>(cardinality);
+                for (int o = 0; o < cardinality; o++) {
+                    variableOutcomes.add(getString(buffer));
+                }
+                outcomes.add(variableOutcomes);
+            }
+            int[][] parents = new int[n][];
+            int[][] children = new int[n][];
+            for (int v = 0; v < n; v++) {
+                parents[v] = getIds(buffer, n);
+                children[v] = getIds(buffer, n);
+            }
+            int[] order = getIds(buffer, n, n);
+            checkOrder(path, order, parents, names);
+            long[] offsets = new long[n];
+            int[] lengths = new int[n];
+            for (int v = 0; v < n; v++) {
+                offsets[v] = buffer.getLong();
+                lengths[v] = buffer.getInt();
+            }
+            buffer.position(buffer.position() + (Double.BYTES - buffer.position() % Double.BYTES) % Double.BYTES);
+            DoubleBuffer cpts = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            for (int v = 0; v < n; v++) {
+                long expected = outcomes.get(v).size();
+                for (int parent : parents[v]) {
+                    expected *= outcomes.get(parent).size();
+                    if (expected > Integer.MAX_VALUE) { // no int length matches, stop before the long overflows
+                        break;
+                    }
+                }
+                if (lengths[v] != expected) {
+                    throw new NetworkParseException(path.toString(), -1, -1, "CPT of " + names.get(v) + " has "
+                            + lengths[v] + " values, expected " + expected);
+                }
+                if (offsets[v] < 0 || offsets[v] + lengths[v] > cpts.capacity()) {
+                    throw new NetworkParseException(path.toString(), -1, -1, "CPT of " + names.get(v) + " is out of the file");
+                }
+            }
+            return new CompiledNetwork(new SymbolTable(names, outcomes), parents, children, order, offsets, lengths, cpts);
+        } catch (BufferUnderflowException | IllegalArgumentException e) { // truncated file or corrupt header
+            throw new NetworkParseException(path.toString(), -1, -1, "Corrupt compiled network file", e);
+        }
+    }
+
+    /**
+     * Compiles an XMLBIF file.
+     *
+     * @param xmlFile the path to the XML file
+     * @param compiledFile the path of the compiled file
+     * @throws IOException if the XML file is not a valid network or a file can't be accessed
+     */
+    public static void compile(String xmlFile, String compiledFile) throws IOException {
+        write(XmlBifReader.read(xmlFile), Paths.get(compiledFile));
+    }
+
+    /**
+     * Returns the symbol table of the network.
+     *
+     * @return the symbol table
+     */
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    /**
+     * Returns the ids of the parents of a variable.
+     *
+     * @param variable the id of the variable
+     * @return a copy of the parent ids, in the order of the CPT columns
+     */
+    public int[] getParents(int variable) {
+        return parents[variable].clone();
+    }
+
+    /**
+     * Returns the ids of the children of a variable.
+     *
+     * @param variable the id of the variable
+     * @return a copy of the child ids
+     */
+    public int[] getChildren(int variable) {
+        return children[variable].clone();
+    }
+
+    /**
+     * Returns the ids of the variables in topological order.
+     *
+     * @return a copy of the topological order
+     */
+    public int[] getTopologicalOrder() {
+        return topologicalOrder.clone();
+    }
+
+    /**
+     * Returns the CPT of a variable as a read-only slice of the mapped file, without copying it.
+     *
+     * @param variable the id of the variable
+     * @return the probabilities for the CPT in row-major order, the variable's own outcome changes fastest
+     */
+    public DoubleBuffer getCPT(int variable) {
+        int offset = (int) cptOffsets[variable];
+        return cpts.duplicate().position(offset).limit(offset + cptLengths[variable]).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Builds a frozen Bayesian network with the nodes of the compiled network.
+     * The CPTs are copied from the mapped file into the nodes with one bulk read each. The network reuses the stored
+     * adjacency and topological order instead of deriving them again.
+     *
+     * @return the Bayesian network
+     */
+    public BayesianNetwork toBayesianNetwork() {
+        int n = symbols.getVariableCount();
+        List<Node> nodes = new ArrayList<>(n);
+        for (int v = 0; v < n; v++) {
+            Node node = new Node(v, symbols.getVariableName(v));
+            for (String outcome : symbols.getOutcomes(v)) {
+                node.addOutcome(outcome);
+            }
+            nodes.add(node);
+        }
+        for (int v = 0; v < n; v++) {
+            Node node = nodes.get(v);
+            for (int parent : parents[v]) {
+                node.addParent(nodes.get(parent));
+            }
+            for (int child : children[v]) {
+                node.addChild(nodes.get(child));
+            }
+            double[] probabilities = new double[cptLengths[v]];
+            getCPT(v).get(probabilities);
+            node.setProbabilities(probabilities);
+        }
+        return new BayesianNetwork(nodes, symbols, parents, children, topologicalOrder);
+    }
+
+    /**
+     * Checks that the stored topological order holds every variable once and places every variable after its parents.
+     *
+     * @param path the path of the compiled file, for the error message
+     * @param order the stored order
+     * @param parents the parent ids of every variable
+     * @param names the names of the variables
+     * @throws NetworkParseException if the order is not a topological order of the network
+     */
+    private static void checkOrder(Path path, int[] order, int[][] parents, List<String> names) throws NetworkParseException {
+        int[] position = new int[order.length];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < order.length; i++) {
+            if (position[order[i]] >= 0) {
+                throw new NetworkParseException(path.toString(), -1, -1, "Topological order lists " + names.get(order[i]) + " twice");
+            }
+            position[order[i]] = i;
+        }
+        for (int v = 0; v < order.length; v++) {
+            for (int parent : parents[v]) {
+                if (position[parent] > position[v]) {
+                    throw new NetworkParseException(path.toString(), -1, -1, "Topological order places "
+                            + names.get(v) + " before its parent " + names.get(parent));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a length-prefixed string.
+     *
+     * @param buffer the buffer to write to
+     * @param string the UTF-8 bytes of the string
+     */
+    private static void putString(ByteBuffer buffer, byte[] string) {
+        buffer.putInt(string.length).put(string);
+    }
+
+    /**
+     * Reads a length-prefixed string.
+     *
+     * @param buffer the buffer to read from
+     * @return the string
+     */
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a count-prefixed list of ids.
+     *
+     * @param buffer the buffer to write to
+     * @param ids the ids
+     */
+    private static void putIds(ByteBuffer buffer, int[] ids) {
+        buffer.putInt(ids.length);
+        for (int id : ids) {
+            buffer.putInt(id);
+        }
+    }
+
+    /**
+     * Reads a count-prefixed list of ids.
+     *
+     * @param buffer the buffer to read from
+     * @param n the number of variables
+     * @return the ids
+     */
+    private static int[] getIds(ByteBuffer buffer, int n) {
+        return getIds(buffer, buffer.getInt(), n);
+    }
+
+    /**
+     * Reads a list of ids of known length.
+     *
+     * @param buffer the buffer to read from
+     * @param count the number of ids
+     * @param n the number of variables
+     * @return the ids
+     */
+    private static int[] getIds(ByteBuffer buffer, int count, int n) {
+        if (count < 0 || count > n) {
+            throw new IllegalArgumentException("Invalid number of ids " + count);
+        }
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = buffer.getInt();
+            if (ids[i] < 0 || ids[i] >= n) {
+                throw new IllegalArgumentException("Invalid id " + ids[i]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel.
+     *
+     * @param channel the channel to write to
+     * @param buffer the bytes to write
+     * @throws IOException if the bytes can't be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.util.*;
+
+/**
+ * Predicts the cost of a variable elimination run before it runs. The run is replayed on the column names of the
+ * factors only, in the same order as {@link VariableElimination} (sorted factors, buckets summed out with
+ * {@link Factor#sumProduct}, remaining factors joined pairwise), so the sizes of all factors and the multiplication and
+ * addition counts are exact while no table is allocated and no arithmetic is done.
+ * <p>
+ * The memory estimate assumes dense tables of doubles for every factor alive at the same time, which is an upper bound
+ * for factors that end up stored sparsely.
+ */
+public class CostEstimator {
+
+    /**
+     * Predicts the cost of eliminating the hidden variables from the nodes of a view.
+     *
+     * @param view the (pruned) view of the Bayesian network
+     * @param evidenceVariables the ids of the evidence variables
+     * @param hiddenVariables the ids of the hidden variables to eliminate, in elimination order
+     * @return the predicted cost
+     */
+    public static Estimate estimate(NetworkView view, int[] evidenceVariables, int[] hiddenVariables) {
+        SymbolTable symbols = view.getSymbolTable();
+        Set<String> observed = new HashSet<>();
+        for (int e : evidenceVariables) {
+            observed.add(symbols.getVariableName(e));
+        }
+        Estimate estimate = new Estimate();
+        List<Shape> factors = new ArrayList<>(); // the factors kept by the variable elimination, by their columns only
+        int created = 0; // creation order, breaks ties between factors with equal columns
+        long live = 0; // entries of all factors alive at the same time
+
+        for (Node node : view.getNodes()) { // the CPT of every node, instantiated with the evidence
+            List<String> columns = new ArrayList<>();
+            for (Node parent : node.getParents()) {
+                columns.add(parent.getName());
+            }
+            columns.add(node.getName());
+            columns.removeIf(observed::contains);
+            Shape shape = new Shape(columns, size(symbols, columns), created++);
+            if (shape.size > 1) { // factors with a single entry are discarded
+                factors.add(shape);
+                live = add(live, shape.size);
+                estimate.maxFactorSize = Math.max(estimate.maxFactorSize, shape.size);
+            }
+        }
+        factors.sort(Shape::compareTo);
+        estimate.peakEntries = live;
+
+        for (int hidden : hiddenVariables) {
+            String variable = symbols.getVariableName(hidden);
+            List<Shape> bucket = new ArrayList<>();
+            for (Shape shape : factors) {
+                if (shape.columns.contains(variable)) {
+                    bucket.add(shape);
+                }
+            }
+            if (bucket.isEmpty()) { // the run stops here without an answer
+                estimate.missingVariable = hidden;
+                return estimate;
+            }
+
+            List<List<String>> scopes = new ArrayList<>(); // replay the pairwise joins the counts are defined by
+            for (Shape shape : bucket) {
+                scopes.add(shape.columns);
+            }
+            scopes.sort(Factor::compareColumns);
+            while (scopes.size() > 1) {
+                List<String> joined = join(scopes.remove(0), scopes.remove(0));
+                estimate.multiplications = add(estimate.multiplications, size(symbols, joined));
+                scopes.add(joined);
+                scopes.sort(Factor::compareColumns);
+            }
+            List<String> columns = new ArrayList<>(scopes.get(0));
+            columns.remove(variable);
+            Shape message = new Shape(columns, size(symbols, columns), created++);
+            estimate.additions = add(estimate.additions, times(message.size, symbols.getCardinality(hidden) - 1));
+            estimate.intermediateSizes.add(message.size);
+            estimate.maxFactorSize = Math.max(estimate.maxFactorSize, message.size);
+            estimate.peakEntries = Math.max(estimate.peakEntries, add(live, message.size));
+
+            factors.removeAll(bucket);
+            for (Shape shape : bucket) {
+                live -= shape.size;
+            }
+            if (message.size > 1) {
+                factors.add(message);
+                factors.sort(Shape::compareTo);
+                live = add(live, message.size);
+            }
+        }
+
+        while (factors.size() > 1) { // join the remaining factors
+            Shape first = factors.remove(0);
+            Shape second = factors.remove(0);
+            List<String> columns = join(first.columns, second.columns);
+            Shape joined = new Shape(columns, size(symbols, columns), created++);
+            estimate.multiplications = add(estimate.multiplications, joined.size);
+            estimate.intermediateSizes.add(joined.size);
+            estimate.maxFactorSize = Math.max(estimate.maxFactorSize, joined.size);
+            estimate.peakEntries = Math.max(estimate.peakEntries, add(live, joined.size));
+            live = add(live - first.size - second.size, joined.size);
+            factors.add(joined);
+            factors.sort(Shape::compareTo);
+        }
+        estimate.finalFactorSize = factors.isEmpty() ? 0 : factors.get(0).size;
+        return estimate;
+    }
+
+    /**
+     * Returns the columns of the join of two factors: the first columns followed by the new ones of the second.
+     *
+     * @param first the columns of the first factor
+     * @param second the columns of the second factor
+     * @return the joined columns
+     */
+    private static List<String> join(List<String> first, List<String> second) {
+        List<String> joined = new ArrayList<>(first);
+        for (String column : second) {
+            if (!joined.contains(column)) {
+                joined.add(column);
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Computes the number of entries of a factor over some variables.
+     *
+     * @param symbols the symbol table of the network
+     * @param columns the names of the variables
+     * @return the number of entries, {@link Long#MAX_VALUE} if it doesn't fit
+     */
+    private static long size(SymbolTable symbols, List<String> columns) {
+        long size = 1;
+        for (String column : columns) {
+            size = times(size, symbols.getCardinality(symbols.getVariableId(column)));
+        }
+        return size;
+    }
+
+    /**
+     * Multiplies two non-negative counts, saturating at {@link Long#MAX_VALUE}.
+     *
+     * @param a the first count
+     * @param b the second count
+     * @return the product
+     */
+    private static long times(long a, long b) {
+        return b != 0 && a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+
+    /**
+     * Adds two non-negative counts, saturating at {@link Long#MAX_VALUE}.
+     *
+     * @param a the first count
+     * @param b the second count
+     * @return the sum
+     */
+    private static long add(long a, long b) {
+        return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+    }
+
+    /**
+     * The predicted cost of a variable elimination run.
+     */
+    public static class Estimate {
+        private long multiplications;
+        private long additions;
+        private long maxFactorSize;
+        private long finalFactorSize;
+        private long peakEntries; // entries of all factors alive at the same time, at the worst moment
+        private final List<Long> intermediateSizes = new ArrayList<>(); // every message and joined factor, in order
+        private int missingVariable = -1;
+
+        /**
+         * Returns the number of multiplications the run reports.
+         *
+         * @return the number of multiplications
+         */
+        public long getMultiplications() {
+            return multiplications;
+        }
+
+        /**
+         * Returns the number of additions the run reports, without the normalization of the final factor.
+         *
+         * @return the number of additions
+         */
+        public long getAdditions() {
+            return additions;
+        }
+
+        /**
+         * Returns the number of entries of the largest factor of the run.
+         *
+         * @return the size of the largest factor
+         */
+        public long getMaxFactorSize() {
+            return maxFactorSize;
+        }
+
+        /**
+         * Returns the number of entries of the final factor, the normalization takes one addition less.
+         *
+         * @return the size of the final factor
+         */
+        public long getFinalFactorSize() {
+            return finalFactorSize;
+        }
+
+        /**
+         * Returns the sizes of the messages of the buckets and of the joined factors, in the order they are built.
+         *
+         * @return the intermediate factor sizes
+         */
+        public List<Long> getIntermediateSizes() {
+            return Collections.unmodifiableList(intermediateSizes);
+        }
+
+        /**
+         * Returns the memory the factors of the run need at the worst moment, with dense tables.
+         *
+         * @return the peak memory in bytes
+         */
+        public long getPeakBytes() {
+            return times(peakEntries, Double.BYTES);
+        }
+
+        /**
+         * Checks if the run can be done at all: every hidden variable has a factor and every factor fits in an array.
+         *
+         * @return true if the run is feasible, false otherwise
+         */
+        public boolean isFeasible() {
+            return missingVariable == -1 && maxFactorSize <= Integer.MAX_VALUE;
+        }
+
+        /**
+         * Returns the first hidden variable that no factor contains when it is its turn.
+         *
+         * @return the id of the variable, or -1 if there is none
+         */
+        public int getMissingVariable() {
+            return missingVariable;
+        }
+    }
+
+    /**
+     * The columns of a factor of the replayed run, ordered like the factors themselves.
+     */
+    private static final class Shape implements Comparable<Shape> {
+        private final List<String> columns;
+        private final long size;
+        private final int created;
+
+        /**
+         * Constructs the shape of a factor.
+         *
+         * @param columns the column names
+         * @param size the number of entries
+         * @param created the creation order of the factor
+         */
+        Shape(List<String> columns, long size, int created) {
+            this.columns = columns;
+            this.size = size;
+            this.created = created;
+        }
+
+        /**
+         * Orders shapes like {@link Factor#compareTo}, and factors with equal columns by their creation order.
+         *
+         * @param other the shape to compare with
+         * @return a negative integer, zero, or a positive integer as this shape comes before, with or after the other
+         */
+        @Override
+        public int compareTo(Shape other) {
+            int cmp = Factor.compareColumns(columns, other.columns);
+            return cmp != 0 ? cmp : Integer.compare(created, other.created);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Size-bounded cache of d-separation results of a shared Bayesian network.
+ * Every entry holds the set of nodes that are d-separated from (or to) one node given one evidence set, so all the
+ * Bayes-Ball checks and pruning decisions that share a node and evidence cost a single traversal.
+ * The least recently used entry is evicted once the cache is full.
+ */
+public class DSeparationCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<Key, BitSet> entries; // access-ordered, so iteration starts at the least recently used entry
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a cache with the default capacity.
+     */
+    public DSeparationCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a cache that holds at most the given number of results.
+     *
+     * @param capacity the maximal number of cached results
+     */
+    public DSeparationCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity of the cache must be positive");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, BitSet> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for a node and evidence set, computing and caching it if it is missing.
+     * The result is computed outside the lock, so two threads may compute the same result at once.
+     *
+     * @param node the id of the source (forward) or target (backward) node
+     * @param evidence the set of evidence node ids
+     * @param forward true for the nodes d-separated from the node, false for the nodes the node is d-separated from
+     * @param compute computes the result on a miss
+     * @return a copy of the set of d-separated node ids
+     */
+    public BitSet get(int node, BitSet evidence, boolean forward, Supplier<BitSet> compute) {
+        Key lookup = new Key(node, evidence, forward); // refers to the caller's evidence, only stored keys own a copy
+        BitSet result;
+        synchronized (this) {
+            result = entries.get(lookup);
+            if (result != null) {
+                hits++;
+                return (BitSet) result.clone();
+            }
+            misses++;
+        }
+        result = compute.get();
+        synchronized (this) {
+            entries.put(new Key(node, (BitSet) evidence.clone(), forward), result);
+        }
+        return (BitSet) result.clone();
+    }
+
+    /**
+     * Returns the number of lookups that were answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to run a traversal.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return the size of the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Key of a cached result: the node, the evidence and the direction of the traversal.
+     */
+    private static final class Key {
+        private final int node;
+        private final BitSet evidence;
+        private final boolean forward;
+
+        Key(int node, BitSet evidence, boolean forward) {
+            this.node = node;
+            this.evidence = evidence;
+            this.forward = forward;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return node == key.node && forward == key.forward && evidence.equals(key.evidence);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * node + evidence.hashCode()) * 2 + (forward ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+import java.util.*;
+
+/**
+ * Computes elimination orders for variable elimination from the moral graph of a (pruned) Bayesian network.
+ * Variables are eliminated greedily, always picking the one with the lowest cost under the chosen heuristic,
+ * ties are broken by the lower variable id so the orders are deterministic.
+ * Plans are cached per network, evidence set and set of remaining nodes, so repeated queries reuse them. The cache is
+ * bounded and drops its least recently used plans, so a long-running server that loads new networks doesn't keep the
+ * plans of the old ones forever.
+ */
+public class EliminationOrderPlanner {
+
+    /**
+     * Enumeration for the greedy cost function used to pick the next variable.
+     */
+    public enum Heuristic {
+        MIN_DEGREE, // number of neighbours of the variable
+        MIN_FILL, // number of edges added between the neighbours of the variable
+        WEIGHTED_MIN_FILL; // sum of the products of the cardinalities of the added edges
+
+        /**
+         * Parses a heuristic from its name in a query, e.g. "min-fill".
+         *
+         * @param name the name of the heuristic
+         * @return the heuristic
+         */
+        public static Heuristic fromName(String name) {
+            return Heuristic.valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<PlanKey, int[]> cache; // cached elimination orders, least recently used first
+
+    /**
+     * Constructs a planner whose cache holds the default number of plans.
+     */
+    public EliminationOrderPlanner() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a planner whose cache holds at most the given number of plans.
+     *
+     * @param capacity the maximal number of cached plans
+     */
+    public EliminationOrderPlanner(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity of the cache must be positive");
+        }
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PlanKey, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns an elimination order for the hidden variables, reusing a cached plan when one exists.
+     *
+     * @param network the (pruned) Bayesian network
+     * @param evidence the set of evidence variable ids
+     * @param hiddenVariables the ids of the variables to eliminate
+     * @param heuristic the greedy cost function
+     * @return the ids of the hidden variables in elimination order
+     */
+    public int[] plan(BayesianNetwork network, BitSet evidence, int[] hiddenVariables, Heuristic heuristic) {
+        return plan(new NetworkView(network), evidence, hiddenVariables, heuristic);
+    }
+
+    /**
+     * Returns an elimination order for the hidden variables of a pruned view, reusing a cached plan when one exists.
+     *
+     * @param view the (pruned) view of the Bayesian network
+     * @param evidence the set of evidence variable ids
+     * @param hiddenVariables the ids of the variables to eliminate
+     * @param heuristic the greedy cost function
+     * @return the ids of the hidden variables in elimination order
+     */
+    public int[] plan(NetworkView view, BitSet evidence, int[] hiddenVariables, Heuristic heuristic) {
+        BitSet nodes = view.getActiveNodes();
+        BitSet hidden = new BitSet();
+        for (int h : hiddenVariables) {
+            hidden.set(h);
+        }
+        PlanKey key = new PlanKey(view.getSymbolTable(), (BitSet) evidence.clone(), nodes, hidden, heuristic);
+        int[] order;
+        synchronized (cache) {
+            order = cache.get(key);
+        }
+        if (order == null) { // planned outside the lock, two threads may plan the same order at once
+            order = computeOrder(view, evidence, hidden, heuristic);
+            synchronized (cache) {
+                cache.put(key, order);
+            }
+        }
+        return order.clone();
+    }
+
+    /**
+     * Returns the number of cached plans.
+     *
+     * @return the size of the cache
+     */
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Computes an elimination order greedily on the moral graph of the network.
+     *
+     * @param view the (pruned) view of the Bayesian network
+     * @param evidence the set of evidence variable ids
+     * @param hidden the set of variable ids to eliminate
+     * @param heuristic the greedy cost function
+     * @return the ids of the hidden variables in elimination order
+     */
+    static int[] computeOrder(NetworkView view, BitSet evidence, BitSet hidden, Heuristic heuristic) {
+        SymbolTable symbols = view.getSymbolTable();
+        BitSet[] neighbours = moralGraph(view, evidence);
+
+        BitSet remaining = (BitSet) hidden.clone();
+        int[] order = new int[remaining.cardinality()];
+        for (int step = 0; step < order.length; step++) {
+            int best = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+                long cost = cost(v, neighbours, symbols, heuristic);
+                if (cost < bestCost) { // ties keep the lower id
+                    best = v;
+                    bestCost = cost;
+                }
+            }
+            order[step] = best;
+            remaining.clear(best);
+            eliminate(best, neighbours);
+        }
+        return order;
+    }
+
+    /**
+     * Builds the moral graph of the network after the evidence is instantiated:
+     * the variables of every CPT are connected to each other, evidence variables are left out.
+     *
+     * @param view the (pruned) view of the Bayesian network
+     * @param evidence the set of evidence variable ids
+     * @return the neighbours of every variable id
+     */
+    static BitSet[] moralGraph(NetworkView view, BitSet evidence) {
+        int size = view.getSymbolTable().getVariableCount();
+        BitSet[] neighbours = new BitSet[size];
+        for (int v = 0; v < size; v++) {
+            neighbours[v] = new BitSet(size);
+        }
+        for (Node node : view.getNodes()) {
+            List<Integer> scope = new ArrayList<>(); // variables of the node's factor after instantiation
+            for (Node parent : node.getParents()) {
+                if (view.contains(parent.getId()) && !evidence.get(parent.getId())) {
+                    scope.add(parent.getId());
+                }
+            }
+            if (!evidence.get(node.getId())) {
+                scope.add(node.getId());
+            }
+            for (int a : scope) {
+                for (int b : scope) {
+                    if (a != b) {
+                        neighbours[a].set(b);
+                    }
+                }
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * Computes the cost of eliminating a variable next.
+     *
+     * @param v the id of the variable
+     * @param neighbours the current graph
+     * @param symbols the symbol table of the network
+     * @param heuristic the greedy cost function
+     * @return the cost of eliminating the variable
+     */
+    private static long cost(int v, BitSet[] neighbours, SymbolTable symbols, Heuristic heuristic) {
+        BitSet adjacent = neighbours[v];
+        if (heuristic == Heuristic.MIN_DEGREE) {
+            return adjacent.cardinality();
+        }
+        long cost = 0;
+        for (int a = adjacent.nextSetBit(0); a >= 0; a = adjacent.nextSetBit(a + 1)) {
+            for (int b = adjacent.nextSetBit(a + 1); b >= 0; b = adjacent.nextSetBit(b + 1)) {
+                if (!neighbours[a].get(b)) { // fill edge
+                    cost += heuristic == Heuristic.MIN_FILL ? 1 : (long) symbols.getCardinality(a) * symbols.getCardinality(b);
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Eliminates a variable from the graph, connecting all of its neighbours.
+     *
+     * @param v the id of the variable
+     * @param neighbours the current graph, updated in place
+     */
+    static void eliminate(int v, BitSet[] neighbours) {
+        BitSet adjacent = neighbours[v];
+        for (int a = adjacent.nextSetBit(0); a >= 0; a = adjacent.nextSetBit(a + 1)) {
+            neighbours[a].or(adjacent);
+            neighbours[a].clear(a);
+            neighbours[a].clear(v);
+        }
+        adjacent.clear();
+    }
+
+    /**
+     * Key of a cached plan: the network (identified by its symbol table), the evidence and the remaining nodes.
+     */
+    private static final class PlanKey {
+        private final SymbolTable symbols;
+        private final BitSet evidence;
+        private final BitSet nodes;
+        private final BitSet hidden;
+        private final Heuristic heuristic;
+
+        PlanKey(SymbolTable symbols, BitSet evidence, BitSet nodes, BitSet hidden, Heuristic heuristic) {
+            this.symbols = symbols;
+            this.evidence = evidence;
+            this.nodes = nodes;
+            this.hidden = hidden;
+            this.heuristic = heuristic;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PlanKey)) return false;
+            PlanKey key = (PlanKey) o;
+            return symbols == key.symbols && heuristic == key.heuristic && evidence.equals(key.evidence)
+                    && nodes.equals(key.nodes) && hidden.equals(key.hidden);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(symbols), evidence, nodes, hidden, heuristic);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+import java.util.*;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The elimination tree (bucket tree) of a variable elimination run.
+ * <p>
+ * Every hidden variable has a bucket. A factor goes to the bucket of the first hidden variable in the elimination order
+ * that it contains, and the message a bucket produces goes to the bucket of the first later hidden variable it
+ * contains, or to the final combination if it contains none. Buckets in separate subtrees don't depend on each other,
+ * so they are eliminated in parallel on the fork-join pool, every bucket as soon as the messages of all its children
+ * arrived. Only the final join of the remaining factors is sequential.
+ * <p>
+ * Every bucket sees its factors in the order the sequential algorithm keeps them in, sorted and ties broken by the
+ * order they were created in, so the results and the counts are the same as eliminating one variable at a time.
+ */
+public class EliminationTree {
+    private final int[] hiddenVariables; // hidden variable of every bucket, in elimination order
+    private final int initialCount; // number of initial factors, the message of bucket j is slot initialCount + j
+    private final Factor[] slots; // initial factors followed by the messages, null while not computed or if discarded
+    private final List<List<Integer>> inputs = new ArrayList<>(); // slots of the factors of every bucket
+    private final List<Integer> remaining = new ArrayList<>(); // slots of the factors left for the final combination
+    private final int[] parent; // bucket receiving the message of every bucket, -1 if none
+    private final int[] children; // number of messages every bucket receives
+    private final FactorOperationResult[] results; // result of eliminating every bucket
+    private final MessageCache cache; // messages of earlier runs, null if nothing is reused
+    private int missingVariable = -1; // first hidden variable that no factor contains, -1 if there is none
+
+    /**
+     * Builds the elimination tree of the given factors from their scopes, without computing anything.
+     *
+     * @param factors the initial factors, in the sorted order kept by the variable elimination
+     * @param hiddenVariables the ids of the hidden variables, in elimination order
+     */
+    public EliminationTree(List<Factor> factors, int[] hiddenVariables) {
+        this(factors, hiddenVariables, null);
+    }
+
+    /**
+     * Builds the elimination tree of the given factors from their scopes, reusing the message of every bucket that
+     * was eliminated with the same factors before.
+     *
+     * @param factors the initial factors, in the sorted order kept by the variable elimination
+     * @param hiddenVariables the ids of the hidden variables, in elimination order
+     * @param cache the messages of earlier runs, null to compute every message
+     */
+    public EliminationTree(List<Factor> factors, int[] hiddenVariables, MessageCache cache) {
+        this.cache = cache;
+        this.hiddenVariables = hiddenVariables.clone();
+        this.initialCount = factors.size();
+        this.slots = new Factor[initialCount + hiddenVariables.length];
+        this.parent = new int[hiddenVariables.length];
+        this.children = new int[hiddenVariables.length];
+        this.results = new FactorOperationResult[hiddenVariables.length];
+
+        Map<Integer, Integer> bucketOf = new HashMap<>(); // bucket of every hidden variable
+        for (int j = 0; j < hiddenVariables.length; j++) {
+            bucketOf.putIfAbsent(hiddenVariables[j], j);
+            inputs.add(new ArrayList<>());
+        }
+        Map<Integer, Integer> cardinalities = new HashMap<>(); // number of outcomes of every variable
+        List<BitSet> scopes = new ArrayList<>(); // variables of every slot
+        for (int s = 0; s < initialCount; s++) {
+            Factor factor = factors.get(s);
+            slots[s] = factor;
+            BitSet scope = new BitSet();
+            int[] variables = factor.getVariables();
+            for (int c = 0; c < variables.length; c++) {
+                if (variables[c] < 0) {
+                    throw new IllegalArgumentException("Factor " + factor.getColumnNames() + " is not bound to a symbol table");
+                }
+                scope.set(variables[c]);
+                cardinalities.put(variables[c], factor.getDomains().get(c).size());
+            }
+            scopes.add(scope);
+            route(s, scope, bucketOf, -1);
+        }
+
+        for (int j = 0; j < hiddenVariables.length; j++) { // the scope of a message only depends on the scopes of its bucket
+            if (inputs.get(j).isEmpty()) {
+                missingVariable = hiddenVariables[j];
+                return; // the sequential algorithm stops at this variable
+            }
+            BitSet scope = new BitSet();
+            for (int s : inputs.get(j)) {
+                scope.or(scopes.get(s));
+            }
+            scope.clear(hiddenVariables[j]);
+            scopes.add(scope);
+            long size = 1;
+            for (int v = scope.nextSetBit(0); v >= 0; v = scope.nextSetBit(v + 1)) {
+                size *= cardinalities.get(v);
+            }
+            parent[j] = -1;
+            if (size > 1) { // messages with a single entry are discarded
+                int target = route(initialCount + j, scope, bucketOf, j);
+                if (target != -1) {
+                    parent[j] = target;
+                    children[target]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a factor to the bucket of the first hidden variable after a bucket that it contains, or to the final
+     * combination if there is none.
+     *
+     * @param slot the slot of the factor
+     * @param scope the variables of the factor
+     * @param bucketOf the bucket of every hidden variable
+     * @param after the bucket that produced the factor, -1 for the initial factors
+     * @return the bucket the factor was sent to, or -1 if it is left for the final combination
+     */
+    private int route(int slot, BitSet scope, Map<Integer, Integer> bucketOf, int after) {
+        int target = -1;
+        for (int v = scope.nextSetBit(0); v >= 0; v = scope.nextSetBit(v + 1)) {
+            Integer bucket = bucketOf.get(v);
+            if (bucket != null && bucket > after && (target == -1 || bucket < target)) {
+                target = bucket;
+            }
+        }
+        (target == -1 ? remaining : inputs.get(target)).add(slot);
+        return target;
+    }
+
+    /**
+     * Returns the first hidden variable that none of the factors contains when it is its turn to be eliminated.
+     *
+     * @return the id of the variable, or -1 if every bucket has factors
+     */
+    public int getMissingVariable() {
+        return missingVariable;
+    }
+
+    /**
+     * Returns the number of buckets that don't receive any message and can start right away.
+     *
+     * @return the number of leaves of the tree
+     */
+    public int getLeafCount() {
+        int leaves = 0;
+        for (int count : children) {
+            if (count == 0) {
+                leaves++;
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * Eliminates all buckets and joins the remaining factors.
+     * The buckets run in parallel when the tree has independent subtrees and the pool has more than one thread,
+     * otherwise one after the other in elimination order.
+     *
+     * @return the final factor, the total number of multiplications and additions and the size of the largest factor
+     * @throws IllegalStateException if a hidden variable is missing from the factors
+     */
+    public FactorOperationResult run() {
+        if (missingVariable != -1) {
+            throw new IllegalStateException("Didn't find factor with hidden value " + missingVariable);
+        }
+        int parallelism = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        if (parallelism > 1 && getLeafCount() > 1) {
+            new RootTask().invoke();
+        } else {
+            for (int j = 0; j < hiddenVariables.length; j++) { // children always come before their parent
+                eliminate(j);
+            }
+        }
+
+        int multiplications = 0;
+        int additions = 0;
+        int maxFactorSize = 0; // largest of the initial factors, the messages and the joined factors
+        for (int s = 0; s < initialCount; s++) {
+            maxFactorSize = Math.max(maxFactorSize, slots[s].size());
+        }
+        for (FactorOperationResult result : results) {
+            multiplications += result.getMultiplications();
+            additions += result.getAdditions();
+            maxFactorSize = Math.max(maxFactorSize, result.getMaxFactorSize());
+        }
+        List<Factor> factors = ordered(remaining);
+        while (factors.size() > 1) { // join the remaining factors like the sequential algorithm
+            FactorOperationResult joinRes = factors.get(0).join(factors.get(1));
+            factors.remove(1);
+            factors.remove(0);
+            factors.add(joinRes.getFactor());
+            factors.sort(Comparator.naturalOrder()); // stable, the joined factor goes after equal ones
+            multiplications += joinRes.getMultiplications();
+            maxFactorSize = Math.max(maxFactorSize, joinRes.getMaxFactorSize());
+        }
+        return new FactorOperationResult(factors.get(0), multiplications, additions, maxFactorSize);
+    }
+
+    /**
+     * Joins the factors of a bucket and sums out its hidden variable, storing the message for its parent.
+     *
+     * @param bucket the index of the bucket
+     */
+    private void eliminate(int bucket) {
+        List<Factor> bucketFactors = ordered(inputs.get(bucket));
+        int variable = hiddenVariables[bucket];
+        FactorOperationResult result = cache == null
+                ? Factor.sumProduct(bucketFactors, variable)
+                : cache.message(variable, bucketFactors, () -> Factor.sumProduct(bucketFactors, variable));
+        results[bucket] = result;
+        if (!result.getFactor().canBeDiscarded()) {
+            slots[initialCount + bucket] = result.getFactor();
+        }
+    }
+
+    /**
+     * Returns the factors of some slots in the order the sequential algorithm keeps them in:
+     * sorted, and in creation order for equal column names.
+     *
+     * @param slotList the slots of the factors
+     * @return the factors in order
+     */
+    private List<Factor> ordered(List<Integer> slotList) {
+        List<Integer> order = new ArrayList<>();
+        for (int s : slotList) {
+            if (slots[s] != null) {
+                order.add(s);
+            }
+        }
+        order.sort(Comparator.comparing((Integer s) -> slots[s]).thenComparing(Comparator.naturalOrder()));
+        List<Factor> factors = new ArrayList<>();
+        for (int s : order) {
+            factors.add(slots[s]);
+        }
+        return factors;
+    }
+
+    /**
+     * Completes once every bucket of the tree is eliminated. It forks the leaves, and every other bucket is eliminated
+     * by the thread that delivers its last message.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private final class RootTask extends CountedCompleter<Void> {
+
+        /**
+         * Creates the tasks of all buckets and forks the leaves.
+         */
+        @Override
+        public void compute() {
+            BucketTask[] tasks = new BucketTask[hiddenVariables.length];
+            int top = 0;
+            for (int j = hiddenVariables.length - 1; j >= 0; j--) { // parents come after their children
+                CountedCompleter<?> completer = parent[j] == -1 ? this : tasks[parent[j]];
+                tasks[j] = new BucketTask(completer, j, Math.max(children[j] - 1, 0));
+                if (parent[j] == -1) {
+                    top++;
+                }
+            }
+            setPendingCount(top);
+            for (int j = 0; j < tasks.length; j++) {
+                if (children[j] == 0) {
+                    tasks[j].fork();
+                }
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Eliminates one bucket once the messages of all its children arrived.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private final class BucketTask extends CountedCompleter<Void> {
+        private final int bucket;
+
+        /**
+         * Constructs the task of a bucket.
+         *
+         * @param completer the task of the parent bucket, or the root task
+         * @param bucket the index of the bucket
+         * @param pending the number of children minus one, the last child completes the bucket
+         */
+        BucketTask(CountedCompleter<?> completer, int bucket, int pending) {
+            super(completer, pending);
+            this.bucket = bucket;
+        }
+
+        /**
+         * Runs a leaf bucket, the other buckets are completed by their children.
+         */
+        @Override
+        public void compute() {
+            tryComplete();
+        }
+
+        /**
+         * Eliminates the bucket once all its children are done.
+         *
+         * @param caller the task that completed this one
+         */
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            eliminate(bucket);
+        }
+    }
+}
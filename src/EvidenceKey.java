@@ -0,0 +1,33 @@
+import java.util.Arrays;
+
+/**
+ * Key of the work an engine caches per evidence: the evidence as (variable, outcome) pairs sorted by variable, so the
+ * order the evidence is given in doesn't matter.
+ */
+final class EvidenceKey {
+    private final long[] pairs;
+
+    /**
+     * Constructs the key of an evidence.
+     *
+     * @param variables the ids of the evidence variables
+     * @param outcomes the ids of the outcomes of the evidence variables, in the same order
+     */
+    EvidenceKey(int[] variables, int[] outcomes) {
+        pairs = new long[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            pairs[i] = ((long) variables[i] << 32) | outcomes[i];
+        }
+        Arrays.sort(pairs);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EvidenceKey && Arrays.equals(pairs, ((EvidenceKey) o).pairs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(pairs);
+    }
+}
@@ -1,17 +1,55 @@
+import javax.management.JMException;
 import java.io.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.file.*;
 import java.util.*;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Main class for assignment 1 in Ai Algorithms course.
  * Reads input from a file, processes queries, and writes output to a file.
  */
 public class Ex1 {
+    private static final EliminationOrderPlanner planner = new EliminationOrderPlanner(); // plans "auto" elimination orders
+    private static final RunOptions DEFAULT_OPTIONS = new RunOptions(); // options of the queries the benchmarks answer
+    private static final Map<BayesianNetwork, QueryResultCache> resultCaches = Collections.synchronizedMap(new WeakHashMap<>()); // result lines of every network, with --result-cache
+    private static final Map<BayesianNetwork, JunctionTree> marginalTrees = Collections.synchronizedMap(new WeakHashMap<>()); // answer all-marginals queries when no engine is selected
+
     public static void main(String[] args) {
+        RunOptions options;
+        try {
+            options = RunOptions.parse(args);
+        } catch (IllegalArgumentException e) { // a bad option is a usage error, not a crash
+            System.err.println(e.getMessage());
+            System.err.println(RunOptions.USAGE);
+            return;
+        }
         try {
+            if (options.isCompile()) { // compile the network ahead of time and stop
+                CompiledNetwork.compile(options.getCompileInput(), options.getCompileOutput());
+                System.out.println("Compiled " + options.getCompileInput() + " to " + options.getCompileOutput());
+                return;
+            }
+
+            // Collect the metrics of every query, kept one by one only when they are written to a file
+            InferenceMetrics metrics = new InferenceMetrics(options.getMetricsFormat() != null && !options.isServe());
+            if (options.isJmx()) {
+                try {
+                    metrics.register();
+                } catch (JMException e) {
+                    System.err.println("Can't register the metrics MBean: " + e.getMessage());
+                }
+            }
+
+            if (options.isServe()) { // answer requests until the input ends, instead of reading input.txt
+                QueryServer.run(options, metrics);
+                return;
+            }
+
             // Read input file
             List<String> lines = Files.readAllLines(Paths.get("input.txt"));
             if (lines.isEmpty()) {
@@ -19,108 +57,505 @@ public class Ex1 {
                 return;
             }
 
-            // The first line is the path to the network XML file
-            String xmlFilePath = lines.get(0);
-            BayesianNetwork network = BayesianNetwork.parseXML(xmlFilePath); // Parse the Bayesian Network from the XML file
-            System.out.println("Parsed Bayesian Network:");
-            System.out.println(network);
+            // The first line is the path to the network XML file, or to a compiled network
+            String networkPath = lines.get(0);
+            BayesianNetwork network = BayesianNetwork.load(networkPath); // Load the Bayesian Network from the file
+            if (options.isVerbose()) {
+                System.out.println("Parsed Bayesian Network:");
+                System.out.println(network);
+            }
+
+            // Build the engine once when the junction tree or loopy belief propagation is selected
+            InferenceEngine engine = createEngine(network, options);
 
             // Prepare to write output
             PrintWriter outputWriter = new PrintWriter("output.txt");
+            List<String> queryLines = lines.subList(1, lines.size());
 
-            // Process each query
-            for (int i = 1; i < lines.size(); i++) {
-                Query query = new Query(lines.get(i));
-                String result;
-
-                if (query.getType() == Query.QueryType.BAYES_BALL) {
-                    result = processBayesBallQuery(network, query);
-                } else {
-                    result = processVariableEliminationQuery(network, query);
+            if (options.isParallel()) {
+                processQueriesInParallel(network, engine, queryLines, options, metrics, outputWriter);
+            } else {
+                for (String line : queryLines) { // Process each query
+                    QueryMetrics queryMetrics = new QueryMetrics(line);
+                    Consumer<String> partial = variableLine -> { // the distributions of an all-marginals query, written as they are ready
+                        outputWriter.write(variableLine + "\n");
+                        outputWriter.flush();
+                    };
+                    outputWriter.write(String.format(processQuery(network, engine, line, options, queryMetrics, partial) + "\n"));
+                    metrics.record(queryMetrics);
                 }
-                outputWriter.write(String.format(result + "\n"));
             }
 
             outputWriter.close();
+            if (options.getMetricsFormat() != null) { // sidecar next to the output, e.g. output.metrics.json
+                metrics.write(Paths.get("output.metrics." + options.getMetricsFormat().name().toLowerCase()), options.getMetricsFormat());
+            }
+        } catch (NetworkParseException e) {
+            System.err.println("Can't load the network: " + e.getMessage());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Builds the engine that answers the elimination queries of the whole run.
+     * Package-private so the query server builds the same engine for every network it loads.
+     *
+     * @param network the Bayesian network
+     * @param options the options that select the engine
+     * @return the engine, or null to answer every query with variable elimination
+     */
+    static InferenceEngine createEngine(BayesianNetwork network, RunOptions options) {
+        switch (options.getEngine()) {
+            case JUNCTION_TREE:
+                return new JunctionTree(network);
+            case LOOPY_BELIEF_PROPAGATION:
+                return new LoopyBeliefPropagation(network, options.getDamping(), options.getTolerance(), options.getMaxIterations());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Parses and answers one query line with the default options.
+     * Package-private so the batch benchmarks answer queries through the same code.
+     *
+     * @param network the Bayesian network
+     * @param engine the engine that answers elimination queries, or null to use variable elimination
+     * @param line the query line
+     * @return the result line of the query
+     * @throws IOException if an I/O error occurs
+     */
+    static String processQuery(BayesianNetwork network, InferenceEngine engine, String line) throws IOException {
+        return processQuery(network, engine, line, DEFAULT_OPTIONS, new QueryMetrics(line));
+    }
+
+    /**
+     * Parses and answers one query line, recording its metrics.
+     *
+     * @param network the Bayesian network
+     * @param engine the engine that answers elimination queries, or null to use variable elimination
+     * @param line the query line
+     * @param options the options of the run, e.g. the memory budget and the result cache
+     * @param metrics the metrics of the query, filled in while answering it
+     * @return the result line of the query
+     * @throws IOException if an I/O error occurs
+     */
+    static String processQuery(BayesianNetwork network, InferenceEngine engine, String line, RunOptions options,
+                               QueryMetrics metrics) throws IOException {
+        StringBuilder result = new StringBuilder(); // the lines of the distributions of an all-marginals query
+        String last = processQuery(network, engine, line, options, metrics, variableLine -> result.append(variableLine).append('\n'));
+        return result.append(last).toString();
+    }
+
+    /**
+     * Parses and answers one query line, recording its metrics. An all-marginals query hands the line of every
+     * variable to the given consumer as soon as its distribution is ready, and returns its summary line.
+     *
+     * @param network the Bayesian network
+     * @param engine the engine that answers elimination queries, or null to use variable elimination
+     * @param line the query line
+     * @param options the options of the run, e.g. the memory budget and the result cache
+     * @param metrics the metrics of the query, filled in while answering it
+     * @param partial receives the lines of an all-marginals query before the returned one
+     * @return the result line of the query, the summary line for an all-marginals query
+     * @throws IOException if an I/O error occurs
+     */
+    static String processQuery(BayesianNetwork network, InferenceEngine engine, String line, RunOptions options,
+                               QueryMetrics metrics, Consumer<String> partial) throws IOException {
+        metrics.start();
+        try {
+            long start = System.nanoTime();
+            Query query = new Query(line);
+            metrics.setParseNanos(System.nanoTime() - start);
+            if (query.getType() == Query.QueryType.BAYES_BALL) {
+                return processBayesBallQuery(network, query, options, metrics);
+            } else if (query.getType() == Query.QueryType.MARGINALS) {
+                return processMarginalsQuery(network, engine, query, metrics, partial);
+            } else if (query.isSampled()) {
+                return processSamplingQuery(network, query, metrics);
+            } else if (engine != null) {
+                return processEngineQuery(network, engine, query, metrics);
+            } else {
+                return processVariableEliminationQuery(network, query, options, metrics);
+            }
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    /**
+     * Answers the query lines concurrently and writes the results in input order.
+     * Every elimination query works on its own copy of the network, so the queries are independent.
+     * A result is written as soon as it and all results before it are done.
+     *
+     * @param network the Bayesian network
+     * @param engine the engine that answers elimination queries, or null to use variable elimination
+     * @param lines the query lines
+     * @param options the options that select the executor
+     * @param metrics the collector of the query metrics, which are recorded in input order
+     * @param outputWriter the writer of the output file
+     * @throws IOException if a query fails with an I/O error
+     */
+    private static void processQueriesInParallel(BayesianNetwork network, InferenceEngine engine, List<String> lines,
+                                                 RunOptions options, InferenceMetrics metrics, PrintWriter outputWriter) throws IOException {
+        ExecutorService executor = options.newExecutor();
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            List<QueryMetrics> queryMetrics = new ArrayList<>();
+            for (String line : lines) {
+                QueryMetrics lineMetrics = new QueryMetrics(line);
+                queryMetrics.add(lineMetrics);
+                results.add(executor.submit(() -> processQuery(network, engine, line, options, lineMetrics)));
+            }
+            for (int i = 0; i < results.size(); i++) { // wait in input order
+                outputWriter.write(String.format(results.get(i).get() + "\n"));
+                metrics.record(queryMetrics.get(i));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while answering queries");
+        } catch (ExecutionException e) { // rethrow the failure of the query as if it ran on this thread
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Processes a Bayes Ball query.
      *
      * @param network the Bayesian network
      * @param query the query to process
+     * @param options the options of the run, they select the result cache
+     * @param metrics the metrics of the query
      * @return "yes" if the variables are independent, "no" otherwise
      */
-    private static String processBayesBallQuery(BayesianNetwork network, Query query) {
-        if (BayesBall.isIndependent(network, query.getQueryVariable(), query.getQueryValue(), query.getEvidenceVariables())) {
-            return "yes";
+    private static String processBayesBallQuery(BayesianNetwork network, Query query, RunOptions options, QueryMetrics metrics) {
+        metrics.setType("bayes-ball");
+        QueryResultCache cache = resultCache(network, options);
+        String key = cache == null ? null : QueryResultCache.resultKey(query);
+        if (cache != null) {
+            String cached = cache.get(key);
+            metrics.setCacheResult(cached != null ? QueryMetrics.CacheResult.HIT : QueryMetrics.CacheResult.MISS);
+            if (cached != null) { // answered before, d-separation is not checked again
+                return cached;
+            }
+        }
+        SymbolTable symbols = network.getSymbolTable();
+        int nodeA = symbols.getVariableId(query.getQueryVariable());
+        int nodeB = symbols.getVariableId(query.getQueryValue()); // the second node of a Bayes Ball query
+        long start = System.nanoTime();
+        boolean independent = BayesBall.dSeparatedFrom(network, nodeA, query.getEvidenceSet(symbols)).get(nodeB); // cached per (A, evidence)
+        metrics.setEliminationNanos(System.nanoTime() - start);
+        String result;
+        if (independent) {
+            result = "yes";
+        } else {
+            result = "no";
+        }
+        if (cache != null) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result cache of a network, created on first use.
+     *
+     * @param network the Bayesian network
+     * @param options the options of the run
+     * @return the cache, or null if {@code --result-cache} was not given
+     */
+    private static QueryResultCache resultCache(BayesianNetwork network, RunOptions options) {
+        int size = options.getResultCacheSize();
+        return size == 0 ? null : resultCaches.computeIfAbsent(network, n -> new QueryResultCache(size));
+    }
+
+    /**
+     * Processes an elimination query with the junction tree or loopy belief propagation engine.
+     * The hidden variables of the query are ignored, the engine works on the evidence (or reuses its work when it
+     * already did).
+     *
+     * @param network the Bayesian network
+     * @param engine the engine that answers the query
+     * @param query the query to process
+     * @param metrics the metrics of the query
+     * @return the normalized probability and the number of additions and multiplications the engine performed
+     */
+    private static String processEngineQuery(BayesianNetwork network, InferenceEngine engine, Query query, QueryMetrics metrics) {
+        metrics.setType(engine.getName());
+        SymbolTable symbols = network.getSymbolTable();
+        int queryVariable = symbols.getVariableId(query.getQueryVariable());
+        int queryOutcome = symbols.getOutcomeId(queryVariable, query.getQueryValue());
+
+        long start = System.nanoTime();
+        FactorOperationResult result = engine.query(queryVariable, queryOutcome,
+                query.getEvidenceVariableIds(symbols), query.getEvidenceOutcomeIds(symbols));
+        metrics.setEliminationNanos(System.nanoTime() - start);
+        metrics.setMaxFactorSize(result.getMaxFactorSize());
+        double probability = result.getFactor().getValue(new int[]{queryOutcome});
+        BigDecimal roundedProbability = BigDecimal.valueOf(probability).setScale(5, RoundingMode.HALF_UP);
+
+        return roundedProbability + "," + result.getAdditions() + "," + result.getMultiplications();
+    }
+
+    /**
+     * Processes an all-marginals query: the posterior distribution of every requested variable (every variable that
+     * is not observed for "*") given the evidence. The distributions come from one calibration of a junction tree,
+     * a collect and a distribute pass, instead of one elimination per variable; the junction tree engine is used when
+     * it is selected, otherwise a tree is compiled once per network. With loopy belief propagation all distributions
+     * come from one propagation.
+     * <p>
+     * Every variable gets a line "X:outcome1=p1,outcome2=p2,..." with probabilities rounded to 5 decimal places,
+     * handed to the consumer as soon as it is ready, and the query ends with the line "*,additions,multiplications".
+     *
+     * @param network the Bayesian network
+     * @param engine the engine that answers the query, or null to use a junction tree
+     * @param query the query to process
+     * @param metrics the metrics of the query
+     * @param partial receives the line of every variable
+     * @return the summary line with the total number of additions and multiplications
+     */
+    private static String processMarginalsQuery(BayesianNetwork network, InferenceEngine engine, Query query, QueryMetrics metrics,
+                                                Consumer<String> partial) {
+        SymbolTable symbols = network.getSymbolTable();
+        int[] evidenceVariables = query.getEvidenceVariableIds(symbols);
+        int[] evidenceOutcomes = query.getEvidenceOutcomeIds(symbols);
+        List<Integer> requested = new ArrayList<>();
+        if (query.getMarginalVariables().isEmpty()) { // every variable that is not observed
+            BitSet observed = query.getEvidenceSet(symbols);
+            for (Node node : network.getNodes()) {
+                if (!observed.get(node.getId())) {
+                    requested.add(node.getId());
+                }
+            }
         } else {
-            return "no";
+            for (String name : query.getMarginalVariables()) {
+                requested.add(symbols.getVariableId(name));
+            }
+        }
+        int[] variables = requested.stream().mapToInt(Integer::intValue).toArray();
+
+        long start = System.nanoTime();
+        InferenceEngine marginalEngine = engine != null ? engine : marginalTrees.computeIfAbsent(network, JunctionTree::new);
+        metrics.setType(marginalEngine.getName());
+        long[] totals = new long[3]; // additions, multiplications, largest factor
+        marginalEngine.marginals(variables, evidenceVariables, evidenceOutcomes, result -> {
+            totals[0] += result.getAdditions();
+            totals[1] += result.getMultiplications();
+            totals[2] = Math.max(totals[2], result.getMaxFactorSize());
+            Factor distribution = result.getFactor();
+            int variable = distribution.getVariables()[0];
+            StringJoiner line = new StringJoiner(",", symbols.getVariableName(variable) + ":", "");
+            for (int outcome = 0; outcome < distribution.size(); outcome++) {
+                BigDecimal rounded = BigDecimal.valueOf(distribution.getValue(new int[]{outcome})).setScale(5, RoundingMode.HALF_UP);
+                line.add(symbols.getOutcomeName(variable, outcome) + "=" + rounded);
+            }
+            partial.accept(line.toString());
+        });
+        metrics.setEliminationNanos(System.nanoTime() - start);
+        metrics.setMaxFactorSize((int) totals[2]);
+        return "*," + totals[0] + "," + totals[1];
+    }
+
+    /**
+     * Processes an elimination query approximately, with likelihood weighting or Gibbs sampling.
+     * The irrelevant nodes are pruned like for variable elimination, and the remaining nodes are sampled.
+     *
+     * @param network the Bayesian network
+     * @param query the query to process
+     * @param metrics the metrics of the query
+     * @return the estimated probability and its standard error
+     */
+    private static String processSamplingQuery(BayesianNetwork network, Query query, QueryMetrics metrics) {
+        ApproximateInference.Settings settings = query.getSampling();
+        metrics.setType(settings.getMethod() == ApproximateInference.Method.GIBBS ? "gibbs-sampling" : "likelihood-weighting");
+
+        long start = System.nanoTime();
+        NetworkView view = new NetworkView(network);
+        Query cleanQuery = view.removeIrrelevantNodes(withAllHidden(network, query));
+        metrics.setPruneNanos(System.nanoTime() - start);
+        metrics.setPrunedNodes(network.getNodes().size() - view.activeCount());
+        start = System.nanoTime();
+
+        SymbolTable symbols = network.getSymbolTable();
+        int queryVariable = symbols.getVariableId(cleanQuery.getQueryVariable());
+        int queryOutcome = symbols.getOutcomeId(queryVariable, cleanQuery.getQueryValue());
+        ApproximateInference sampler = new ApproximateInference(view, cleanQuery.getEvidenceVariableIds(symbols), cleanQuery.getEvidenceOutcomeIds(symbols));
+        ApproximateInference.Result result = sampler.estimate(queryVariable, queryOutcome, settings);
+        metrics.setEliminationNanos(System.nanoTime() - start);
+        if (result == null) {
+            return "Query could not be answered.";
         }
+
+        BigDecimal roundedEstimate = BigDecimal.valueOf(result.getEstimate()).setScale(5, RoundingMode.HALF_UP);
+        BigDecimal roundedError = BigDecimal.valueOf(result.getStandardError()).setScale(5, RoundingMode.HALF_UP);
+        return roundedEstimate + "," + roundedError;
+    }
+
+    /**
+     * Returns a copy of a query where every variable that is not queried or observed is hidden.
+     *
+     * @param network the Bayesian network
+     * @param query the query
+     * @return the query with all other variables hidden
+     */
+    private static Query withAllHidden(BayesianNetwork network, Query query) {
+        Set<String> evidenceVariables = query.getEvidenceVariables();
+        List<String> hidden = new ArrayList<>();
+        for (Node node : network.getNodes()) {
+            if (!node.getName().equals(query.getQueryVariable()) && !evidenceVariables.contains(node.getName())) {
+                hidden.add(node.getName());
+            }
+        }
+        return query.withHiddenVariables(hidden);
     }
 
     /**
-     * Processes a variable elimination query.
+     * Processes a variable elimination query, through the result cache if there is one. Results are cached per memory
+     * budget and over-budget policy, which can change the answer, and dry runs are never cached.
      *
      * @param network the Bayesian network
      * @param query the query to process
+     * @param options the options of the run
+     * @param metrics the metrics of the query
      * @return the result of the variable elimination query, including the normalized probability and the number of additions and multiplications
      * @throws IOException if an I/O error occurs
      */
-    private static String processVariableEliminationQuery(BayesianNetwork network, Query query) throws IOException {
-        BayesianNetwork networkCopy = new BayesianNetwork(network); // copy the network to avoid modifying the original
-        Query cleanQuery = networkCopy.removeIrrelevantNodes(query); // remove irrelevant nodes from the query and network
+    private static String processVariableEliminationQuery(BayesianNetwork network, Query query, RunOptions options,
+                                                          QueryMetrics metrics) throws IOException {
+        QueryResultCache cache = options.isDryRun() ? null : resultCache(network, options); // a dry run only estimates, its lines are not answers
+        if (cache == null) {
+            return answerVariableEliminationQuery(network, query, options, metrics, new VariableElimination());
+        }
+        metrics.setType("variable-elimination");
+        String key = QueryResultCache.resultKey(query);
+        if (options.getMemoryBudget() > 0) { // the budget may change the order and the counts, or reject the query
+            key += " budget:" + options.getMemoryBudget() + (options.isReplanOverBudget() ? ":replan" : ":reject");
+        }
+        String cached = cache.get(key);
+        if (cached != null) { // answered before with the same order, nothing is pruned or eliminated
+            metrics.setCacheResult(QueryMetrics.CacheResult.HIT);
+            return cached;
+        }
+        metrics.setCacheResult(QueryMetrics.CacheResult.MISS);
+        String result = answerVariableEliminationQuery(network, query, options, metrics, new VariableElimination());
+        cache.put(key, result);
+        return result;
+    }
 
-        VariableElimination ve = new VariableElimination();
-        FactorOperationResult result = ve.runVariableElimination(networkCopy, cleanQuery.getEvidence(), cleanQuery.getHiddenVariables()); // run variable elimination
+    /**
+     * Answers a variable elimination query with the given variable elimination, which may reuse the work of earlier
+     * queries.
+     *
+     * @param network the Bayesian network
+     * @param query the query to answer
+     * @param options the options of the run, e.g. the memory budget, the dry run and the verbose output
+     * @param metrics the metrics of the query
+     * @param ve the variable elimination that runs the query
+     * @return the result of the query as "probability,additions,multiplications"
+     * @throws IOException if an I/O error occurs
+     */
+    static String answerVariableEliminationQuery(BayesianNetwork network, Query query, RunOptions options, QueryMetrics metrics,
+                                                 VariableElimination ve) throws IOException {
+        metrics.setType("variable-elimination");
+        if (query.isAutoOrder()) { // every variable that is not queried or observed is hidden, the order is planned below
+            query = withAllHidden(network, query);
+        }
+
+        long start = System.nanoTime();
+        NetworkView view = new NetworkView(network); // mask nodes out of the shared network instead of copying it
+        Query cleanQuery = view.removeIrrelevantNodes(query); // remove irrelevant nodes from the query and view
+        metrics.setPruneNanos(System.nanoTime() - start);
+        metrics.setPrunedNodes(network.getNodes().size() - view.activeCount());
+        start = System.nanoTime();
+
+        SymbolTable symbols = network.getSymbolTable();
+        int queryVariable = symbols.getVariableId(cleanQuery.getQueryVariable());
+        int queryOutcome = symbols.getOutcomeId(queryVariable, cleanQuery.getQueryValue());
+        int[] evidenceVariables = cleanQuery.getEvidenceVariableIds(symbols);
+        int[] evidenceOutcomes = cleanQuery.getEvidenceOutcomeIds(symbols);
+
+        int[] hiddenVariables = cleanQuery.getHiddenVariableIds(symbols);
+        if (cleanQuery.isAutoOrder()) { // plan the order on the pruned network
+            hiddenVariables = planner.plan(view, cleanQuery.getEvidenceSet(symbols), hiddenVariables, cleanQuery.getOrderHeuristic());
+        }
+
+        long budget = options.getMemoryBudget();
+        if (budget > 0 || options.isDryRun()) { // predict the cost before any factor is allocated
+            CostEstimator.Estimate estimate = CostEstimator.estimate(view, evidenceVariables, hiddenVariables);
+            if (budget > 0 && estimate.getPeakBytes() > budget && options.isReplanOverBudget()) {
+                for (EliminationOrderPlanner.Heuristic heuristic : EliminationOrderPlanner.Heuristic.values()) { // keep the cheapest order
+                    int[] order = planner.plan(view, cleanQuery.getEvidenceSet(symbols), hiddenVariables, heuristic);
+                    CostEstimator.Estimate replanned = CostEstimator.estimate(view, evidenceVariables, order);
+                    if (replanned.getPeakBytes() < estimate.getPeakBytes()) {
+                        estimate = replanned;
+                        hiddenVariables = order;
+                    }
+                }
+            }
+            if (budget > 0 && estimate.getPeakBytes() > budget) {
+                return "Query could not be answered: it needs about " + estimate.getPeakBytes() + " bytes, over the memory budget of " + budget + " bytes.";
+            }
+            if (options.isDryRun()) { // the counts without the probability, "?" stands for it
+                if (!estimate.isFeasible()) {
+                    return "Query could not be answered.";
+                }
+                long additions = estimate.getAdditions() + estimate.getFinalFactorSize() - 1; // with the normalization
+                return "?," + additions + "," + estimate.getMultiplications();
+            }
+        }
+
+        FactorOperationResult result = ve.runVariableElimination(view, evidenceVariables, evidenceOutcomes, hiddenVariables); // run variable elimination
 
         if (result == null) {
             return "Query could not be answered.";
         }
+        metrics.setMaxFactorSize(result.getMaxFactorSize());
 
         Factor finalFactor = result.getFactor(); // get the final factor after variable elimination
-        System.out.println("With evidence " + cleanQuery.getEvidence());
-        System.out.println("With query " + cleanQuery.getQueryVariable() + " = " + cleanQuery.getQueryValue());
-        System.out.println("Normalize " + finalFactor);
+        if (options.isVerbose()) {
+            System.out.println("With evidence " + cleanQuery.getEvidence());
+            System.out.println("With query " + cleanQuery.getQueryVariable() + " = " + cleanQuery.getQueryValue());
+            System.out.println("Normalize " + finalFactor);
+        }
 
         // Step 1: Calculate normalization constant by summing all entries in the final factor
         double normalizationConstant = 0.0;
-        for (double value : finalFactor.getTable().values()) {
-            normalizationConstant += value;
+        for (int i = 0; i < finalFactor.size(); i++) {
+            normalizationConstant += finalFactor.getValue(i);
         }
 
-        int normalizationAdditions = finalFactor.getTable().size() - 1; // (n-1) additions for n values
+        int normalizationAdditions = finalFactor.size() - 1; // (n-1) additions for n values
 
         if (normalizationConstant == 0.0) {
             throw new ArithmeticException("Normalization constant is zero, indicating no matching evidence.");
         }
 
         // Step 2: Find query probability by looking up the query value in the final factor
-        double queryProbability = 0.0;
-        // Get the key to find in the final factor
-        List<String> keyToFind = new ArrayList<>();
-        for (String column : finalFactor.getColumnNames()) {
-            if (column.equals(cleanQuery.getQueryVariable())) {
-                keyToFind.add(cleanQuery.getQueryValue());
+        int[] variables = finalFactor.getVariables();
+        int[] assignment = new int[variables.length]; // outcome of every column of the final factor
+        for (int c = 0; c < variables.length; c++) {
+            if (variables[c] == queryVariable) {
+                assignment[c] = queryOutcome;
             } else {
-                for (SimpleEntry<String, String> entry : cleanQuery.getEvidence()) {
-                    if (entry.getKey().equals(column)) {
-                        keyToFind.add(entry.getValue());
+                for (int e = 0; e < evidenceVariables.length; e++) {
+                    if (evidenceVariables[e] == variables[c]) {
+                        assignment[c] = evidenceOutcomes[e];
                         break;
                     }
                 }
             }
         }
-        // Find the query probability in the final factor using the key
-        for (Map.Entry<List<String>, Double> entry : finalFactor.getTable().entrySet()) {
-            if (entry.getKey().equals(keyToFind)) {
-                queryProbability = entry.getValue();
-                break;
-            }
-        }
+        double queryProbability = finalFactor.getValue(assignment);
 
         // Normalize the query probability
         double normalizedProbability = queryProbability / normalizationConstant;
@@ -129,6 +564,7 @@ public class Ex1 {
 
         int additions = result.getAdditions() + normalizationAdditions; // Add the normalization additions to the total additions of the variable elimination
         int multiplications = result.getMultiplications(); // Get the total multiplications of the variable elimination
+        metrics.setEliminationNanos(System.nanoTime() - start);
 
         return roundedProbability + "," + additions + "," + multiplications;
     }
@@ -1,22 +1,310 @@
 import java.util.*;
-import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Represents a factor in a Bayesian network, used in variable elimination.
+ * <p>
+ * The table is stored densely as a flat array of probabilities in row-major order (the last column changes fastest),
+ * together with the cardinality and stride of every column. Outcomes are encoded as their index in the column's domain,
+ * so all operations work by index arithmetic instead of hashing string keys.
+ * <p>
+ * Tables where most entries are zero, like deterministic CPTs and the factors built from them, are stored sparsely
+ * instead: only the non-zero entries are kept, as their indices in ascending order and their values. Every factor picks
+ * its storage from its fill ratio when it is created, and the operations on sparse factors only visit the non-zero
+ * entries. The reported operation counts are always the ones of the dense algorithm.
+ * <p>
+ * Dense results with many entries are filled in parallel: the index range of the result is split into chunks that run
+ * on the fork-join pool of the calling thread, or on the common pool. Every entry is computed by exactly one task in
+ * the same way as sequentially, so the values don't depend on the split.
  */
 public class Factor implements Comparable<Factor> {
-    private Map<List<String>, Double> table; // Table of the factor with keys as assignments and values as probabilities
     private List<String> columnNames; // Column names of the factor
+    private int[] variables; // Symbol table id of every column, -1 if unknown
+    private List<List<String>> domains; // Outcomes of every column, the position of an outcome is its encoding
+    private int[] cardinalities; // Number of outcomes of every column
+    private int[] strides; // Distance in the values array between two consecutive outcomes of every column
+    private int size; // Number of assignments of the factor
+    private double[] values; // Probabilities of all assignments in row-major order, or only the non-zero ones if sparse
+    private int[] indices; // Ascending indices of the non-zero entries if the factor is sparse, null if it is dense
+    private Map<List<String>, Double> table; // Lazily built view of the factor with keys as assignments
+
+    static final double SPARSE_FILL_RATIO = 0.25; // largest share of non-zero entries for which a factor is stored sparsely
+    static final int SPARSE_MIN_SIZE = 64; // smaller factors are always dense, their zeros cost less than the indices
+    static final int PARALLEL_THRESHOLD = 1 << 16; // smallest dense result that is filled in parallel
+    private static final int PARALLEL_GRAIN = 1 << 13; // smallest chunk of a result filled by one task
 
     /**
      * Constructs a new Factor with the given column names and table.
+     * The outcomes of every column are encoded in the order they first appear in the table,
+     * assignments missing from the table get a probability of zero.
      *
      * @param columnNames the column names of the factor
      * @param table the table of the factor
      */
     public Factor(List<String> columnNames, Map<List<String>, Double> table) {
+        List<List<String>> domains = new ArrayList<>();
+        for (int i = 0; i < columnNames.size(); i++) { // collect the outcomes of every column
+            domains.add(new ArrayList<>());
+        }
+        for (List<String> key : table.keySet()) {
+            for (int i = 0; i < key.size(); i++) {
+                if (!domains.get(i).contains(key.get(i))) {
+                    domains.get(i).add(key.get(i));
+                }
+            }
+        }
+        init(columnNames, domains);
+        for (Map.Entry<List<String>, Double> entry : table.entrySet()) { // place every entry at its index
+            values[indexOf(entry.getKey())] = entry.getValue();
+        }
+        compact();
+    }
+
+    /**
+     * Constructs a new Factor with the given column names, outcome domains and values in row-major order.
+     *
+     * @param columnNames the column names of the factor
+     * @param domains the outcomes of every column
+     * @param values the probabilities of all assignments, the last column changes fastest
+     */
+    public Factor(List<String> columnNames, List<List<String>> domains, double[] values) {
+        init(columnNames, domains);
+        if (values.length != this.values.length) {
+            throw new IllegalArgumentException("Expected " + this.values.length + " values but got " + values.length);
+        }
+        this.values = values.clone();
+        compact();
+    }
+
+    /**
+     * Constructs a new Factor that takes ownership of the given values without copying them.
+     * The factor is stored sparsely if enough of the values are zero.
+     *
+     * @param columnNames the column names of the factor
+     * @param domains the outcomes of every column
+     * @param variables the symbol table id of every column
+     * @param cardinalities the number of outcomes of every column
+     * @param values the probabilities of all assignments, the last column changes fastest
+     */
+    private Factor(List<String> columnNames, int[] variables, List<List<String>> domains, int[] cardinalities, double[] values) {
+        this.columnNames = columnNames;
+        this.variables = variables;
+        this.domains = domains;
+        this.cardinalities = cardinalities;
+        this.strides = computeStrides(cardinalities);
+        this.size = values.length;
+        this.values = values;
+        compact();
+    }
+
+    /**
+     * Creates a factor from its non-zero entries, taking ownership of the arrays.
+     * The factor is stored densely if too many entries are non-zero for the sparse storage to pay off.
+     *
+     * @param columnNames the column names of the factor
+     * @param variables the symbol table id of every column
+     * @param domains the outcomes of every column
+     * @param cardinalities the number of outcomes of every column
+     * @param indices the ascending indices of the non-zero entries
+     * @param values the values of the non-zero entries
+     * @param count the number of used entries of both arrays
+     * @return the new factor
+     */
+    private static Factor fromEntries(List<String> columnNames, int[] variables, List<List<String>> domains, int[] cardinalities,
+                                      int[] indices, double[] values, int count) {
+        int size = size(cardinalities);
+        if (size < SPARSE_MIN_SIZE || count > size * SPARSE_FILL_RATIO) {
+            double[] dense = new double[size];
+            for (int n = 0; n < count; n++) {
+                dense[indices[n]] = values[n];
+            }
+            return new Factor(columnNames, variables, domains, cardinalities, dense);
+        }
+        return new Factor(columnNames, variables, domains, cardinalities, Arrays.copyOf(indices, count), Arrays.copyOf(values, count));
+    }
+
+    /**
+     * Constructs a new sparse Factor that takes ownership of its non-zero entries without copying them.
+     *
+     * @param columnNames the column names of the factor
+     * @param variables the symbol table id of every column
+     * @param domains the outcomes of every column
+     * @param cardinalities the number of outcomes of every column
+     * @param indices the ascending indices of the non-zero entries
+     * @param values the values of the non-zero entries
+     */
+    private Factor(List<String> columnNames, int[] variables, List<List<String>> domains, int[] cardinalities, int[] indices, double[] values) {
+        this.columnNames = columnNames;
+        this.variables = variables;
+        this.domains = domains;
+        this.cardinalities = cardinalities;
+        this.strides = computeStrides(cardinalities);
+        this.size = size(cardinalities);
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Creates a factor that shares the given values array, used for CPTs that are never modified.
+     * Mostly zero CPTs are copied into the sparse storage instead.
+     *
+     * @param columnNames the column names of the factor
+     * @param variables the symbol table id of every column
+     * @param domains the outcomes of every column
+     * @param values the probabilities of all assignments, the last column changes fastest
+     * @return the new factor
+     */
+    static Factor wrap(List<String> columnNames, int[] variables, List<List<String>> domains, double[] values) {
+        int[] cardinalities = new int[domains.size()];
+        for (int i = 0; i < cardinalities.length; i++) {
+            cardinalities[i] = domains.get(i).size();
+        }
+        return new Factor(new ArrayList<>(columnNames), variables.clone(), new ArrayList<>(domains), cardinalities, values);
+    }
+
+    /**
+     * Constructs a copy of a factor that shares its layout and values, which no factor modifies once constructed.
+     * The copy is already compact, so nothing is scanned again.
+     *
+     * @param factor the factor to copy
+     */
+    private Factor(Factor factor) {
+        this.columnNames = new ArrayList<>(factor.columnNames);
+        this.variables = factor.variables;
+        this.domains = factor.domains;
+        this.cardinalities = factor.cardinalities;
+        this.strides = factor.strides;
+        this.size = factor.size;
+        this.indices = factor.indices;
+        this.values = factor.values;
+    }
+
+    /**
+     * Returns a copy of the factor in constant time, used to hand out a CPT factor that was compacted once.
+     *
+     * @return a factor equal to this one that shares its values
+     */
+    Factor copy() {
+        return new Factor(this);
+    }
+
+    /**
+     * Initializes the column layout and allocates the values array.
+     *
+     * @param columnNames the column names of the factor
+     * @param domains the outcomes of every column
+     */
+    private void init(List<String> columnNames, List<List<String>> domains) {
+        if (columnNames.size() != domains.size()) {
+            throw new IllegalArgumentException("Every column needs a domain");
+        }
         this.columnNames = new ArrayList<>(columnNames);
-        this.table = new HashMap<>(table);
+        this.variables = new int[columnNames.size()];
+        Arrays.fill(this.variables, -1); // not bound to a symbol table
+        this.domains = new ArrayList<>();
+        this.cardinalities = new int[domains.size()];
+        for (int i = 0; i < domains.size(); i++) {
+            this.domains.add(List.copyOf(domains.get(i)));
+            this.cardinalities[i] = domains.get(i).size();
+        }
+        this.strides = computeStrides(cardinalities);
+        this.size = size(cardinalities);
+        this.values = new double[size];
+    }
+
+    /**
+     * Switches a dense factor to the sparse storage if few enough of its entries are non-zero.
+     */
+    private void compact() {
+        if (indices != null || size < SPARSE_MIN_SIZE) {
+            return;
+        }
+        int count = 0;
+        for (double value : values) {
+            if (value != 0) {
+                count++;
+            }
+        }
+        if (count > size * SPARSE_FILL_RATIO) {
+            return; // dense enough, keep the zeros
+        }
+        int[] nonZeroIndices = new int[count];
+        double[] nonZeroValues = new double[count];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != 0) {
+                nonZeroIndices[n] = i;
+                nonZeroValues[n++] = values[i];
+            }
+        }
+        indices = nonZeroIndices;
+        values = nonZeroValues;
+    }
+
+    /**
+     * Returns the probabilities of all assignments in row-major order, expanding the zeros of a sparse factor.
+     *
+     * @return the values, shared with the factor if it is dense
+     */
+    private double[] dense() {
+        if (indices == null) {
+            return values;
+        }
+        double[] dense = new double[size];
+        for (int n = 0; n < indices.length; n++) {
+            dense[indices[n]] = values[n];
+        }
+        return dense;
+    }
+
+    /**
+     * Computes the row-major strides of the given cardinalities.
+     *
+     * @param cardinalities the number of outcomes of every column
+     * @return the stride of every column
+     */
+    private static int[] computeStrides(int[] cardinalities) {
+        int[] strides = new int[cardinalities.length];
+        int stride = 1;
+        for (int i = cardinalities.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= cardinalities[i];
+        }
+        return strides;
+    }
+
+    /**
+     * Computes the number of assignments of the given cardinalities.
+     *
+     * @param cardinalities the number of outcomes of every column
+     * @return the number of assignments
+     */
+    private static int size(int[] cardinalities) {
+        int size = 1;
+        for (int cardinality : cardinalities) {
+            size = Math.multiplyExact(size, cardinality);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the index of an assignment in the values array.
+     *
+     * @param key the outcome of every column
+     * @return the index of the assignment
+     */
+    private int indexOf(List<String> key) {
+        int index = 0;
+        for (int i = 0; i < key.size(); i++) {
+            int outcome = domains.get(i).indexOf(key.get(i));
+            if (outcome == -1) {
+                throw new IllegalArgumentException("Outcome " + key.get(i) + " not found for " + columnNames.get(i));
+            }
+            index += outcome * strides[i];
+        }
+        return index;
     }
 
     /**
@@ -29,14 +317,131 @@ public class Factor implements Comparable<Factor> {
     }
 
     /**
-     * Returns the table of the factor.
+     * Returns the symbol table id of every column of the factor.
+     *
+     * @return the variable ids, -1 for columns that are not bound to a symbol table
+     */
+    public int[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Returns the column of a variable.
+     *
+     * @param variable the id of the variable
+     * @return the index of the column, or -1 if the factor doesn't contain the variable
+     */
+    private int columnOf(int variable) {
+        if (variable < 0) {
+            return -1; // unbound columns never match
+        }
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i] == variable) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the outcomes of every column of the factor.
+     *
+     * @return the outcome domains
+     */
+    public List<List<String>> getDomains() {
+        return Collections.unmodifiableList(domains);
+    }
+
+    /**
+     * Returns the number of assignments in the factor.
+     *
+     * @return the size of the factor
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the factor only stores its non-zero entries.
+     *
+     * @return true if the factor is sparse, false if it is dense
+     */
+    public boolean isSparse() {
+        return indices != null;
+    }
+
+    /**
+     * Returns the number of entries the factor keeps in memory.
+     *
+     * @return the size of the factor if it is dense, the number of non-zero entries if it is sparse
+     */
+    public int getStoredSize() {
+        return values.length;
+    }
+
+    /**
+     * Returns the probability stored at the given index of the row-major values array.
+     *
+     * @param index the index of the assignment
+     * @return the probability of the assignment
+     */
+    public double getValue(int index) {
+        if (indices == null) {
+            return values[index];
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        int n = Arrays.binarySearch(indices, index);
+        return n < 0 ? 0 : values[n]; // entries that are not stored are zero
+    }
+
+    /**
+     * Returns the probability of an assignment given by the outcome id of every column.
+     *
+     * @param outcomes the outcome id of every column, in column order
+     * @return the probability of the assignment
+     */
+    public double getValue(int[] outcomes) {
+        int index = 0;
+        for (int i = 0; i < outcomes.length; i++) {
+            index += outcomes[i] * strides[i];
+        }
+        return getValue(index);
+    }
+
+    /**
+     * Returns the table of the factor, keyed by the outcome of every column.
+     * The view is built on first use and is read only.
      *
      * @return the table
      */
     public Map<List<String>, Double> getTable() {
+        if (table == null) {
+            Map<List<String>, Double> view = new LinkedHashMap<>();
+            double[] all = dense();
+            for (int i = 0; i < all.length; i++) {
+                view.put(keyOf(i), all[i]);
+            }
+            table = Collections.unmodifiableMap(view);
+        }
         return table;
     }
 
+    /**
+     * Decodes an index of the values array back into the outcome of every column.
+     *
+     * @param index the index of the assignment
+     * @return the outcome of every column
+     */
+    private List<String> keyOf(int index) {
+        List<String> key = new ArrayList<>(columnNames.size());
+        for (int i = 0; i < columnNames.size(); i++) {
+            key.add(domains.get(i).get((index / strides[i]) % cardinalities[i]));
+        }
+        return key;
+    }
+
     /**
      * Eliminates a variable from the factor by summing out the variable.
      *
@@ -44,28 +449,57 @@ public class Factor implements Comparable<Factor> {
      * @return the result of the elimination, including the new factor and the number of additions
      */
     public FactorOperationResult eliminate(String variable) {
-        int index = columnNames.indexOf(variable);
+        return eliminateColumn(columnNames.indexOf(variable));
+    }
+
+    /**
+     * Eliminates a variable from the factor by summing out the variable.
+     *
+     * @param variable the id of the variable to eliminate
+     * @return the result of the elimination, including the new factor and the number of additions
+     */
+    public FactorOperationResult eliminate(int variable) {
+        return eliminateColumn(columnOf(variable));
+    }
+
+    /**
+     * Sums out the variable of a column.
+     *
+     * @param index the index of the column
+     * @return the result of the elimination, including the new factor and the number of additions
+     */
+    private FactorOperationResult eliminateColumn(int index) {
         if (index == -1) {
             throw new IllegalArgumentException("Variable not found in factor");
         }
 
-        Map<List<String>, Double> newTable = new HashMap<>();
-        int[] additions = {0}; // Counter for additions using an array to pass by reference
+        int inner = strides[index]; // number of entries between two outcomes of the variable
+        int cardinality = cardinalities[index];
+        int block = inner * cardinality; // entries covering all outcomes of the variable
+        int outer = size / block;
+        int additions = outer * inner * (cardinality - 1); // n-1 additions for every group of n entries
+        List<String> newColumnNames = without(columnNames, index);
+        int[] newVariables = without(variables, index);
+        List<List<String>> newDomains = without(domains, index);
+        int[] newCardinalities = without(cardinalities, index);
 
-        for (Map.Entry<List<String>, Double> entry : table.entrySet()) { // Iterate through table entries
-            List<String> key = new ArrayList<>(entry.getKey());
-            key.remove(index); // Remove the variable from the key
-            newTable.merge(key, entry.getValue(), (v1, v2) -> { // Merge the entry into the new table
-                additions[0]++; // Increment the counter
-                return v1 + v2; // Sum the values
-            });
+        if (indices != null) { // sum the non-zero entries only, with the variable moved after the other columns
+            int columns = newCardinalities.length;
+            int[] extendedCardinalities = Arrays.copyOf(newCardinalities, columns + 1);
+            extendedCardinalities[columns] = cardinality;
+            int[] extendedStrides = Arrays.copyOf(without(strides, index), columns + 1);
+            extendedStrides[columns] = inner;
+            int[] resultStrides = Arrays.copyOf(computeStrides(newCardinalities), columns + 1); // 0 for the variable
+            Entries entries = sparseProduct(new Factor[]{this}, new int[][]{extendedStrides}, extendedCardinalities, resultStrides);
+            Factor newFactor = fromEntries(newColumnNames, newVariables, newDomains, newCardinalities, entries.indices, entries.values, entries.count);
+            return new FactorOperationResult(newFactor, 0, additions);
         }
 
-        List<String> newColumnNames = new ArrayList<>(columnNames); // Create new column names without the variable
-        newColumnNames.remove(variable);
+        double[] newValues = new double[outer * inner];
+        forRange(newValues.length, (from, to) -> eliminateRange(values, inner, cardinality, newValues, from, to));
 
-        Factor newFactor = new Factor(newColumnNames, newTable); // Create the new factor
-        return new FactorOperationResult(newFactor, 0, additions[0]); // Return the new factor and the number of additions
+        Factor newFactor = new Factor(newColumnNames, newVariables, newDomains, newCardinalities, newValues);
+        return new FactorOperationResult(newFactor, 0, additions); // Return the new factor and the number of additions
     }
 
     /**
@@ -80,20 +514,58 @@ public class Factor implements Comparable<Factor> {
         if (index == -1) {
             return this; // Variable not found, return the factor as-is
         }
+        int outcome = domains.get(index).indexOf(value);
+        if (outcome == -1) {
+            throw new IllegalArgumentException("Outcome " + value + " not found for " + variable);
+        }
+        return instantiateColumn(index, outcome);
+    }
+
+    /**
+     * Instantiates the factor with a specific outcome for a variable, reducing its size.
+     *
+     * @param variable the id of the variable to instantiate
+     * @param outcome the id of the outcome to instantiate the variable with
+     * @return the new instantiated factor
+     */
+    public Factor instantiate(int variable, int outcome) {
+        int index = columnOf(variable);
+        if (index == -1) {
+            return this; // Variable not found, return the factor as-is
+        }
+        return instantiateColumn(index, outcome);
+    }
 
-        Map<List<String>, Double> newTable = new HashMap<>();
-        for (Map.Entry<List<String>, Double> entry : table.entrySet()) { // Iterate through table entries
-            if (entry.getKey().get(index).equals(value)) { // Check if the variable has the specified value
-                List<String> newKey = new ArrayList<>(entry.getKey()); // Create a new key without the variable
-                newKey.remove(index);
-                newTable.put(newKey, entry.getValue()); // Add the entry to the new table
+    /**
+     * Keeps the slice of the factor where the variable of a column has the given outcome.
+     *
+     * @param index the index of the column
+     * @param outcome the id of the outcome
+     * @return the new instantiated factor
+     */
+    private Factor instantiateColumn(int index, int outcome) {
+        int inner = strides[index];
+        int block = inner * cardinalities[index];
+        int outer = size / block;
+        if (indices != null) { // keep the non-zero entries of the slice, they stay in ascending order
+            int[] newIndices = new int[values.length];
+            double[] newValues = new double[values.length];
+            int count = 0;
+            for (int n = 0; n < indices.length; n++) {
+                int entry = indices[n];
+                if ((entry / inner) % cardinalities[index] == outcome) {
+                    newIndices[count] = (entry / block) * inner + entry % inner;
+                    newValues[count++] = values[n];
+                }
             }
+            return fromEntries(without(columnNames, index), without(variables, index), without(domains, index), without(cardinalities, index), newIndices, newValues, count);
+        }
+        double[] newValues = new double[outer * inner];
+        for (int o = 0; o < outer; o++) { // copy the slice of the values where the variable has the given outcome
+            System.arraycopy(values, o * block + outcome * inner, newValues, o * inner, inner);
         }
 
-        List<String> newColumnNames = new ArrayList<>(columnNames); // Create new column names without the variable
-        newColumnNames.remove(variable);
-
-        return new Factor(newColumnNames, newTable);
+        return new Factor(without(columnNames, index), without(variables, index), without(domains, index), without(cardinalities, index), newValues);
     }
 
     /**
@@ -104,66 +576,563 @@ public class Factor implements Comparable<Factor> {
      */
     public FactorOperationResult join(Factor other) {
         List<String> newColumnNames = new ArrayList<>(this.columnNames); // Create new column names with the column names of this factor
-        for (String col : other.getColumnNames()) { // Add column names from the other factor that are not already in the new column names
-            if (!newColumnNames.contains(col)) {
+        List<List<String>> newDomains = new ArrayList<>(this.domains);
+        int[] newVariables = Arrays.copyOf(this.variables, this.variables.length + other.variables.length);
+        for (int i = 0; i < other.columnNames.size(); i++) { // Add column names from the other factor that are not already in the new column names
+            String col = other.columnNames.get(i);
+            int index = newColumnNames.indexOf(col);
+            if (index == -1) {
+                newVariables[newColumnNames.size()] = other.variables[i];
                 newColumnNames.add(col);
+                newDomains.add(other.domains.get(i));
+            } else if (!newDomains.get(index).equals(other.domains.get(i))) {
+                throw new IllegalArgumentException("Variable " + col + " has different outcomes in the joined factors");
             }
         }
 
-        Map<List<String>, Double> newTable = new HashMap<>(); // Create a new table for the new factor
+        int columns = newColumnNames.size();
+        int[] newCardinalities = new int[columns];
+        int[] thisStrides = new int[columns]; // stride of every new column in this factor, 0 if missing
+        int[] otherStrides = new int[columns]; // stride of every new column in the other factor, 0 if missing
+        for (int c = 0; c < columns; c++) {
+            newCardinalities[c] = newDomains.get(c).size();
+            int thisIndex = this.columnNames.indexOf(newColumnNames.get(c));
+            int otherIndex = other.columnNames.indexOf(newColumnNames.get(c));
+            thisStrides[c] = thisIndex == -1 ? 0 : this.strides[thisIndex];
+            otherStrides[c] = otherIndex == -1 ? 0 : other.strides[otherIndex];
+        }
+
+        int multiplications = size(newCardinalities); // one multiplication for every joined assignment
+        newVariables = Arrays.copyOf(newVariables, columns);
+        Factor newFactor;
+        if (this.indices != null || other.indices != null) { // only multiply the non-zero entries
+            Entries entries = sparseProduct(new Factor[]{this, other}, new int[][]{thisStrides, otherStrides}, newCardinalities, computeStrides(newCardinalities));
+            newFactor = fromEntries(newColumnNames, newVariables, newDomains, newCardinalities, entries.indices, entries.values, entries.count);
+        } else {
+            double[] newValues = new double[multiplications];
+            double[] first = this.values;
+            double[] second = other.values;
+            forRange(newValues.length, (from, to) -> multiplyRange(first, thisStrides, second, otherStrides, newCardinalities, newValues, from, to));
+            newFactor = new Factor(newColumnNames, newVariables, newDomains, newCardinalities, newValues); // Create the new factor
+        }
+        return new FactorOperationResult(newFactor, multiplications, 0); // Return the new factor and the number of multiplications
+    }
+
+    /**
+     * Joins all factors of a bucket and sums a variable out of the product in a single pass, without ever building the
+     * joined table. Every entry of the result is the sum over the outcomes of the variable of the product of the
+     * matching entries of all factors.
+     * <p>
+     * The reported counts are the ones of joining the factors pairwise in their sorted order and then eliminating the
+     * variable, so they match {@link #join(Factor)} followed by {@link #eliminate(String)}. The order of the result
+     * columns matches that sequence as well.
+     *
+     * @param bucket the factors to join, in the order they are kept by the variable elimination
+     * @param variable the variable to sum out, every factor of the bucket must contain it
+     * @return the result of the operation, including the new factor and the number of multiplications and additions
+     */
+    public static FactorOperationResult sumProduct(List<Factor> bucket, String variable) {
+        if (bucket.isEmpty()) {
+            throw new IllegalArgumentException("Bucket of " + variable + " is empty");
+        }
+        Map<String, List<String>> domainOf = new HashMap<>(); // outcomes of every variable of the bucket
+        Map<String, Integer> idOf = new HashMap<>(); // symbol table id of every variable of the bucket
+        for (Factor factor : bucket) {
+            if (!factor.containsVariable(variable)) {
+                throw new IllegalArgumentException("Variable not found in factor");
+            }
+            for (int i = 0; i < factor.columnNames.size(); i++) {
+                idOf.putIfAbsent(factor.columnNames.get(i), factor.variables[i]);
+                List<String> known = domainOf.putIfAbsent(factor.columnNames.get(i), factor.domains.get(i));
+                if (known != null && !known.equals(factor.domains.get(i))) {
+                    throw new IllegalArgumentException("Variable " + factor.columnNames.get(i) + " has different outcomes in the joined factors");
+                }
+            }
+        }
+
+        // Replay the pairwise joins on the column names only, to get their counts and the joined column order
+        List<List<String>> scopes = new ArrayList<>();
+        for (Factor factor : bucket) {
+            scopes.add(factor.columnNames);
+        }
+        scopes.sort(Factor::compareColumns);
         int multiplications = 0;
+        while (scopes.size() > 1) {
+            List<String> joined = new ArrayList<>(scopes.remove(0));
+            for (String col : scopes.remove(0)) {
+                if (!joined.contains(col)) {
+                    joined.add(col);
+                }
+            }
+            int joinedSize = 1;
+            for (String col : joined) {
+                joinedSize = Math.multiplyExact(joinedSize, domainOf.get(col).size());
+            }
+            multiplications += joinedSize; // one multiplication for every joined assignment
+            scopes.add(joined);
+            scopes.sort(Factor::compareColumns);
+        }
+
+        List<String> newColumnNames = new ArrayList<>(scopes.get(0));
+        newColumnNames.remove(variable);
+        int columns = newColumnNames.size();
+        List<List<String>> newDomains = new ArrayList<>();
+        int[] newVariables = new int[columns];
+        int[] newCardinalities = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            newVariables[c] = idOf.get(newColumnNames.get(c));
+            newDomains.add(domainOf.get(newColumnNames.get(c)));
+            newCardinalities[c] = newDomains.get(c).size();
+        }
+        int cardinality = domainOf.get(variable).size();
 
-        // Create index maps for quick lookup
-        Map<String, Integer> thisColIndex = new HashMap<>();
-        for (int i = 0; i < this.columnNames.size(); i++) { // Create a map of column names to indices for this factor
-            thisColIndex.put(this.columnNames.get(i), i);
+        double[][] inputs = new double[bucket.size()][]; // values of every factor
+        int[][] inputStrides = new int[bucket.size()][]; // stride of every result column in every factor, 0 if missing
+        int[] variableStrides = new int[bucket.size()]; // stride of the summed out variable in every factor
+        boolean sparse = false;
+        for (int f = 0; f < bucket.size(); f++) {
+            Factor factor = bucket.get(f);
+            inputs[f] = factor.values;
+            sparse |= factor.indices != null;
+            inputStrides[f] = new int[columns];
+            for (int c = 0; c < columns; c++) {
+                int index = factor.columnNames.indexOf(newColumnNames.get(c));
+                inputStrides[f][c] = index == -1 ? 0 : factor.strides[index];
+            }
+            variableStrides[f] = factor.strides[factor.columnNames.indexOf(variable)];
         }
 
-        Map<String, Integer> otherColIndex = new HashMap<>(); // Create a map of column names to indices for the other factor
-        for (int i = 0; i < other.getColumnNames().size(); i++) {
-            otherColIndex.put(other.getColumnNames().get(i), i);
+        int additions = size(newCardinalities) * (cardinality - 1); // n-1 additions for every group of n entries
+        if (sparse) { // walk the non-zero entries, with the variable as an extra column after the result columns
+            int[] extendedCardinalities = Arrays.copyOf(newCardinalities, columns + 1);
+            extendedCardinalities[columns] = cardinality;
+            int[][] extendedStrides = new int[bucket.size()][];
+            for (int f = 0; f < bucket.size(); f++) {
+                extendedStrides[f] = Arrays.copyOf(inputStrides[f], columns + 1);
+                extendedStrides[f][columns] = variableStrides[f];
+            }
+            int[] resultStrides = Arrays.copyOf(computeStrides(newCardinalities), columns + 1); // 0 for the variable
+            Entries entries = sparseProduct(bucket.toArray(new Factor[0]), extendedStrides, extendedCardinalities, resultStrides);
+            Factor newFactor = fromEntries(newColumnNames, newVariables, newDomains, newCardinalities, entries.indices, entries.values, entries.count);
+            return new FactorOperationResult(newFactor, multiplications, additions);
         }
 
-        // Iterate through tables and combine entries
-        for (Map.Entry<List<String>, Double> entry1 : this.table.entrySet()) {
-            for (Map.Entry<List<String>, Double> entry2 : other.getTable().entrySet()) {
-                if (isJoinable(entry1.getKey(), entry2.getKey(), thisColIndex, otherColIndex)) { // Check if the entries are joinable
-                    List<String> newKey = new ArrayList<>(entry1.getKey()); // Create a new key with the keys of this factor
-                    for (int i = 0; i < other.getColumnNames().size(); i++) { // Add keys from the other factor that are not already in the new key
-                        String col = other.getColumnNames().get(i);
-                        if (!this.columnNames.contains(col)) {
-                            newKey.add(entry2.getKey().get(i));
+        double[] newValues = new double[size(newCardinalities)];
+        forRange(newValues.length, (from, to) -> sumProductRange(inputs, inputStrides, variableStrides, cardinality, newCardinalities, newValues, from, to));
+
+        Factor newFactor = new Factor(newColumnNames, newVariables, newDomains, newCardinalities, newValues);
+        return new FactorOperationResult(newFactor, multiplications, additions);
+    }
+
+    /**
+     * Computes the non-zero entries of the product of several factors, summed over the columns that have a result
+     * stride of 0. Only the stored entries of the sparse factor with the fewest of them are walked: each of them fixes
+     * the outcomes of that factor's columns, so the odometer only runs over the remaining columns and every block of
+     * zeros of that factor is skipped. The matching entries of the other factors are looked up by their offsets.
+     * <p>
+     * Products are taken in the order of the factors and sums in the order of the outcomes of the summed out column,
+     * like the dense kernels do, so both storages give the same values.
+     *
+     * @param inputs the factors to multiply, at least one of them sparse
+     * @param inputStrides the stride of every column in every factor, 0 if the column is missing
+     * @param cardinalities the number of outcomes of every column
+     * @param resultStrides the stride of every column in the result, 0 if the column is summed out
+     * @return the non-zero entries of the result in ascending index order
+     */
+    private static Entries sparseProduct(Factor[] inputs, int[][] inputStrides, int[] cardinalities, int[] resultStrides) {
+        int factors = inputs.length;
+        int columns = cardinalities.length;
+        int lead = -1; // sparse factor with the fewest stored entries
+        for (int f = 0; f < factors; f++) {
+            if (inputs[f].indices != null && (lead == -1 || inputs[f].values.length < inputs[lead].values.length)) {
+                lead = f;
+            }
+        }
+        Factor leading = inputs[lead];
+        int[] leadStrides = inputStrides[lead];
+        int[] free = new int[columns]; // columns missing from the leading factor
+        int freeColumns = 0;
+        for (int c = 0; c < columns; c++) {
+            if (leadStrides[c] == 0) {
+                free[freeColumns++] = c;
+            }
+        }
+
+        Entries entries = new Entries(leading.values.length);
+        int[] outcomes = new int[columns]; // current outcome of every free column
+        int[] offsets = new int[factors]; // current offset into every factor
+        for (int n = 0; n < leading.indices.length; n++) {
+            int entry = leading.indices[n];
+            int target = 0;
+            Arrays.fill(offsets, 0);
+            for (int c = 0; c < columns; c++) { // decode the outcomes fixed by the stored entry
+                if (leadStrides[c] != 0) {
+                    int outcome = (entry / leadStrides[c]) % cardinalities[c];
+                    target += outcome * resultStrides[c];
+                    for (int f = 0; f < factors; f++) {
+                        offsets[f] += outcome * inputStrides[f][c];
+                    }
+                }
+            }
+
+            while (true) {
+                double product = lead == 0 ? leading.values[n] : inputs[0].valueAt(offsets[0]);
+                for (int f = 1; f < factors && product != 0; f++) { // multiply the matching entries of all factors
+                    product *= f == lead ? leading.values[n] : inputs[f].valueAt(offsets[f]);
+                }
+                if (product != 0) {
+                    entries.add(target, product);
+                }
+
+                int k = freeColumns - 1;
+                for (; k >= 0; k--) { // advance the odometer over the free columns, the last one changes fastest
+                    int c = free[k];
+                    if (++outcomes[c] < cardinalities[c]) {
+                        target += resultStrides[c];
+                        for (int f = 0; f < factors; f++) {
+                            offsets[f] += inputStrides[f][c];
                         }
+                        break;
+                    }
+                    outcomes[c] = 0; // wrap around and carry into the previous free column
+                    target -= (cardinalities[c] - 1) * resultStrides[c];
+                    for (int f = 0; f < factors; f++) {
+                        offsets[f] -= (cardinalities[c] - 1) * inputStrides[f][c];
                     }
-                    double newValue = entry1.getValue() * entry2.getValue(); // Multiply the values
-                    multiplications++; // Increment the counter
-                    newTable.merge(newKey, newValue, Double::sum); // Merge the entry into the new table
+                }
+                if (k < 0) {
+                    break; // every assignment of the free columns was visited
                 }
             }
         }
+        entries.sortAndMerge();
+        return entries;
+    }
 
-        Factor newFactor = new Factor(newColumnNames, newTable); // Create the new factor
-        return new FactorOperationResult(newFactor, multiplications, 0); // Return the new factor and the number of multiplications
+    /**
+     * Returns the probability at an index of the row-major values array without checking the bounds.
+     *
+     * @param index the index of the assignment
+     * @return the probability of the assignment
+     */
+    private double valueAt(int index) {
+        if (indices == null) {
+            return values[index];
+        }
+        int n = Arrays.binarySearch(indices, index);
+        return n < 0 ? 0 : values[n];
+    }
+
+    /**
+     * A growing list of entries of a sparse result, used by {@link #sparseProduct}.
+     */
+    private static final class Entries {
+        private int[] indices;
+        private double[] values;
+        private int count;
+        private boolean sorted = true; // whether the indices were added in ascending order
+
+        /**
+         * Constructs an empty list of entries.
+         *
+         * @param capacity the initial capacity
+         */
+        Entries(int capacity) {
+            indices = new int[Math.max(capacity, 16)];
+            values = new double[indices.length];
+        }
+
+        /**
+         * Adds an entry, growing the arrays when they are full.
+         *
+         * @param index the index of the entry in the result
+         * @param value the value of the entry
+         */
+        void add(int index, double value) {
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            if (count > 0 && index < indices[count - 1]) {
+                sorted = false;
+            }
+            indices[count] = index;
+            values[count++] = value;
+        }
+
+        /**
+         * Sorts the entries by index, keeping the order they were added in for equal indices,
+         * and sums the entries with equal indices in that order.
+         */
+        void sortAndMerge() {
+            if (!sorted) {
+                long[] keys = new long[count]; // index in the high half, position in the low half
+                for (int n = 0; n < count; n++) {
+                    keys[n] = (long) indices[n] << 32 | n;
+                }
+                Arrays.sort(keys);
+                int[] sortedIndices = new int[count];
+                double[] sortedValues = new double[count];
+                for (int n = 0; n < count; n++) {
+                    sortedIndices[n] = (int) (keys[n] >>> 32);
+                    sortedValues[n] = values[(int) keys[n]];
+                }
+                indices = sortedIndices;
+                values = sortedValues;
+                sorted = true;
+            }
+            int merged = 0;
+            for (int n = 0; n < count; n++) {
+                if (merged > 0 && indices[merged - 1] == indices[n]) {
+                    values[merged - 1] += values[n];
+                } else {
+                    indices[merged] = indices[n];
+                    values[merged++] = values[n];
+                }
+            }
+            count = merged;
+        }
+    }
+
+    /**
+     * Joins all factors of a bucket and sums a variable out of the product in a single pass.
+     *
+     * @param bucket the factors to join, in the order they are kept by the variable elimination
+     * @param variable the id of the variable to sum out, every factor of the bucket must contain it
+     * @return the result of the operation, including the new factor and the number of multiplications and additions
+     * @see #sumProduct(List, String)
+     */
+    public static FactorOperationResult sumProduct(List<Factor> bucket, int variable) {
+        if (bucket.isEmpty()) {
+            throw new IllegalArgumentException("Bucket of variable " + variable + " is empty");
+        }
+        int index = bucket.get(0).columnOf(variable);
+        if (index == -1) {
+            throw new IllegalArgumentException("Variable not found in factor");
+        }
+        return sumProduct(bucket, bucket.get(0).columnNames.get(index));
+    }
+
+    /**
+     * Fills a range of a result values array with the sums over the outcomes of the variable of a column.
+     *
+     * @param values the values of the factor
+     * @param inner the stride of the summed out column
+     * @param cardinality the number of outcomes of the summed out column
+     * @param result the values of the result factor
+     * @param from the first index to fill, inclusive
+     * @param to the last index to fill, exclusive
+     */
+    private static void eliminateRange(double[] values, int inner, int cardinality, double[] result, int from, int to) {
+        int block = inner * cardinality; // entries covering all outcomes of the variable
+        int o = from / inner; // assignment of the columns before the variable
+        int i = from % inner; // assignment of the columns after the variable
+        for (int n = from; n < to; n++) {
+            int base = o * block + i;
+            double sum = values[base];
+            for (int k = 1; k < cardinality; k++) { // sum over the outcomes of the variable
+                sum += values[base + k * inner];
+            }
+            result[n] = sum;
+            if (++i == inner) {
+                i = 0;
+                o++;
+            }
+        }
+    }
+
+    /**
+     * Fills the entries of a result, in parallel on the fork-join pool if the result is large enough.
+     *
+     * @param size the number of entries of the result
+     * @param kernel the kernel filling a range of the result
+     */
+    private static void forRange(int size, RangeKernel kernel) {
+        int parallelism = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        if (size < PARALLEL_THRESHOLD || parallelism == 1) {
+            kernel.fill(0, size);
+            return;
+        }
+        int grain = Math.max(PARALLEL_GRAIN, size / (4 * parallelism)); // a few chunks per thread to balance the load
+        new RangeTask(kernel, 0, size, grain).invoke();
+    }
+
+    /**
+     * A kernel that fills a range of the values of a result factor.
+     */
+    @FunctionalInterface
+    private interface RangeKernel {
+        /**
+         * Fills a range of the result.
+         *
+         * @param from the first index to fill, inclusive
+         * @param to the last index to fill, exclusive
+         */
+        void fill(int from, int to);
+    }
+
+    /**
+     * Splits the range of a result in halves until the chunks are small enough to be filled by one task.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private static final class RangeTask extends RecursiveAction {
+        private final RangeKernel kernel;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        /**
+         * Constructs a task filling a range of a result.
+         *
+         * @param kernel the kernel filling the range
+         * @param from the first index to fill, inclusive
+         * @param to the last index to fill, exclusive
+         * @param grain the largest range filled without splitting
+         */
+        RangeTask(RangeKernel kernel, int from, int to, int grain) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        /**
+         * Fills the range, or splits it and fills both halves in parallel.
+         */
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                kernel.fill(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(kernel, from, middle, grain), new RangeTask(kernel, middle, to, grain));
+        }
+    }
+
+    /**
+     * Fills a range of a result values array with the sum over the outcomes of a variable of the products of the
+     * matching entries of several factors. The result assignments are walked with an odometer like in
+     * {@link #multiplyRange}, keeping one offset per factor.
+     *
+     * @param inputs the values of every factor
+     * @param inputStrides the stride of every result column in every factor, 0 if the column is missing
+     * @param variableStrides the stride of the summed out variable in every factor
+     * @param cardinality the number of outcomes of the summed out variable
+     * @param cardinalities the number of outcomes of every result column
+     * @param result the values of the result factor
+     * @param from the first index to fill, inclusive
+     * @param to the last index to fill, exclusive
+     */
+    private static void sumProductRange(double[][] inputs, int[][] inputStrides, int[] variableStrides, int cardinality,
+                                        int[] cardinalities, double[] result, int from, int to) {
+        int columns = cardinalities.length;
+        int factors = inputs.length;
+        int[] outcomes = new int[columns]; // current outcome of every result column
+        int[] offsets = new int[factors]; // current offset into every factor
+        int rest = from;
+        for (int c = columns - 1; c >= 0; c--) { // decode the starting assignment once
+            outcomes[c] = rest % cardinalities[c];
+            rest /= cardinalities[c];
+            for (int f = 0; f < factors; f++) {
+                offsets[f] += outcomes[c] * inputStrides[f][c];
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            double sum = 0;
+            for (int k = 0; k < cardinality; k++) { // sum over the outcomes of the variable
+                double product = inputs[0][offsets[0] + k * variableStrides[0]];
+                for (int f = 1; f < factors; f++) { // multiply the matching entries of all factors
+                    product *= inputs[f][offsets[f] + k * variableStrides[f]];
+                }
+                sum += product;
+            }
+            result[i] = sum;
+
+            for (int c = columns - 1; c >= 0; c--) { // advance the odometer, the last column changes fastest
+                if (++outcomes[c] < cardinalities[c]) {
+                    for (int f = 0; f < factors; f++) {
+                        offsets[f] += inputStrides[f][c];
+                    }
+                    break;
+                }
+                outcomes[c] = 0; // wrap around and carry into the previous column
+                for (int f = 0; f < factors; f++) {
+                    offsets[f] -= (cardinalities[c] - 1) * inputStrides[f][c];
+                }
+            }
+        }
     }
 
     /**
-     * Checks if two entries are joinable based on their keys and column indices.
+     * Fills a range of a joined values array with the products of the matching entries of both factors.
+     * The assignments are walked with an odometer over the joined columns, moving the offsets into both factors by
+     * their strides, so every joined entry costs a constant amount of work.
      *
-     * @param key1 the first key
-     * @param key2 the second key
-     * @param colIndex1 the column indices of the first factor
-     * @param colIndex2 the column indices of the second factor
-     * @return true if the entries are joinable, false otherwise
+     * @param first the values of the first factor
+     * @param firstStrides the stride of every joined column in the first factor, 0 if the column is missing
+     * @param second the values of the second factor
+     * @param secondStrides the stride of every joined column in the second factor, 0 if the column is missing
+     * @param cardinalities the number of outcomes of every joined column
+     * @param result the values of the joined factor
+     * @param from the first index to fill, inclusive
+     * @param to the last index to fill, exclusive
      */
-    private boolean isJoinable(List<String> key1, List<String> key2, Map<String, Integer> colIndex1, Map<String, Integer> colIndex2) {
-        for (String col : colIndex1.keySet()) { // Iterate through column names of the first factor
-            if (colIndex2.containsKey(col)) { // Check if the column name is in the second factor
-                if (!key1.get(colIndex1.get(col)).equals(key2.get(colIndex2.get(col)))) { // Check if the keys are different
-                    return false;
+    private static void multiplyRange(double[] first, int[] firstStrides, double[] second, int[] secondStrides,
+                                      int[] cardinalities, double[] result, int from, int to) {
+        int columns = cardinalities.length;
+        int[] outcomes = new int[columns]; // current outcome of every joined column
+        int firstOffset = 0;
+        int secondOffset = 0;
+        int rest = from;
+        for (int c = columns - 1; c >= 0; c--) { // decode the starting assignment once
+            outcomes[c] = rest % cardinalities[c];
+            rest /= cardinalities[c];
+            firstOffset += outcomes[c] * firstStrides[c];
+            secondOffset += outcomes[c] * secondStrides[c];
+        }
+
+        for (int i = from; i < to; i++) {
+            result[i] = first[firstOffset] * second[secondOffset];
+            for (int c = columns - 1; c >= 0; c--) { // advance the odometer, the last column changes fastest
+                if (++outcomes[c] < cardinalities[c]) {
+                    firstOffset += firstStrides[c];
+                    secondOffset += secondStrides[c];
+                    break;
                 }
+                outcomes[c] = 0; // wrap around and carry into the previous column
+                firstOffset -= (cardinalities[c] - 1) * firstStrides[c];
+                secondOffset -= (cardinalities[c] - 1) * secondStrides[c];
             }
         }
-        return true;
+    }
+
+    /**
+     * Returns a copy of the list without the element at the given index.
+     *
+     * @param list the list to copy
+     * @param index the index to skip
+     * @return the new list
+     */
+    private static <T> List<T> without(List<T> list, int index) {
+        List<T> result = new ArrayList<>(list);
+        result.remove(index);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the array without the element at the given index.
+     *
+     * @param array the array to copy
+     * @param index the index to skip
+     * @return the new array
+     */
+    private static int[] without(int[] array, int index) {
+        int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
     }
 
     /**
@@ -176,13 +1145,23 @@ public class Factor implements Comparable<Factor> {
         return columnNames.contains(variable);
     }
 
+    /**
+     * Checks if the factor contains a specific variable.
+     *
+     * @param variable the id of the variable to check
+     * @return true if the factor contains the variable, false otherwise
+     */
+    public boolean containsVariable(int variable) {
+        return columnOf(variable) != -1;
+    }
+
     /**
      * Checks if the factor can be discarded, i.e., if it only has one entry.
      *
      * @return true if the factor can be discarded, false otherwise
      */
     public boolean canBeDiscarded() {
-        return table.size() == 1;
+        return size == 1;
     }
 
     /**
@@ -193,12 +1172,23 @@ public class Factor implements Comparable<Factor> {
      */
     @Override
     public int compareTo(Factor other) {
-        int sizeComparison = Integer.compare(this.columnNames.size(), other.columnNames.size());
+        return compareColumns(this.columnNames, other.columnNames);
+    }
+
+    /**
+     * Compares two lists of column names the way factors are ordered: by their size and then by ascii.
+     *
+     * @param first the first column names
+     * @param second the second column names
+     * @return a negative integer, zero, or a positive integer as the first columns are less than, equal to, or greater than the second
+     */
+    static int compareColumns(List<String> first, List<String> second) {
+        int sizeComparison = Integer.compare(first.size(), second.size());
         if (sizeComparison != 0) { // if sizes are different, return the comparison
             return sizeComparison;
         }
-        for (int i = 0; i < this.columnNames.size(); i++) { // if sizes are the same, compare by ascii
-            int cmp = this.columnNames.get(i).compareTo(other.columnNames.get(i));
+        for (int i = 0; i < first.size(); i++) { // if sizes are the same, compare by ascii
+            int cmp = first.get(i).compareTo(second.get(i));
             if (cmp != 0) {
                 return cmp;
             }
@@ -217,7 +1207,8 @@ public class Factor implements Comparable<Factor> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Factor factor = (Factor) o;
-        return Objects.equals(table, factor.table) &&
+        return Arrays.equals(dense(), factor.dense()) &&
+                Objects.equals(domains, factor.domains) &&
                 Objects.equals(columnNames, factor.columnNames);
     }
 
@@ -228,7 +1219,14 @@ public class Factor implements Comparable<Factor> {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(table, columnNames);
+        int valuesHash = 1;
+        for (int n = 0; n < values.length; n++) { // hash the non-zero entries only, so both storages agree
+            if (values[n] != 0) {
+                valuesHash = 31 * valuesHash + (indices == null ? n : indices[n]);
+                valuesHash = 31 * valuesHash + Double.hashCode(values[n]);
+            }
+        }
+        return Objects.hash(valuesHash, domains, columnNames);
     }
 
     /**
@@ -241,8 +1239,9 @@ public class Factor implements Comparable<Factor> {
         StringBuilder sb = new StringBuilder();
         sb.append("Factor:\n");
         sb.append(columnNames).append("\n");
-        for (Map.Entry<List<String>, Double> entry : table.entrySet()) {
-            sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
+        double[] all = dense();
+        for (int i = 0; i < all.length; i++) {
+            sb.append(keyOf(i)).append(" : ").append(all[i]).append("\n");
         }
         return sb.toString();
     }
@@ -5,18 +5,33 @@ public class FactorOperationResult {
     private Factor factor;
     private int multiplications;
     private int additions;
+    private int maxFactorSize; // number of entries of the largest factor built during the operation
 
     /**
      * Constructs a FactorOperationResult with the given factor, multiplications, and additions.
+     * The resulting factor is taken as the largest factor of the operation.
      *
      * @param factor the resulting factor
      * @param multiplications the number of multiplications performed
      * @param additions the number of additions performed
      */
     public FactorOperationResult(Factor factor, int multiplications, int additions) {
+        this(factor, multiplications, additions, factor.size());
+    }
+
+    /**
+     * Constructs a FactorOperationResult of an operation that built intermediate factors.
+     *
+     * @param factor the resulting factor
+     * @param multiplications the number of multiplications performed
+     * @param additions the number of additions performed
+     * @param maxFactorSize the number of entries of the largest factor built during the operation
+     */
+    public FactorOperationResult(Factor factor, int multiplications, int additions, int maxFactorSize) {
         this.factor = factor;
         this.multiplications = multiplications;
         this.additions = additions;
+        this.maxFactorSize = maxFactorSize;
     }
 
     /**
@@ -45,4 +60,13 @@ public class FactorOperationResult {
     public int getAdditions() {
         return additions;
     }
+
+    /**
+     * Returns the number of entries of the largest factor built during the operation.
+     *
+     * @return the size of the largest factor
+     */
+    public int getMaxFactorSize() {
+        return maxFactorSize;
+    }
 }
@@ -0,0 +1,43 @@
+import java.util.function.Consumer;
+
+/**
+ * An engine that answers elimination queries on the whole network it was built for, instead of eliminating the
+ * hidden variables of every query. Engines may cache work per evidence and must be safe to query concurrently.
+ */
+public interface InferenceEngine {
+
+    /**
+     * Returns the name of the engine, the query type of its metrics, e.g. "junction-tree".
+     *
+     * @return the name of the engine
+     */
+    String getName();
+
+    /**
+     * Computes the posterior probability of a query variable having a specific outcome given the evidence.
+     *
+     * @param queryVariable the id of the query variable
+     * @param queryOutcome the id of the query outcome
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the result, the factor holds the normalized distribution of the query variable and the counts are the
+     * operations the engine performed for the query
+     */
+    FactorOperationResult query(int queryVariable, int queryOutcome, int[] evidenceVariables, int[] evidenceOutcomes);
+
+    /**
+     * Computes the posterior distributions of several variables given the same evidence, handing every distribution
+     * to the sink as soon as it is ready. The work for the evidence is done once and shared by all variables, so the
+     * counts of the first result include it and the others only count reading their distribution.
+     *
+     * @param variables the ids of the variables, in the order their distributions are wanted
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @param sink receives the result of every variable, the factor holds its normalized distribution
+     */
+    default void marginals(int[] variables, int[] evidenceVariables, int[] evidenceOutcomes, Consumer<FactorOperationResult> sink) {
+        for (int variable : variables) { // the engines cache their work per evidence, so only the first query does it
+            sink.accept(query(variable, 0, evidenceVariables, evidenceOutcomes));
+        }
+    }
+}
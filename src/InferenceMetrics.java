@@ -0,0 +1,231 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the {@link QueryMetrics} of a run. Keeps a latency histogram per query type, which is exposed over JMX
+ * once {@link #register()} was called, and optionally every record, to be written as a JSON or CSV file.
+ * All methods are thread safe.
+ */
+public class InferenceMetrics implements InferenceMetricsMBean {
+    public static final String OBJECT_NAME = "AiAlgorithms:type=InferenceMetrics";
+
+    private static final long[] LATENCY_BOUNDS_MICROS = {10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    /**
+     * Enumeration for the file formats of the recorded metrics.
+     */
+    public enum Format {
+        JSON,
+        CSV
+    }
+
+    private final boolean keepRecords; // whether every record is kept to be written out
+    private final List<QueryMetrics> records = new ArrayList<>(); // guarded by itself
+    private final Map<String, LatencyStats> latencies = new ConcurrentHashMap<>(); // statistics of every query type
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong maxFactorSize = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong resultCacheHits = new AtomicLong();
+    private final AtomicLong resultCacheMisses = new AtomicLong();
+
+    /**
+     * Constructs an empty collector.
+     *
+     * @param keepRecords whether every record is kept to be written out, only the statistics are kept otherwise
+     */
+    public InferenceMetrics(boolean keepRecords) {
+        this.keepRecords = keepRecords;
+    }
+
+    /**
+     * Records the metrics of an answered query.
+     *
+     * @param metrics the metrics of the query
+     */
+    public void record(QueryMetrics metrics) {
+        if (keepRecords) {
+            synchronized (records) {
+                records.add(metrics);
+            }
+        }
+        queryCount.incrementAndGet();
+        latencies.computeIfAbsent(metrics.getType(), type -> new LatencyStats()).add(metrics.getTotalNanos() / 1000);
+        maxFactorSize.accumulateAndGet(metrics.getMaxFactorSize(), Math::max);
+        if (metrics.getAllocatedBytes() > 0) {
+            allocatedBytes.addAndGet(metrics.getAllocatedBytes());
+        }
+        switch (metrics.getCacheResult()) {
+            case HIT:
+                resultCacheHits.incrementAndGet();
+                break;
+            case MISS:
+                resultCacheMisses.incrementAndGet();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the kept records in the order they were recorded.
+     *
+     * @return a copy of the records
+     */
+    public List<QueryMetrics> getRecords() {
+        synchronized (records) {
+            return new ArrayList<>(records);
+        }
+    }
+
+    /**
+     * Writes the kept records to a file.
+     *
+     * @param path the path of the file
+     * @param format the format of the file
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path path, Format format) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(out, format);
+        }
+    }
+
+    /**
+     * Writes the kept records, as a JSON array with one object per line or as CSV with a header.
+     *
+     * @param out the writer, left open
+     * @param format the format of the records
+     * @throws IOException if the records can't be written
+     */
+    public void write(Writer out, Format format) throws IOException {
+        List<QueryMetrics> snapshot = getRecords();
+        if (format == Format.CSV) {
+            out.write(QueryMetrics.CSV_HEADER + "\n");
+            for (QueryMetrics metrics : snapshot) {
+                out.write(metrics.toCsv() + "\n");
+            }
+            return;
+        }
+        out.write("[\n");
+        for (int i = 0; i < snapshot.size(); i++) {
+            out.write("  " + snapshot.get(i).toJson() + (i + 1 < snapshot.size() ? ",\n" : "\n"));
+        }
+        out.write("]\n");
+    }
+
+    /**
+     * Registers the collector with the platform MBean server under {@link #OBJECT_NAME}, replacing an earlier one.
+     *
+     * @throws JMException if the collector can't be registered
+     */
+    public void register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    @Override
+    public String[] getQueryTypes() {
+        return new TreeSet<>(latencies.keySet()).toArray(new String[0]);
+    }
+
+    @Override
+    public long[] getLatencyBucketBoundsMicros() {
+        return LATENCY_BOUNDS_MICROS.clone();
+    }
+
+    @Override
+    public long[] getLatencyHistogram(String type) {
+        LatencyStats stats = latencies.get(type);
+        long[] histogram = new long[LATENCY_BOUNDS_MICROS.length + 1];
+        if (stats != null) {
+            for (int b = 0; b < histogram.length; b++) {
+                histogram[b] = stats.buckets.get(b);
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public double getMeanLatencyMicros(String type) {
+        LatencyStats stats = latencies.get(type);
+        if (stats == null || stats.count.get() == 0) {
+            return 0;
+        }
+        return (double) stats.totalMicros.get() / stats.count.get();
+    }
+
+    @Override
+    public long getMaxFactorSize() {
+        return maxFactorSize.get();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        return resultCacheHits.get();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        return resultCacheMisses.get();
+    }
+
+    @Override
+    public void reset() {
+        synchronized (records) {
+            records.clear();
+        }
+        latencies.clear();
+        queryCount.set(0);
+        maxFactorSize.set(0);
+        allocatedBytes.set(0);
+        resultCacheHits.set(0);
+        resultCacheMisses.set(0);
+    }
+
+    /**
+     * Latency histogram and total of one query type.
+     */
+    private static final class LatencyStats {
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BOUNDS_MICROS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+
+        /**
+         * Adds the latency of a query.
+         *
+         * @param micros the latency in microseconds
+         */
+        void add(long micros) {
+            int bucket = 0;
+            while (bucket < LATENCY_BOUNDS_MICROS.length && micros > LATENCY_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+        }
+    }
+}
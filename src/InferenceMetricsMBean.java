@@ -0,0 +1,75 @@
+/**
+ * Management interface of {@link InferenceMetrics}, exposing the query statistics of a run over JMX.
+ */
+public interface InferenceMetricsMBean {
+
+    /**
+     * Returns the number of answered queries.
+     *
+     * @return the number of queries
+     */
+    long getQueryCount();
+
+    /**
+     * Returns the types of the answered queries, e.g. "variable-elimination".
+     *
+     * @return the query types in sorted order
+     */
+    String[] getQueryTypes();
+
+    /**
+     * Returns the upper bounds of the latency histogram buckets, the last bucket has no upper bound.
+     *
+     * @return the bounds in microseconds
+     */
+    long[] getLatencyBucketBoundsMicros();
+
+    /**
+     * Returns the latency histogram of a query type.
+     *
+     * @param type the query type
+     * @return the number of queries in every bucket, one more bucket than there are bounds
+     */
+    long[] getLatencyHistogram(String type);
+
+    /**
+     * Returns the mean latency of a query type.
+     *
+     * @param type the query type
+     * @return the mean total time in microseconds, 0 if no query of the type was answered
+     */
+    double getMeanLatencyMicros(String type);
+
+    /**
+     * Returns the number of entries of the largest factor built by any query.
+     *
+     * @return the size of the largest factor
+     */
+    long getMaxFactorSize();
+
+    /**
+     * Returns the number of bytes allocated by all queries on the threads that answered them.
+     *
+     * @return the allocated bytes
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Returns the number of queries whose result line came from the result cache.
+     *
+     * @return the number of hits
+     */
+    long getResultCacheHits();
+
+    /**
+     * Returns the number of queries that were looked up in the result cache and answered from scratch.
+     *
+     * @return the number of misses
+     */
+    long getResultCacheMisses();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
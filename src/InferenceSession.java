@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.AbstractMap.SimpleEntry;
+
+/**
+ * Interactive session on one network where evidence arrives and is taken back over time and queries are asked in
+ * between. Every query is answered by variable elimination exactly like the same query line in {@code input.txt}, but
+ * the session keeps the instantiated factors and the bucket messages of its earlier queries in a {@link MessageCache}:
+ * after evidence changes only the factors of the families it touches and the messages that depend on them are
+ * computed again, everything else is reused. The answers, including the counts, are the ones a run from scratch gives.
+ * <p>
+ * A session is thread safe, evidence changes and queries are applied one at a time.
+ */
+public class InferenceSession {
+    private final BayesianNetwork network;
+    private final MessageCache cache;
+    private final Map<String, String> evidence = new LinkedHashMap<>(); // observed outcome of every variable, in the order observed
+
+    /**
+     * Starts a session without evidence.
+     *
+     * @param network the Bayesian network
+     */
+    public InferenceSession(BayesianNetwork network) {
+        this(network, MessageCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Starts a session without evidence whose cache holds a bounded memory of factors.
+     *
+     * @param network the Bayesian network
+     * @param maxCacheBytes the largest memory of the cached factors and messages, in bytes
+     * @throws IllegalArgumentException if the budget is not positive
+     */
+    public InferenceSession(BayesianNetwork network, long maxCacheBytes) {
+        this.network = network;
+        this.cache = new MessageCache(maxCacheBytes);
+    }
+
+    /**
+     * Observes the outcome of a variable, replacing an earlier observation of it.
+     *
+     * @param variable the name of the variable
+     * @param outcome the observed outcome
+     * @throws IllegalArgumentException if the variable or the outcome is not in the network
+     */
+    public synchronized void addEvidence(String variable, String outcome) {
+        SymbolTable symbols = network.getSymbolTable();
+        symbols.getOutcomeId(symbols.getVariableId(variable), outcome); // fail now rather than at the next query
+        evidence.put(variable, outcome);
+    }
+
+    /**
+     * Takes back the observation of a variable.
+     *
+     * @param variable the name of the variable
+     * @return true if the variable was observed, false otherwise
+     */
+    public synchronized boolean retractEvidence(String variable) {
+        return evidence.remove(variable) != null;
+    }
+
+    /**
+     * Takes back all observations. The cached factors and messages are kept, they are reused when the same evidence
+     * comes back.
+     */
+    public synchronized void clearEvidence() {
+        evidence.clear();
+    }
+
+    /**
+     * Returns the current evidence.
+     *
+     * @return the observed outcome of every variable, in the order they were observed
+     */
+    public synchronized Map<String, String> getEvidence() {
+        return new LinkedHashMap<>(evidence);
+    }
+
+    /**
+     * Answers a query on the current evidence, eliminating all other variables in a min-fill order.
+     *
+     * @param queryVariable the query variable
+     * @param queryValue the query value
+     * @return the result as "probability,additions,multiplications", the line {@code output.txt} would hold
+     * @throws IOException if an I/O error occurs
+     */
+    public String query(String queryVariable, String queryValue) throws IOException {
+        return query(Query.elimination(queryVariable, queryValue, List.of(), List.of(), EliminationOrderPlanner.Heuristic.MIN_FILL));
+    }
+
+    /**
+     * Answers a query on the current evidence, eliminating the hidden variables in the given order. Keeping the same
+     * order between queries lets the most messages be reused.
+     *
+     * @param queryVariable the query variable
+     * @param queryValue the query value
+     * @param hiddenVariables the hidden variables in elimination order
+     * @return the result as "probability,additions,multiplications", the line {@code output.txt} would hold
+     * @throws IOException if an I/O error occurs
+     */
+    public String query(String queryVariable, String queryValue, List<String> hiddenVariables) throws IOException {
+        return query(Query.elimination(queryVariable, queryValue, List.of(), hiddenVariables, null));
+    }
+
+    /**
+     * Answers a query after adding the current evidence to it.
+     *
+     * @param query the query without evidence
+     * @return the result line
+     * @throws IOException if an I/O error occurs
+     */
+    private synchronized String query(Query query) throws IOException {
+        List<SimpleEntry<String, String>> observed = new ArrayList<>();
+        StringJoiner line = new StringJoiner(",", "P(" + query.getQueryVariable() + "=" + query.getQueryValue() + "|", ")"); // names the query in the metrics
+        List<String> hidden = new ArrayList<>();
+        for (String variable : query.getHiddenVariables()) { // an observed variable is no longer hidden
+            if (!evidence.containsKey(variable)) {
+                hidden.add(variable);
+            }
+        }
+        for (Map.Entry<String, String> entry : evidence.entrySet()) {
+            observed.add(new SimpleEntry<>(entry.getKey(), entry.getValue()));
+            line.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Query withEvidence = Query.elimination(query.getQueryVariable(), query.getQueryValue(), observed, hidden, query.getOrderHeuristic());
+        QueryMetrics metrics = new QueryMetrics(line.toString());
+        return Ex1.answerVariableEliminationQuery(network, withEvidence, new RunOptions(), metrics, // no budget or dry run in a session
+                new VariableElimination(cache));
+    }
+
+    /**
+     * Returns the cache of the session, e.g. to see how much work was reused.
+     *
+     * @return the cache of the factors and messages
+     */
+    public MessageCache getMessageCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,471 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Compiles a Bayesian network once into a junction (clique) tree and answers queries by entering the evidence and
+ * calibrating the tree with two-pass message propagation. Calibrated trees are cached per evidence, so queries that
+ * share their evidence only pay for reading a marginal from a clique belief.
+ * <p>
+ * The reported counts are the multiplications and additions this engine performed for the query: the calibration
+ * (only when it was not cached), the marginalization of the query clique and the normalization.
+ */
+public class JunctionTree implements InferenceEngine {
+    private static final int MAX_CALIBRATIONS = 64; // calibrated trees kept in the cache
+
+    private final SymbolTable symbols;
+    private final List<BitSet> cliques; // variables of every clique
+    private final List<List<Integer>> adjacent; // neighbouring cliques of every clique
+    private final int[] parent; // parent of every clique when the tree is rooted at clique 0, -1 for the root
+    private final int[] preorder; // cliques ordered from the root to the leaves
+    private final Factor[] potentials; // product of the CPTs assigned to every clique
+    private final int[] homeClique; // smallest clique that contains every variable
+    private final Map<EvidenceKey, Calibration> calibrations; // calibrated trees, least recently used first
+
+    /**
+     * Compiles the given network into a junction tree.
+     * The moral graph is triangulated with a min-fill elimination order, the maximal cliques are connected by a
+     * maximum spanning tree over their separator sizes, and every CPT is assigned to a clique that contains its family.
+     *
+     * @param network the Bayesian network to compile
+     */
+    public JunctionTree(BayesianNetwork network) {
+        this.symbols = network.getSymbolTable();
+        int variables = symbols.getVariableCount();
+        this.cliques = findCliques(network);
+        this.adjacent = connectCliques(cliques);
+
+        this.parent = new int[cliques.size()];
+        this.preorder = new int[cliques.size()];
+        Arrays.fill(parent, -1);
+        boolean[] seen = new boolean[cliques.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        seen[0] = true;
+        int visited = 0;
+        while (!stack.isEmpty()) { // root the tree at clique 0
+            int c = stack.pop();
+            preorder[visited++] = c;
+            for (int n : adjacent.get(c)) {
+                if (!seen[n]) {
+                    seen[n] = true;
+                    parent[n] = c;
+                    stack.push(n);
+                }
+            }
+        }
+
+        this.homeClique = new int[variables];
+        for (int v = 0; v < variables; v++) {
+            BitSet single = new BitSet();
+            single.set(v);
+            homeClique[v] = smallestCliqueContaining(single);
+        }
+
+        this.potentials = new Factor[cliques.size()];
+        for (int c = 0; c < cliques.size(); c++) {
+            potentials[c] = unitFactor(cliques.get(c));
+        }
+        for (Node node : network.getNodes()) { // multiply every CPT into a clique that contains its family
+            BitSet family = new BitSet();
+            family.set(node.getId());
+            for (Node p : node.getParents()) {
+                family.set(p.getId());
+            }
+            int c = smallestCliqueContaining(family);
+            potentials[c] = potentials[c].join(node.toFactor()).getFactor();
+        }
+
+        this.calibrations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EvidenceKey, Calibration> eldest) {
+                return size() > MAX_CALIBRATIONS;
+            }
+        };
+    }
+
+    /**
+     * Triangulates the moral graph and collects its maximal cliques.
+     *
+     * @param network the Bayesian network
+     * @return the variables of every maximal clique
+     */
+    private static List<BitSet> findCliques(BayesianNetwork network) {
+        BitSet none = new BitSet();
+        BitSet all = new BitSet();
+        for (Node node : network.getNodes()) {
+            all.set(node.getId());
+        }
+        NetworkView view = new NetworkView(network);
+        int[] order = EliminationOrderPlanner.computeOrder(view, none, all, EliminationOrderPlanner.Heuristic.MIN_FILL);
+
+        BitSet[] neighbours = EliminationOrderPlanner.moralGraph(view, none);
+        List<BitSet> cliques = new ArrayList<>();
+        for (int v : order) { // every elimination creates the clique of the variable and its neighbours
+            BitSet clique = (BitSet) neighbours[v].clone();
+            clique.set(v);
+            EliminationOrderPlanner.eliminate(v, neighbours);
+
+            boolean maximal = true;
+            for (BitSet other : cliques) {
+                BitSet rest = (BitSet) clique.clone();
+                rest.andNot(other);
+                if (rest.isEmpty()) { // contained in an earlier clique
+                    maximal = false;
+                    break;
+                }
+            }
+            if (maximal) {
+                cliques.add(clique);
+            }
+        }
+        if (cliques.isEmpty()) {
+            cliques.add(new BitSet());
+        }
+        return cliques;
+    }
+
+    /**
+     * Connects the cliques with a maximum spanning tree over the sizes of their separators (Kruskal).
+     *
+     * @param cliques the variables of every clique
+     * @return the neighbouring cliques of every clique
+     */
+    private static List<List<Integer>> connectCliques(List<BitSet> cliques) {
+        int count = cliques.size();
+        List<int[]> edges = new ArrayList<>(); // {weight, first clique, second clique}
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                BitSet separator = (BitSet) cliques.get(a).clone();
+                separator.and(cliques.get(b));
+                edges.add(new int[]{separator.cardinality(), a, b});
+            }
+        }
+        edges.sort((x, y) -> Integer.compare(y[0], x[0])); // largest separators first
+
+        int[] component = new int[count];
+        for (int c = 0; c < count; c++) {
+            component[c] = c;
+        }
+        List<List<Integer>> adjacent = new ArrayList<>();
+        for (int c = 0; c < count; c++) {
+            adjacent.add(new ArrayList<>());
+        }
+        for (int[] edge : edges) {
+            int a = find(component, edge[1]);
+            int b = find(component, edge[2]);
+            if (a != b) {
+                component[a] = b;
+                adjacent.get(edge[1]).add(edge[2]);
+                adjacent.get(edge[2]).add(edge[1]);
+            }
+        }
+        return adjacent;
+    }
+
+    /**
+     * Finds the representative of a clique in the union-find forest of Kruskal's algorithm.
+     *
+     * @param component the parent of every clique in the forest
+     * @param c the clique
+     * @return the representative of the clique's component
+     */
+    private static int find(int[] component, int c) {
+        while (component[c] != c) {
+            component[c] = component[component[c]];
+            c = component[c];
+        }
+        return c;
+    }
+
+    /**
+     * Returns the smallest clique that contains all the given variables.
+     *
+     * @param variables the set of variable ids
+     * @return the index of the clique
+     */
+    private int smallestCliqueContaining(BitSet variables) {
+        int best = -1;
+        for (int c = 0; c < cliques.size(); c++) {
+            BitSet rest = (BitSet) variables.clone();
+            rest.andNot(cliques.get(c));
+            if (rest.isEmpty() && (best == -1 || cliques.get(c).cardinality() < cliques.get(best).cardinality())) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Creates a factor over the given variables with every entry set to one.
+     *
+     * @param variables the set of variable ids
+     * @return the unit factor
+     */
+    private Factor unitFactor(BitSet variables) {
+        List<String> names = new ArrayList<>();
+        List<List<String>> domains = new ArrayList<>();
+        int[] ids = variables.stream().toArray();
+        int size = 1;
+        for (int v : ids) {
+            names.add(symbols.getVariableName(v));
+            domains.add(symbols.getOutcomes(v));
+            size *= symbols.getCardinality(v);
+        }
+        double[] values = new double[size];
+        Arrays.fill(values, 1.0);
+        return Factor.wrap(names, ids, domains, values);
+    }
+
+    /**
+     * Returns the number of cliques in the tree.
+     *
+     * @return the number of cliques
+     */
+    public int getCliqueCount() {
+        return cliques.size();
+    }
+
+    /**
+     * Returns the number of variables of the largest clique.
+     *
+     * @return the size of the largest clique
+     */
+    public int getMaxCliqueSize() {
+        int max = 0;
+        for (BitSet clique : cliques) {
+            max = Math.max(max, clique.cardinality());
+        }
+        return max;
+    }
+
+    @Override
+    public String getName() {
+        return "junction-tree";
+    }
+
+    /**
+     * Computes the posterior probability of a query variable having a specific outcome given the evidence.
+     *
+     * @param queryVariable the id of the query variable
+     * @param queryOutcome the id of the query outcome
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the result, the factor holds the normalized distribution of the query variable
+     */
+    @Override
+    public FactorOperationResult query(int queryVariable, int queryOutcome, int[] evidenceVariables, int[] evidenceOutcomes) {
+        Calibration calibration = calibrated(evidenceVariables, evidenceOutcomes);
+        return posterior(calibration, queryVariable, !calibration.cached);
+    }
+
+    /**
+     * Computes the posterior distributions of several variables from one calibration, the collect and distribute
+     * passes over the tree, so all of them cost about as much as a single query. Every distribution is handed to the
+     * sink as soon as it is read from its clique belief.
+     *
+     * @param variables the ids of the variables, in the order their distributions are wanted
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @param sink receives the result of every variable, the factor holds its normalized distribution
+     */
+    @Override
+    public void marginals(int[] variables, int[] evidenceVariables, int[] evidenceOutcomes, Consumer<FactorOperationResult> sink) {
+        Calibration calibration = calibrated(evidenceVariables, evidenceOutcomes); // kept here, the cache may drop it meanwhile
+        for (int i = 0; i < variables.length; i++) {
+            sink.accept(posterior(calibration, variables[i], i == 0 && !calibration.cached));
+        }
+    }
+
+    /**
+     * Returns the tree calibrated for the evidence, from the cache or by calibrating it now.
+     *
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the calibrated tree, marked as cached when it was found in the cache
+     */
+    private Calibration calibrated(int[] evidenceVariables, int[] evidenceOutcomes) {
+        EvidenceKey key = new EvidenceKey(evidenceVariables, evidenceOutcomes);
+        Calibration calibration;
+        synchronized (calibrations) {
+            calibration = calibrations.get(key);
+        }
+        if (calibration != null) {
+            return calibration.asCached();
+        }
+        calibration = calibrate(evidenceVariables, evidenceOutcomes);
+        synchronized (calibrations) {
+            calibrations.put(key, calibration);
+        }
+        return calibration;
+    }
+
+    /**
+     * Reads the normalized distribution of a variable from the belief of its home clique.
+     *
+     * @param calibration the calibrated tree
+     * @param variable the id of the variable
+     * @param countCalibration true if the operations of the calibration are counted for this variable
+     * @return the result, the factor holds the normalized distribution of the variable
+     */
+    private FactorOperationResult posterior(Calibration calibration, int variable, boolean countCalibration) {
+        int multiplications = countCalibration ? calibration.multiplications : 0;
+        int additions = countCalibration ? calibration.additions : 0;
+
+        Factor marginal = calibration.beliefs[homeClique[variable]];
+        for (int v : marginal.getVariables()) { // sum out every other variable of the clique
+            if (v != variable) {
+                FactorOperationResult elimRes = marginal.eliminate(v);
+                additions += elimRes.getAdditions();
+                marginal = elimRes.getFactor();
+            }
+        }
+
+        double normalizationConstant = 0.0;
+        double[] distribution = new double[marginal.size()];
+        for (int i = 0; i < marginal.size(); i++) {
+            normalizationConstant += marginal.getValue(i);
+        }
+        additions += marginal.size() - 1; // (n-1) additions for n values
+        if (normalizationConstant == 0.0) {
+            throw new ArithmeticException("Normalization constant is zero, indicating no matching evidence.");
+        }
+        for (int i = 0; i < distribution.length; i++) {
+            distribution[i] = marginal.getValue(i) / normalizationConstant;
+        }
+        Factor posterior = Factor.wrap(marginal.getColumnNames(), marginal.getVariables(), marginal.getDomains(), distribution);
+        int maxFactorSize = Math.max(calibration.maxFactorSize, calibration.beliefs[homeClique[variable]].size());
+        return new FactorOperationResult(posterior, multiplications, additions, maxFactorSize);
+    }
+
+    /**
+     * Enters the evidence and calibrates the tree: messages are collected from the leaves to the root and then
+     * distributed back to the leaves, after which every clique holds its belief.
+     *
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the calibrated tree
+     */
+    private Calibration calibrate(int[] evidenceVariables, int[] evidenceOutcomes) {
+        Calibration calibration = new Calibration();
+        int count = cliques.size();
+        Factor[] entered = potentials.clone();
+        for (int e = 0; e < evidenceVariables.length; e++) { // multiply an indicator of the observed outcome into the home clique
+            int v = evidenceVariables[e];
+            double[] indicator = new double[symbols.getCardinality(v)];
+            indicator[evidenceOutcomes[e]] = 1.0;
+            Factor evidence = Factor.wrap(List.of(symbols.getVariableName(v)), new int[]{v}, List.of(symbols.getOutcomes(v)), indicator);
+            int c = homeClique[v];
+            entered[c] = multiply(calibration, entered[c], evidence);
+        }
+
+        Factor[] up = new Factor[count]; // message from every clique to its parent
+        for (int i = count - 1; i >= 0; i--) { // collect, leaves first
+            int c = preorder[i];
+            if (parent[c] == -1) {
+                continue;
+            }
+            Factor product = entered[c];
+            for (int n : adjacent.get(c)) {
+                if (n != parent[c]) {
+                    product = multiply(calibration, product, up[n]);
+                }
+            }
+            up[c] = sumOutAllBut(calibration, product, cliques.get(parent[c]));
+        }
+
+        Factor[] down = new Factor[count]; // message from the parent of every clique
+        for (int i = 0; i < count; i++) { // distribute, root first
+            int c = preorder[i];
+            for (int n : adjacent.get(c)) {
+                if (n == parent[c]) {
+                    continue;
+                }
+                Factor product = entered[c];
+                if (down[c] != null) {
+                    product = multiply(calibration, product, down[c]);
+                }
+                for (int k : adjacent.get(c)) {
+                    if (k != parent[c] && k != n) {
+                        product = multiply(calibration, product, up[k]);
+                    }
+                }
+                down[n] = sumOutAllBut(calibration, product, cliques.get(n));
+            }
+        }
+
+        calibration.beliefs = new Factor[count];
+        for (int c = 0; c < count; c++) { // belief = potential times all incoming messages
+            Factor belief = entered[c];
+            if (down[c] != null) {
+                belief = multiply(calibration, belief, down[c]);
+            }
+            for (int n : adjacent.get(c)) {
+                if (n != parent[c]) {
+                    belief = multiply(calibration, belief, up[n]);
+                }
+            }
+            calibration.beliefs[c] = belief;
+        }
+        return calibration;
+    }
+
+    /**
+     * Joins two factors and records the multiplications.
+     *
+     * @param calibration the calibration that counts the operations
+     * @param first the first factor
+     * @param second the second factor
+     * @return the joined factor
+     */
+    private static Factor multiply(Calibration calibration, Factor first, Factor second) {
+        FactorOperationResult joinRes = first.join(second);
+        calibration.multiplications += joinRes.getMultiplications();
+        calibration.maxFactorSize = Math.max(calibration.maxFactorSize, joinRes.getMaxFactorSize());
+        return joinRes.getFactor();
+    }
+
+    /**
+     * Sums out every variable of the factor that is not in the given set and records the additions.
+     *
+     * @param calibration the calibration that counts the operations
+     * @param factor the factor to marginalize
+     * @param keep the set of variable ids to keep
+     * @return the marginalized factor
+     */
+    private static Factor sumOutAllBut(Calibration calibration, Factor factor, BitSet keep) {
+        for (int v : factor.getVariables()) {
+            if (!keep.get(v)) {
+                FactorOperationResult elimRes = factor.eliminate(v);
+                calibration.additions += elimRes.getAdditions();
+                factor = elimRes.getFactor();
+            }
+        }
+        return factor;
+    }
+
+    /**
+     * Helper class to hold a calibrated tree and the operations its calibration took.
+     */
+    private static class Calibration {
+        Factor[] beliefs;
+        int multiplications;
+        int additions;
+        int maxFactorSize; // number of entries of the largest factor built during the calibration
+        boolean cached; // true for a calibration found in the cache, its operations were counted before
+
+        /**
+         * Returns a view of this calibration as found in the cache.
+         *
+         * @return the calibration marked as cached
+         */
+        Calibration asCached() {
+            Calibration view = new Calibration();
+            view.beliefs = beliefs;
+            view.multiplications = multiplications;
+            view.additions = additions;
+            view.maxFactorSize = maxFactorSize;
+            view.cached = true;
+            return view;
+        }
+    }
+}
@@ -0,0 +1,572 @@
+import java.util.*;
+
+/**
+ * Approximate inference by loopy belief propagation, for dense networks where exact elimination is too expensive.
+ * The CPTs of the nodes become the factors of a factor graph, and sum-product messages are passed between the factors
+ * and the variables until they stop changing. One propagation gives the marginals of all variables for its evidence,
+ * so the beliefs are cached per evidence and queries that share their evidence only read a marginal.
+ * <p>
+ * Messages are sent in residual order: the factor-to-variable message that would change the most is sent first, and
+ * only the messages that depend on it are recomputed. Sent messages are damped, mixing in a share of the old message,
+ * which keeps loops from oscillating. The propagation stops when no message would change by more than the tolerance,
+ * or after the iteration limit, where one iteration is as many messages as the graph has edges.
+ * <p>
+ * All messages of a propagation live in preallocated arrays of doubles, nothing is allocated while passing them.
+ * The reported counts are the multiplications and additions of computing the messages and the beliefs.
+ */
+public class LoopyBeliefPropagation implements InferenceEngine {
+    public static final double DEFAULT_DAMPING = 0.3;
+    public static final double DEFAULT_TOLERANCE = 1e-8;
+    public static final int DEFAULT_MAX_ITERATIONS = 200;
+
+    private static final int MAX_PROPAGATIONS = 64; // propagated beliefs kept in the cache
+
+    private final SymbolTable symbols;
+    private final double damping; // share of the old message kept when a message is sent
+    private final double tolerance; // largest change of a message that counts as converged
+    private final int maxIterations;
+    private final int[] cardinalities; // number of outcomes of every variable
+    private final int[][] scopes; // variables of every factor, the node of the CPT last
+    private final double[][] tables; // values of every factor, the last variable changes fastest
+    private final int[] firstEdge; // edge of the first variable of every factor, the edges of a factor are consecutive
+    private final int[] edgeFactor; // factor of every edge
+    private final int[] edgeVariable; // variable of every edge
+    private final int[] edgeOffset; // first entry of the messages of every edge in the message arrays
+    private final int[][] variableEdges; // edges of every variable
+    private final int messageLength; // entries of all messages of one direction
+    private final int maxScope; // variables of the largest factor
+    private final int maxTableSize; // entries of the largest factor
+    private final Map<EvidenceKey, Beliefs> propagations; // propagated beliefs, least recently used first
+
+    /**
+     * Builds the factor graph of a network with the default damping, tolerance and iteration limit.
+     *
+     * @param network the Bayesian network
+     */
+    public LoopyBeliefPropagation(BayesianNetwork network) {
+        this(network, DEFAULT_DAMPING, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * Builds the factor graph of a network: one factor per CPT and one edge between every factor and each of its
+     * variables.
+     *
+     * @param network the Bayesian network
+     * @param damping the share of the old message kept when a message is sent, in [0, 1)
+     * @param tolerance the largest change of a message that counts as converged
+     * @param maxIterations the most iterations of a propagation
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public LoopyBeliefPropagation(BayesianNetwork network, double damping, double tolerance, int maxIterations) {
+        if (damping < 0 || damping >= 1) {
+            throw new IllegalArgumentException("Damping must be in [0, 1), got " + damping);
+        }
+        if (tolerance <= 0 || maxIterations < 1) {
+            throw new IllegalArgumentException("Tolerance and iteration limit must be positive");
+        }
+        this.symbols = network.getSymbolTable();
+        this.damping = damping;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+
+        int variables = symbols.getVariableCount();
+        cardinalities = new int[variables];
+        for (int v = 0; v < variables; v++) {
+            cardinalities[v] = symbols.getCardinality(v);
+        }
+        List<Node> nodes = new ArrayList<>(network.getNodes());
+        nodes.sort(Comparator.comparingInt(Node::getId)); // factor ids don't depend on the map order
+        scopes = new int[nodes.size()][];
+        tables = new double[nodes.size()][];
+        firstEdge = new int[nodes.size()];
+        int edges = 0;
+        int widest = 0;
+        int largest = 0;
+        for (int f = 0; f < nodes.size(); f++) {
+            Factor factor = nodes.get(f).toFactor();
+            scopes[f] = factor.getVariables();
+            tables[f] = new double[factor.size()];
+            for (int i = 0; i < factor.size(); i++) { // dense copy, the CPT may be stored sparsely
+                tables[f][i] = factor.getValue(i);
+            }
+            firstEdge[f] = edges;
+            edges += scopes[f].length;
+            widest = Math.max(widest, scopes[f].length);
+            largest = Math.max(largest, factor.size());
+        }
+        maxScope = widest;
+        maxTableSize = largest;
+
+        edgeFactor = new int[edges];
+        edgeVariable = new int[edges];
+        edgeOffset = new int[edges];
+        List<List<Integer>> incident = new ArrayList<>();
+        for (int v = 0; v < variables; v++) {
+            incident.add(new ArrayList<>());
+        }
+        int offset = 0;
+        for (int f = 0; f < scopes.length; f++) {
+            for (int k = 0; k < scopes[f].length; k++) {
+                int e = firstEdge[f] + k;
+                edgeFactor[e] = f;
+                edgeVariable[e] = scopes[f][k];
+                edgeOffset[e] = offset;
+                offset += cardinalities[scopes[f][k]];
+                incident.get(scopes[f][k]).add(e);
+            }
+        }
+        messageLength = offset;
+        variableEdges = new int[variables][];
+        for (int v = 0; v < variables; v++) {
+            variableEdges[v] = incident.get(v).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        this.propagations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EvidenceKey, Beliefs> eldest) {
+                return size() > MAX_PROPAGATIONS;
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "loopy-belief-propagation";
+    }
+
+    /**
+     * Computes the approximate posterior probability of a query variable having a specific outcome given the
+     * evidence. The beliefs of the evidence are propagated once and reused by later queries.
+     *
+     * @param queryVariable the id of the query variable
+     * @param queryOutcome the id of the query outcome
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the result, the factor holds the normalized belief of the query variable and the counts are the ones
+     * of the propagation, or zero if it was cached
+     * @throws ArithmeticException if the beliefs contradict the evidence
+     */
+    @Override
+    public FactorOperationResult query(int queryVariable, int queryOutcome, int[] evidenceVariables, int[] evidenceOutcomes) {
+        EvidenceKey key = new EvidenceKey(evidenceVariables, evidenceOutcomes);
+        Beliefs beliefs;
+        boolean cached;
+        synchronized (propagations) {
+            beliefs = propagations.get(key);
+            cached = beliefs != null;
+        }
+        if (!cached) {
+            beliefs = propagate(evidenceVariables, evidenceOutcomes);
+            synchronized (propagations) {
+                propagations.put(key, beliefs);
+            }
+        }
+        double[] marginal = beliefs.getMarginal(queryVariable);
+        if (marginal == null) {
+            throw new ArithmeticException("Normalization constant is zero, indicating no matching evidence.");
+        }
+        Factor belief = Factor.wrap(List.of(symbols.getVariableName(queryVariable)), new int[]{queryVariable},
+                List.of(symbols.getOutcomes(queryVariable)), marginal.clone());
+        return new FactorOperationResult(belief, cached ? 0 : beliefs.getMultiplications(), cached ? 0 : beliefs.getAdditions(), maxTableSize);
+    }
+
+    /**
+     * Propagates the evidence and computes the beliefs of all variables.
+     *
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the beliefs of all variables
+     */
+    public Beliefs propagate(int[] evidenceVariables, int[] evidenceOutcomes) {
+        return new Propagation(evidenceVariables, evidenceOutcomes).run();
+    }
+
+    /**
+     * The beliefs of all variables for one evidence, and how the propagation went.
+     */
+    public static final class Beliefs {
+        private final double[][] marginals; // normalized belief of every variable, null if it contradicts the evidence
+        private final boolean converged;
+        private final int iterations;
+        private final double residual;
+        private final int multiplications;
+        private final int additions;
+
+        /**
+         * Constructs the beliefs of a propagation.
+         *
+         * @param marginals the normalized belief of every variable
+         * @param converged whether the messages converged
+         * @param iterations the iterations the propagation took
+         * @param residual the largest change a message would still make
+         * @param multiplications the number of multiplications of the propagation
+         * @param additions the number of additions of the propagation
+         */
+        Beliefs(double[][] marginals, boolean converged, int iterations, double residual, int multiplications, int additions) {
+            this.marginals = marginals;
+            this.converged = converged;
+            this.iterations = iterations;
+            this.residual = residual;
+            this.multiplications = multiplications;
+            this.additions = additions;
+        }
+
+        /**
+         * Returns the belief of a variable.
+         *
+         * @param variable the id of the variable
+         * @return the normalized belief indexed by outcome id, must not be modified, or null if the messages contradict
+         * the evidence
+         */
+        public double[] getMarginal(int variable) {
+            return marginals[variable];
+        }
+
+        /**
+         * Checks if the messages converged before the iteration limit.
+         *
+         * @return true if no message would change by more than the tolerance, false otherwise
+         */
+        public boolean isConverged() {
+            return converged;
+        }
+
+        /**
+         * Returns the number of iterations, the messages sent divided by the number of edges, rounded up.
+         *
+         * @return the number of iterations
+         */
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * Returns the largest change a message would still make.
+         *
+         * @return the final residual
+         */
+        public double getResidual() {
+            return residual;
+        }
+
+        /**
+         * Returns the number of multiplications of the propagation, saturating at {@link Integer#MAX_VALUE}.
+         *
+         * @return the number of multiplications
+         */
+        public int getMultiplications() {
+            return multiplications;
+        }
+
+        /**
+         * Returns the number of additions of the propagation, saturating at {@link Integer#MAX_VALUE}.
+         *
+         * @return the number of additions
+         */
+        public int getAdditions() {
+            return additions;
+        }
+    }
+
+    /**
+     * The messages of one propagation, in arrays allocated up front.
+     */
+    private final class Propagation {
+        private final int[] evidence; // observed outcome of every variable, -1 if not observed
+        private final double[] factorMessages; // sent factor-to-variable messages, by edge offset
+        private final double[] pending; // next factor-to-variable messages, sent in residual order
+        private final double[] variableMessages; // variable-to-factor messages, by edge offset
+        private final double[] residuals; // largest change sending the pending message of every edge would make
+        private final int[] heap; // edges in a binary max-heap by residual
+        private final int[] heapPosition; // position of every edge in the heap
+        private final int[] assignment; // scratch outcome of every variable of a factor
+        private boolean heapBuilt; // whether the heap holds all edges, it is built once all residuals are known
+        private long multiplications;
+        private long additions;
+
+        /**
+         * Allocates the messages of a propagation.
+         *
+         * @param evidenceVariables the ids of the evidence variables
+         * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+         */
+        Propagation(int[] evidenceVariables, int[] evidenceOutcomes) {
+            evidence = new int[cardinalities.length];
+            Arrays.fill(evidence, -1);
+            for (int e = 0; e < evidenceVariables.length; e++) {
+                evidence[evidenceVariables[e]] = evidenceOutcomes[e];
+            }
+            factorMessages = new double[messageLength];
+            pending = new double[messageLength];
+            variableMessages = new double[messageLength];
+            residuals = new double[edgeFactor.length];
+            heap = new int[edgeFactor.length];
+            heapPosition = new int[edgeFactor.length];
+            assignment = new int[maxScope];
+        }
+
+        /**
+         * Passes messages until they converge or the iteration limit is reached, then computes the beliefs.
+         *
+         * @return the beliefs of all variables
+         */
+        Beliefs run() {
+            int edges = edgeFactor.length;
+            for (int e = 0; e < edges; e++) { // uniform factor messages
+                int v = edgeVariable[e];
+                Arrays.fill(factorMessages, edgeOffset[e], edgeOffset[e] + cardinalities[v], 1.0 / cardinalities[v]);
+            }
+            for (int e = 0; e < edges; e++) { // so the variable messages only hold the evidence
+                updateVariableMessage(e);
+            }
+            for (int e = 0; e < edges; e++) {
+                updatePending(e);
+                heap[e] = e;
+                heapPosition[e] = e;
+            }
+            for (int i = edges / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            heapBuilt = true;
+
+            long sent = 0;
+            long limit = (long) maxIterations * edges;
+            while (edges > 0 && residuals[heap[0]] > tolerance && sent < limit) {
+                int e = heap[0];
+                send(e);
+                sent++;
+                int v = edgeVariable[e];
+                for (int g : variableEdges[v]) { // the messages of v to the other factors changed
+                    if (g == e) {
+                        continue;
+                    }
+                    updateVariableMessage(g);
+                    int f = edgeFactor[g];
+                    for (int h = firstEdge[f]; h < firstEdge[f] + scopes[f].length; h++) {
+                        if (h != g) { // so did the pending messages of those factors to their other variables
+                            updatePending(h);
+                        }
+                    }
+                }
+            }
+            double residual = edges > 0 ? residuals[heap[0]] : 0;
+
+            double[][] marginals = new double[cardinalities.length][];
+            for (int v = 0; v < cardinalities.length; v++) {
+                if (variableEdges[v].length > 0) {
+                    marginals[v] = belief(v);
+                }
+            }
+            int iterations = edges == 0 ? 0 : (int) ((sent + edges - 1) / edges);
+            return new Beliefs(marginals, residual <= tolerance, iterations, residual,
+                    (int) Math.min(multiplications, Integer.MAX_VALUE), (int) Math.min(additions, Integer.MAX_VALUE));
+        }
+
+        /**
+         * Sends the pending message of an edge, damped with the message sent before.
+         *
+         * @param e the edge
+         */
+        private void send(int e) {
+            int offset = edgeOffset[e];
+            int cardinality = cardinalities[edgeVariable[e]];
+            double total = 0;
+            for (int o = offset; o < offset + cardinality; o++) {
+                factorMessages[o] = (1 - damping) * pending[o] + damping * factorMessages[o];
+                total += factorMessages[o];
+            }
+            multiplications += 2L * cardinality;
+            additions += 2L * cardinality - 1;
+            normalize(factorMessages, offset, cardinality, total);
+            double change = 0; // with damping the pending message is still ahead of the sent one
+            for (int o = offset; o < offset + cardinality; o++) {
+                change = Math.max(change, Math.abs(pending[o] - factorMessages[o]));
+            }
+            setResidual(e, change);
+        }
+
+        /**
+         * Computes the message of a variable to the factor of an edge: its evidence times the messages of its other
+         * factors, normalized.
+         *
+         * @param e the edge
+         */
+        private void updateVariableMessage(int e) {
+            int v = edgeVariable[e];
+            int offset = edgeOffset[e];
+            int cardinality = cardinalities[v];
+            double total = 0;
+            for (int o = 0; o < cardinality; o++) {
+                double value = evidence[v] == -1 || evidence[v] == o ? 1 : 0;
+                for (int g : variableEdges[v]) {
+                    if (g != e) {
+                        value *= factorMessages[edgeOffset[g] + o];
+                    }
+                }
+                variableMessages[offset + o] = value;
+                total += value;
+            }
+            multiplications += (long) cardinality * Math.max(variableEdges[v].length - 2, 0);
+            additions += cardinality - 1;
+            normalize(variableMessages, offset, cardinality, total);
+        }
+
+        /**
+         * Computes the next message of the factor of an edge to its variable: the factor times the messages of its
+         * other variables, summed over them and normalized. Updates the residual of the edge.
+         *
+         * @param e the edge
+         */
+        private void updatePending(int e) {
+            int f = edgeFactor[e];
+            int k = e - firstEdge[f]; // position of the variable in the scope of the factor
+            int[] scope = scopes[f];
+            double[] table = tables[f];
+            int offset = edgeOffset[e];
+            int cardinality = cardinalities[scope[k]];
+            Arrays.fill(pending, offset, offset + cardinality, 0);
+            Arrays.fill(assignment, 0, scope.length, 0);
+            for (int i = 0; i < table.length; i++) {
+                double value = table[i];
+                for (int j = 0; j < scope.length && value != 0; j++) {
+                    if (j != k) {
+                        value *= variableMessages[edgeOffset[firstEdge[f] + j] + assignment[j]];
+                    }
+                }
+                pending[offset + assignment[k]] += value;
+                for (int j = scope.length - 1; j >= 0; j--) { // next assignment, the last variable changes fastest
+                    if (++assignment[j] < cardinalities[scope[j]]) {
+                        break;
+                    }
+                    assignment[j] = 0;
+                }
+            }
+            multiplications += (long) table.length * (scope.length - 1);
+            additions += table.length - cardinality;
+
+            double total = 0;
+            for (int o = offset; o < offset + cardinality; o++) {
+                total += pending[o];
+            }
+            additions += cardinality - 1;
+            normalize(pending, offset, cardinality, total);
+            double change = 0;
+            for (int o = offset; o < offset + cardinality; o++) {
+                change = Math.max(change, Math.abs(pending[o] - factorMessages[o]));
+            }
+            setResidual(e, change);
+        }
+
+        /**
+         * Computes the belief of a variable: its evidence times the messages of all its factors, normalized.
+         *
+         * @param v the id of the variable
+         * @return the belief, or null if it is zero everywhere
+         */
+        private double[] belief(int v) {
+            double[] belief = new double[cardinalities[v]];
+            double total = 0;
+            for (int o = 0; o < belief.length; o++) {
+                double value = evidence[v] == -1 || evidence[v] == o ? 1 : 0;
+                for (int g : variableEdges[v]) {
+                    value *= factorMessages[edgeOffset[g] + o];
+                }
+                belief[o] = value;
+                total += value;
+            }
+            multiplications += (long) belief.length * (variableEdges[v].length - 1);
+            additions += belief.length - 1;
+            if (total == 0) {
+                return null;
+            }
+            normalize(belief, 0, belief.length, total);
+            return belief;
+        }
+
+        /**
+         * Divides a message by its total, leaving a message that is zero everywhere as it is.
+         *
+         * @param values the message array
+         * @param offset the first entry of the message
+         * @param length the number of entries of the message
+         * @param total the sum of the entries
+         */
+        private void normalize(double[] values, int offset, int length, double total) {
+            if (total > 0) {
+                for (int o = offset; o < offset + length; o++) {
+                    values[o] /= total;
+                }
+            }
+        }
+
+        /**
+         * Changes the residual of an edge and restores the heap order.
+         *
+         * @param e the edge
+         * @param residual the new residual
+         */
+        private void setResidual(int e, double residual) {
+            double old = residuals[e];
+            residuals[e] = residual;
+            if (!heapBuilt) {
+                return;
+            }
+            if (residual > old) {
+                siftUp(heapPosition[e]);
+            } else {
+                siftDown(heapPosition[e]);
+            }
+        }
+
+        /**
+         * Moves an edge up the heap while its residual is larger than its parent's.
+         *
+         * @param i the position of the edge in the heap
+         */
+        private void siftUp(int i) {
+            int e = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (residuals[heap[parent]] >= residuals[e]) {
+                    break;
+                }
+                place(heap[parent], i);
+                i = parent;
+            }
+            place(e, i);
+        }
+
+        /**
+         * Moves an edge down the heap while its residual is smaller than one of its children's.
+         *
+         * @param i the position of the edge in the heap
+         */
+        private void siftDown(int i) {
+            int e = heap[i];
+            int size = heap.length;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && residuals[heap[child + 1]] > residuals[heap[child]]) {
+                    child++;
+                }
+                if (residuals[heap[child]] <= residuals[e]) {
+                    break;
+                }
+                place(heap[child], i);
+                i = child;
+            }
+            place(e, i);
+        }
+
+        /**
+         * Puts an edge at a position of the heap.
+         *
+         * @param e the edge
+         * @param i the position
+         */
+        private void place(int e, int i) {
+            heap[i] = e;
+            heapPosition[e] = i;
+        }
+    }
+}
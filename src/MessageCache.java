@@ -0,0 +1,258 @@
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the factors of earlier variable elimination runs so that a run that shares part of its computation with
+ * an earlier one reuses it instead of computing it again.
+ * <p>
+ * The initial factor of a node only depends on the evidence on its family, so it is kept per node and per that
+ * evidence, and the same instance is handed out every time. A bucket message only depends on the hidden variable and
+ * the factors of the bucket, so it is kept per variable and per the identities of the factors, in the order the
+ * bucket sees them. Since equal inputs are the same instances, a message is found again exactly when nothing it
+ * depends on changed, and the reused factor and counts are the ones computing it again would give.
+ * <p>
+ * The cache is bounded by the memory of the factors it holds, counted like {@link CostEstimator} counts it: eight
+ * bytes for every entry of the dense table, whether the factor is stored sparsely or not. When a new factor takes the
+ * cache over its budget the least recently used factors and messages are dropped, a factor larger than the whole
+ * budget is not kept at all. All methods are thread safe.
+ */
+public class MessageCache {
+    public static final long DEFAULT_MAX_BYTES = 64L << 20; // 64 MiB
+
+    private final long maxBytes;
+    private final Map<Object, Object> entries = new LinkedHashMap<>(16, 0.75f, true); // factors and messages, least recently used first
+    private long storedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs an empty cache that holds up to {@value #DEFAULT_MAX_BYTES} bytes of factors.
+     */
+    public MessageCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxBytes the largest memory of the cached factors, in bytes
+     * @throws IllegalArgumentException if the budget is not positive
+     */
+    public MessageCache(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("A message cache needs a positive memory budget");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the factor of a node instantiated with the evidence, computing it only if the node has no factor for
+     * the evidence on its family yet.
+     *
+     * @param node the node
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @param factor computes the instantiated factor
+     * @return the instantiated factor, the same instance for the same evidence on the family
+     */
+    public Factor initialFactor(Node node, int[] evidenceVariables, int[] evidenceOutcomes, Supplier<Factor> factor) {
+        Set<Integer> family = new HashSet<>();
+        family.add(node.getId());
+        for (Node parent : node.getParents()) {
+            family.add(parent.getId());
+        }
+        List<Integer> relevant = new ArrayList<>(); // evidence pairs on the family
+        for (int e = 0; e < evidenceVariables.length; e++) {
+            if (family.contains(evidenceVariables[e])) {
+                relevant.add(e);
+            }
+        }
+        int[] variables = new int[relevant.size()];
+        int[] outcomes = new int[relevant.size()];
+        for (int i = 0; i < variables.length; i++) {
+            variables[i] = evidenceVariables[relevant.get(i)];
+            outcomes[i] = evidenceOutcomes[relevant.get(i)];
+        }
+        InitialKey key = new InitialKey(node.getId(), new EvidenceKey(variables, outcomes));
+        synchronized (this) {
+            Factor cached = (Factor) entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        Factor computed = factor.get();
+        synchronized (this) {
+            Factor cached = (Factor) entries.get(key); // another thread may have been faster
+            if (cached != null) {
+                return cached;
+            }
+            store(key, computed, bytes(computed));
+            return computed;
+        }
+    }
+
+    /**
+     * Returns the message of a bucket, computing it only if the bucket wasn't eliminated with the same factors yet.
+     *
+     * @param variable the id of the hidden variable of the bucket
+     * @param bucket the factors of the bucket, in the order they are joined
+     * @param message computes the message and its counts
+     * @return the message and its counts, the same instance for the same factors
+     */
+    public FactorOperationResult message(int variable, List<Factor> bucket, Supplier<FactorOperationResult> message) {
+        MessageKey key = new MessageKey(variable, bucket.toArray(new Factor[0]));
+        synchronized (this) {
+            FactorOperationResult cached = (FactorOperationResult) entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        FactorOperationResult computed = message.get();
+        synchronized (this) {
+            FactorOperationResult cached = (FactorOperationResult) entries.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            store(key, computed, bytes(computed.getFactor()));
+            return computed;
+        }
+    }
+
+    /**
+     * Returns the memory a factor is counted with.
+     *
+     * @param factor the factor
+     * @return the size of its dense table in bytes
+     */
+    private static long bytes(Factor factor) {
+        return (long) factor.size() * Double.BYTES;
+    }
+
+    /**
+     * Caches a factor or message and drops the least recently used entries until the cache fits its budget again.
+     * Must be called while holding the lock.
+     *
+     * @param key the key of the entry
+     * @param value the factor or message
+     * @param bytes the memory of the entry
+     */
+    private void store(Object key, Object value, long bytes) {
+        if (bytes > maxBytes) {
+            return; // would push out everything else and still not fit
+        }
+        entries.put(key, value);
+        storedBytes += bytes;
+        Iterator<Map.Entry<Object, Object>> eldest = entries.entrySet().iterator();
+        while (storedBytes > maxBytes) {
+            Object dropped = eldest.next().getValue();
+            eldest.remove();
+            storedBytes -= dropped instanceof Factor ? bytes((Factor) dropped) : bytes(((FactorOperationResult) dropped).getFactor());
+        }
+    }
+
+    /**
+     * Returns the number of factors and messages that were reused.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of factors and messages that had to be computed.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the memory of the cached factors and messages.
+     *
+     * @return the counted bytes, at most the budget of the cache
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Returns the memory budget of the cache.
+     *
+     * @return the largest memory of the cached factors, in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drops all remembered factors and messages.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        storedBytes = 0;
+    }
+
+    /**
+     * Key of an initial factor: the node and the evidence on its family.
+     */
+    private static final class InitialKey {
+        private final int node;
+        private final EvidenceKey evidence;
+
+        InitialKey(int node, EvidenceKey evidence) {
+            this.node = node;
+            this.evidence = evidence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof InitialKey && node == ((InitialKey) o).node && evidence.equals(((InitialKey) o).evidence);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * node + evidence.hashCode();
+        }
+    }
+
+    /**
+     * Key of a bucket message: the hidden variable and the identities of the factors of the bucket, in order.
+     */
+    private static final class MessageKey {
+        private final int variable;
+        private final Factor[] bucket;
+
+        MessageKey(int variable, Factor[] bucket) {
+            this.variable = variable;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MessageKey) || variable != ((MessageKey) o).variable || bucket.length != ((MessageKey) o).bucket.length) {
+                return false;
+            }
+            for (int i = 0; i < bucket.length; i++) {
+                if (bucket[i] != ((MessageKey) o).bucket[i]) { // the same instance, not just equal values
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = variable;
+            for (Factor factor : bucket) {
+                hash = 31 * hash + System.identityHashCode(factor);
+            }
+            return hash;
+        }
+    }
+}
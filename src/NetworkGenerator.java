@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Generates synthetic Bayesian networks and query workloads for scale testing.
+ * Every network and workload is determined by its parameters and seed, so benchmark and stress runs are repeatable.
+ * Variable i is named "X" + i with outcomes "s0".."s(k-1)", and every CPT row is a random positive distribution.
+ * <p>
+ * Run as {@code java NetworkGenerator --family=random|layered|grid|polytree --nodes=N --out=network.xml
+ * --input=input.txt [--in-degree=K] [--window=W] [--width=W] [--cardinality=K] [--queries=Q] [--bayes-ball=F]
+ * [--evidence=F] [--order=listed|auto] [--seed=S]}.
+ */
+public class NetworkGenerator {
+
+    /**
+     * Enumeration for the families of generated networks.
+     */
+    public enum Family {
+        RANDOM, // every node picks random parents among the nodes before it
+        LAYERED, // every node picks random parents in the layer above it
+        GRID, // every node has the node above it and the node left of it as parents
+        POLYTREE; // random tree with random edge directions, so there is at most one path between two nodes
+
+        /**
+         * Parses a family from its name on the command line, e.g. "layered".
+         *
+         * @param name the name of the family
+         * @return the family
+         */
+        public static Family fromName(String name) {
+            return Family.valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Generates a random DAG: every node picks up to {@code maxInDegree} distinct parents among the {@code window}
+     * nodes before it, or among all nodes before it if the window is 0. A window bounds the treewidth, so queries on
+     * large networks stay tractable.
+     *
+     * @param nodes the number of nodes
+     * @param maxInDegree the maximal number of parents of a node
+     * @param window the number of preceding nodes the parents are picked from, 0 for all of them
+     * @param cardinality the number of outcomes of every node
+     * @param seed the seed of the generator
+     * @return the frozen network
+     */
+    public static BayesianNetwork randomDag(int nodes, int maxInDegree, int window, int cardinality, long seed) {
+        Random random = new Random(seed);
+        int[][] parents = new int[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            int first = window > 0 ? Math.max(0, i - window) : 0;
+            parents[i] = pick(first, i, random.nextInt(maxInDegree + 1), random);
+        }
+        return build(parents, cardinality, random);
+    }
+
+    /**
+     * Generates a layered network: the nodes are split into layers of {@code width} nodes and every node below the
+     * first layer picks between 1 and {@code maxInDegree} parents in the layer above it.
+     *
+     * @param nodes the number of nodes
+     * @param width the number of nodes of every layer, the last layer may be smaller
+     * @param maxInDegree the maximal number of parents of a node
+     * @param cardinality the number of outcomes of every node
+     * @param seed the seed of the generator
+     * @return the frozen network
+     */
+    public static BayesianNetwork layered(int nodes, int width, int maxInDegree, int cardinality, long seed) {
+        Random random = new Random(seed);
+        int[][] parents = new int[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            int layer = i / width;
+            if (layer == 0) {
+                parents[i] = new int[0];
+            } else {
+                int count = 1 + random.nextInt(Math.min(maxInDegree, width));
+                parents[i] = pick((layer - 1) * width, layer * width, count, random);
+            }
+        }
+        return build(parents, cardinality, random);
+    }
+
+    /**
+     * Generates a grid: the nodes fill rows of {@code width} nodes and every node has the node above it and the node
+     * left of it as parents.
+     *
+     * @param nodes the number of nodes
+     * @param width the number of nodes of every row, the last row may be shorter
+     * @param cardinality the number of outcomes of every node
+     * @param seed the seed of the generator
+     * @return the frozen network
+     */
+    public static BayesianNetwork grid(int nodes, int width, int cardinality, long seed) {
+        Random random = new Random(seed);
+        int[][] parents = new int[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            List<Integer> adjacent = new ArrayList<>();
+            if (i >= width) {
+                adjacent.add(i - width); // above
+            }
+            if (i % width > 0) {
+                adjacent.add(i - 1); // left
+            }
+            parents[i] = adjacent.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return build(parents, cardinality, random);
+    }
+
+    /**
+     * Generates a polytree: every node is connected to a random node before it, and the edge points either way.
+     *
+     * @param nodes the number of nodes
+     * @param cardinality the number of outcomes of every node
+     * @param seed the seed of the generator
+     * @return the frozen network
+     */
+    public static BayesianNetwork polytree(int nodes, int cardinality, long seed) {
+        Random random = new Random(seed);
+        List<List<Integer>> parentLists = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            parentLists.add(new ArrayList<>());
+        }
+        for (int i = 1; i < nodes; i++) {
+            int other = random.nextInt(i);
+            if (random.nextBoolean()) {
+                parentLists.get(i).add(other);
+            } else {
+                parentLists.get(other).add(i);
+            }
+        }
+        int[][] parents = new int[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            parents[i] = parentLists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return build(parents, cardinality, random);
+    }
+
+    /**
+     * Generates query lines in the input format.
+     * Elimination queries observe every other variable with probability {@code evidenceDensity}, but at least one, and
+     * eliminate the remaining variables in a random order or with {@code auto}. Bayes-Ball queries observe variables
+     * with the same density, possibly none.
+     *
+     * @param network the network
+     * @param count the number of queries
+     * @param bayesBallShare the share of Bayes-Ball queries, between 0 and 1
+     * @param evidenceDensity the probability that a variable is observed, between 0 and 1
+     * @param autoOrder true to let the planner order the hidden variables, false to list them
+     * @param seed the seed of the generator
+     * @return the query lines
+     */
+    public static List<String> queries(BayesianNetwork network, int count, double bayesBallShare, double evidenceDensity,
+                                       boolean autoOrder, long seed) {
+        Random random = new Random(seed);
+        SymbolTable symbols = network.getSymbolTable();
+        int variables = symbols.getVariableCount();
+        if (variables < 2) {
+            throw new IllegalArgumentException("Queries need at least two variables");
+        }
+        List<String> lines = new ArrayList<>(count);
+        for (int q = 0; q < count; q++) {
+            List<Integer> order = new ArrayList<>();
+            for (int v = 0; v < variables; v++) {
+                order.add(v);
+            }
+            Collections.shuffle(order, random);
+            boolean bayesBall = random.nextDouble() < bayesBallShare;
+            int first = bayesBall ? 2 : 1; // variables before it are the queried ones
+            List<Integer> evidence = new ArrayList<>();
+            List<Integer> hidden = new ArrayList<>();
+            for (int i = first; i < variables; i++) {
+                (random.nextDouble() < evidenceDensity ? evidence : hidden).add(order.get(i));
+            }
+            if (!bayesBall && evidence.isEmpty()) { // elimination queries need evidence
+                evidence.add(hidden.remove(random.nextInt(hidden.size())));
+            }
+
+            StringBuilder line = new StringBuilder();
+            if (bayesBall) {
+                line.append(symbols.getVariableName(order.get(0))).append("-").append(symbols.getVariableName(order.get(1))).append("|");
+            } else {
+                line.append("P(").append(assignment(symbols, order.get(0), random)).append("|");
+            }
+            for (int e = 0; e < evidence.size(); e++) {
+                line.append(e > 0 ? "," : "").append(assignment(symbols, evidence.get(e), random));
+            }
+            if (!bayesBall) {
+                line.append(") ");
+                if (autoOrder) {
+                    line.append(Query.AUTO_ORDER);
+                } else {
+                    for (int h = 0; h < hidden.size(); h++) {
+                        line.append(h > 0 ? "-" : "").append(symbols.getVariableName(hidden.get(h)));
+                    }
+                }
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Generates a network and a query workload from the command line options, see the class comment.
+     *
+     * @param args the command line arguments
+     * @throws IOException if a file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (!parts[0].startsWith("--") || parts.length < 2) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value");
+            }
+            options.put(parts[0].substring(2), parts[1]);
+        }
+        Family family = Family.fromName(options.getOrDefault("family", "random"));
+        int nodes = Integer.parseInt(require(options, "nodes"));
+        int inDegree = Integer.parseInt(options.getOrDefault("in-degree", "3"));
+        int cardinality = Integer.parseInt(options.getOrDefault("cardinality", "2"));
+        int width = Integer.parseInt(options.getOrDefault("width", Integer.toString(Math.max(1, (int) Math.sqrt(nodes)))));
+        int window = Integer.parseInt(options.getOrDefault("window", "0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        String out = require(options, "out");
+        if (nodes < 2 || cardinality < 2 || width < 1 || inDegree < 0 || window < 0) {
+            throw new IllegalArgumentException("Invalid network parameters");
+        }
+
+        BayesianNetwork network;
+        switch (family) {
+            case LAYERED:
+                network = layered(nodes, width, inDegree, cardinality, seed);
+                break;
+            case GRID:
+                network = grid(nodes, width, cardinality, seed);
+                break;
+            case POLYTREE:
+                network = polytree(nodes, cardinality, seed);
+                break;
+            default:
+                network = randomDag(nodes, inDegree, window, cardinality, seed);
+        }
+        XmlBifWriter.write(network, Paths.get(out));
+
+        String input = options.get("input");
+        if (input != null) {
+            int count = Integer.parseInt(options.getOrDefault("queries", "100"));
+            double bayesBall = Double.parseDouble(options.getOrDefault("bayes-ball", "0.25"));
+            double evidence = Double.parseDouble(options.getOrDefault("evidence", "0.1"));
+            boolean autoOrder = options.getOrDefault("order", "auto").equals("auto");
+            List<String> lines = new ArrayList<>();
+            lines.add(out); // the network path, relative to the directory Ex1 runs in
+            lines.addAll(queries(network, count, bayesBall, evidence, autoOrder, seed + 1)); // own stream, so the count doesn't change the network
+            Files.write(Paths.get(input), lines, StandardCharsets.UTF_8);
+        }
+        System.out.println("Generated " + family.name().toLowerCase() + " network with " + nodes + " nodes to " + out);
+    }
+
+    /**
+     * Picks distinct random ids in a range, in increasing order.
+     *
+     * @param from the first id of the range
+     * @param to the end of the range, exclusive
+     * @param count the number of ids to pick, at most the size of the range
+     * @param random the generator
+     * @return the picked ids
+     */
+    private static int[] pick(int from, int to, int count, Random random) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int id = from; id < to; id++) {
+            candidates.add(id);
+        }
+        Collections.shuffle(candidates, random);
+        int[] picked = new int[Math.min(count, candidates.size())];
+        for (int i = 0; i < picked.length; i++) {
+            picked[i] = candidates.get(i);
+        }
+        Arrays.sort(picked);
+        return picked;
+    }
+
+    /**
+     * Builds a frozen network with random CPTs from the parent ids of every node.
+     *
+     * @param parents the parent ids of every node
+     * @param cardinality the number of outcomes of every node
+     * @param random the generator
+     * @return the frozen network
+     */
+    private static BayesianNetwork build(int[][] parents, int cardinality, Random random) {
+        List<String> names = new ArrayList<>();
+        List<String> outcomes = new ArrayList<>();
+        for (int o = 0; o < cardinality; o++) {
+            outcomes.add("s" + o);
+        }
+        List<List<String>> outcomeLists = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < parents.length; i++) {
+            Node node = new Node(i, "X" + i);
+            for (String outcome : outcomes) {
+                node.addOutcome(outcome);
+            }
+            names.add(node.getName());
+            outcomeLists.add(outcomes);
+            nodes.add(node);
+        }
+        for (int i = 0; i < parents.length; i++) {
+            Node node = nodes.get(i);
+            int rows = 1;
+            for (int parent : parents[i]) {
+                node.addParent(nodes.get(parent));
+                nodes.get(parent).addChild(node);
+                rows = Math.multiplyExact(rows, cardinality);
+            }
+            double[] probabilities = new double[Math.multiplyExact(rows, cardinality)];
+            for (int row = 0; row < rows; row++) {
+                double sum = 0;
+                for (int o = 0; o < cardinality; o++) {
+                    probabilities[row * cardinality + o] = 0.05 + random.nextDouble(); // no zeros, so all evidence is possible
+                    sum += probabilities[row * cardinality + o];
+                }
+                for (int o = 0; o < cardinality; o++) {
+                    probabilities[row * cardinality + o] /= sum;
+                }
+            }
+            node.setProbabilities(probabilities);
+        }
+        return new BayesianNetwork(nodes, new SymbolTable(names, outcomeLists));
+    }
+
+    /**
+     * Formats a random assignment of a variable.
+     *
+     * @param symbols the symbol table
+     * @param variable the id of the variable
+     * @param random the generator
+     * @return the assignment, e.g. "X3=s1"
+     */
+    private static String assignment(SymbolTable symbols, int variable, Random random) {
+        return symbols.getVariableName(variable) + "=" + symbols.getOutcomeName(variable, random.nextInt(symbols.getCardinality(variable)));
+    }
+
+    /**
+     * Returns a required option.
+     *
+     * @param options the parsed options
+     * @param name the name of the option
+     * @return the value of the option
+     */
+    private static String require(Map<String, String> options, String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing option --" + name);
+        }
+        return value;
+    }
+}
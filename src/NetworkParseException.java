@@ -0,0 +1,67 @@
+import java.io.IOException;
+
+/**
+ * Signals that a network file is malformed, with the position of the problem in the file.
+ */
+public class NetworkParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String source;
+    private final int line;
+    private final int column;
+
+    /**
+     * Constructs a parse exception.
+     *
+     * @param source the name of the parsed file
+     * @param line the line of the problem, or -1 if unknown
+     * @param column the column of the problem, or -1 if unknown
+     * @param message the description of the problem
+     */
+    public NetworkParseException(String source, int line, int column, String message) {
+        this(source, line, column, message, null);
+    }
+
+    /**
+     * Constructs a parse exception caused by another exception.
+     *
+     * @param source the name of the parsed file
+     * @param line the line of the problem, or -1 if unknown
+     * @param column the column of the problem, or -1 if unknown
+     * @param message the description of the problem
+     * @param cause the cause of the problem
+     */
+    public NetworkParseException(String source, int line, int column, String message, Throwable cause) {
+        super(source + (line > 0 ? ":" + line + (column > 0 ? ":" + column : "") : "") + ": " + message, cause);
+        this.source = source;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Returns the name of the parsed file.
+     *
+     * @return the name of the file
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the line of the problem.
+     *
+     * @return the line, or -1 if unknown
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the column of the problem.
+     *
+     * @return the column, or -1 if unknown
+     */
+    public int getColumn() {
+        return column;
+    }
+}
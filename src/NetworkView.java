@@ -0,0 +1,206 @@
+import java.util.*;
+
+/**
+ * Lightweight per-query view of a shared Bayesian network.
+ * The view masks nodes out with a bitset over their ids and reads the nodes and CPTs of the shared network without
+ * copying them, so pruning a query costs one bitset instead of a copy of the whole network.
+ */
+public class NetworkView {
+    private final BayesianNetwork network;
+    private final BitSet active; // ids of the nodes that are part of the view
+
+    /**
+     * Constructs a view that contains every node of the network.
+     *
+     * @param network the shared Bayesian network
+     */
+    public NetworkView(BayesianNetwork network) {
+        this.network = network;
+        this.active = new BitSet(network.getSymbolTable().getVariableCount());
+        for (Node node : network.getNodes()) {
+            active.set(node.getId());
+        }
+    }
+
+    /**
+     * Returns the shared network of the view.
+     *
+     * @return the Bayesian network
+     */
+    public BayesianNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Returns the symbol table of the shared network.
+     *
+     * @return the symbol table
+     */
+    public SymbolTable getSymbolTable() {
+        return network.getSymbolTable();
+    }
+
+    /**
+     * Checks if a node is part of the view.
+     *
+     * @param id the id of the node
+     * @return true if the node is not masked out, false otherwise
+     */
+    public boolean contains(int id) {
+        return active.get(id);
+    }
+
+    /**
+     * Retrieves a node of the view by its id.
+     *
+     * @param id the id of the node
+     * @return the node, or null if it is masked out
+     */
+    public Node getNode(int id) {
+        return active.get(id) ? network.getNode(id) : null;
+    }
+
+    /**
+     * Returns the nodes of the view, ordered by id.
+     *
+     * @return the nodes that are not masked out
+     */
+    public List<Node> getNodes() {
+        List<Node> nodes = new ArrayList<>(active.cardinality());
+        for (int id = active.nextSetBit(0); id >= 0; id = active.nextSetBit(id + 1)) {
+            nodes.add(network.getNode(id));
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the ids of the nodes of the view.
+     *
+     * @return a copy of the set of node ids
+     */
+    public BitSet getActiveNodes() {
+        return (BitSet) active.clone();
+    }
+
+    /**
+     * Returns the number of nodes of the view, without copying the set of ids.
+     *
+     * @return the number of nodes that are not masked out
+     */
+    public int activeCount() {
+        return active.cardinality();
+    }
+
+    /**
+     * Checks if the view still contains every node of the network.
+     *
+     * @return true if no node is masked out, false otherwise
+     */
+    public boolean isComplete() {
+        return active.cardinality() == network.getNodes().size();
+    }
+
+    /**
+     * Masks out the nodes that are irrelevant to the query.
+     * A hidden node is irrelevant if it is a leaf or if it is independent of the query variable given the evidence,
+     * in which case the subtree rooted at it is masked out. Nodes with the query or evidence variables in their subtree
+     * are kept, as masking them out would drop the factors of the observed variables.
+     * The independent nodes are found with one traversal per direction instead of two checks per hidden node. Masking
+     * out a barren subtree only blocks paths, so the set found before stays valid but may miss nodes that became
+     * independent: the traversals are repeated only for a node that is neither a leaf nor already known independent.
+     *
+     * @param query the query to process
+     * @return a new Query object with irrelevant nodes removed
+     */
+    public Query removeIrrelevantNodes(Query query) {
+        SymbolTable symbols = getSymbolTable();
+        Query newQuery = new Query(query);
+        int queryVariable = symbols.getVariableId(query.getQueryVariable());
+        BitSet evidence = query.getEvidenceSet(symbols);
+        BitSet observed = (BitSet) evidence.clone(); // nodes that must stay in the view
+        observed.set(queryVariable);
+        BitSet independent = null; // hidden nodes known to be independent of the query variable, null before the first traversal
+        boolean stale = true; // whether subtrees were masked out since the traversal, which may make more nodes independent
+        for (int h : query.getHiddenVariableIds(symbols)) {
+            if (!contains(h)) { // already masked out together with another subtree
+                newQuery.removeHiddenVariable(symbols.getVariableName(h));
+                continue;
+            }
+            boolean isLeaf = isLeafNode(h); // leaf nodes that are not in the query are irrelevant
+            if (!isLeaf && stale && (independent == null || !independent.get(h))) { // only a fresh traversal can tell
+                independent = BayesBall.dSeparatedFrom(this, queryVariable, evidence); // independent hidden nodes are irrelevant
+                independent.and(BayesBall.dSeparatedTo(this, queryVariable, evidence)); // check both directions
+                stale = false;
+            }
+            if ((isLeaf || independent.get(h)) && !subtreeContains(h, observed)) { // if node is irrelevant
+                removeSubtree(h); // mask out the subtree rooted at the node
+                newQuery.removeHiddenVariable(symbols.getVariableName(h)); // remove the node from the list of hidden variables
+                stale = true; // masking out nodes may block paths of the ball, which only adds independent nodes
+            }
+        }
+        for (int h : newQuery.getHiddenVariableIds(symbols)) { // kept nodes may have been masked out with a later subtree
+            if (!contains(h)) {
+                newQuery.removeHiddenVariable(symbols.getVariableName(h));
+            }
+        }
+        return newQuery;
+    }
+
+    /**
+     * Recursively masks out a subtree starting from the given root node.
+     *
+     * @param root the id of the root node of the subtree to mask out
+     */
+    private void removeSubtree(int root) {
+        Node curr = getNode(root);
+        if (curr == null) {
+            return; // already masked out together with another subtree
+        }
+
+        for (Node child : curr.getChildren()) {
+            removeSubtree(child.getId());
+        }
+        active.clear(root);
+    }
+
+    /**
+     * Checks if a subtree of the view contains one of the given nodes.
+     *
+     * @param root the id of the root node of the subtree
+     * @param nodes the ids of the nodes to look for
+     * @return true if the root or one of its descendants in the view is one of the nodes, false otherwise
+     */
+    private boolean subtreeContains(int root, BitSet nodes) {
+        BitSet seen = new BitSet();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            int id = stack.pop();
+            if (seen.get(id) || !contains(id)) {
+                continue;
+            }
+            if (nodes.get(id)) {
+                return true;
+            }
+            seen.set(id);
+            for (Node child : network.getNode(id).getChildren()) {
+                stack.push(child.getId());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a node is a leaf node of the network.
+     *
+     * @param id the id of the node
+     * @return true if the node is a leaf node, false otherwise
+     */
+    private boolean isLeafNode(int id) {
+        Node node = getNode(id);
+        if (node == null) {
+            return false;
+        }
+        return node.getChildren().isEmpty();
+    }
+}
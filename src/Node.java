@@ -7,11 +7,14 @@ import java.util.Map;
  * Represents a node in a Bayesian network.
  */
 public class Node {
+    private int id; // id of the node in the network's symbol table, -1 if not assigned yet
     private String name;
     private List<String> outcomes;
     private List<Node> parents;
     private List<Node> children;
-    private Map<List<String>, Double> cpt;
+    private double[] probabilities; // CPT values in row-major order, the node's own outcome changes fastest
+    private Map<List<String>, Double> cpt; // Lazily built view of the CPT keyed by assignments
+    private volatile Factor factor; // CPT as a factor, compacted once and copied by every toFactor() call, null until needed
 
     /**
      * Constructs a new Node with the given name.
@@ -19,24 +22,67 @@ public class Node {
      * @param name the name of the node
      */
     public Node(String name) {
+        this(-1, name);
+    }
+
+    /**
+     * Constructs a new Node with the given id and name.
+     *
+     * @param id the id of the node in the network's symbol table
+     * @param name the name of the node
+     */
+    public Node(int id, String name) {
+        this.id = id;
         this.name = name;
         this.outcomes = new ArrayList<>();
         this.parents = new ArrayList<>();
         this.children = new ArrayList<>();
-        this.cpt = new HashMap<>();
+        this.probabilities = new double[0];
     }
 
     /**
      * Constructs a copy of the given Node.
+     * The copy links to the same parent and child nodes as the original.
      *
      * @param node the node to copy
      */
     public Node(Node node) {
+        this.id = node.getId();
         this.name = node.getName();
         this.outcomes = new ArrayList<>(node.getOutcomes());
         this.parents = new ArrayList<>(node.getParents());
         this.children = new ArrayList<>(node.getChildren());
-        this.cpt = new HashMap<>(node.getCPT());
+        this.probabilities = node.probabilities; // never modified after generation, safe to share
+        this.factor = node.factor; // same names, ids and values
+    }
+
+    /**
+     * Replaces the parents and children of the node by the nodes with the same names, used after copying a network.
+     * Links to nodes that are not in the map are kept.
+     *
+     * @param nodes the nodes of the network by name
+     */
+    void relink(Map<String, Node> nodes) {
+        parents.replaceAll(parent -> nodes.getOrDefault(parent.getName(), parent));
+        children.replaceAll(child -> nodes.getOrDefault(child.getName(), child));
+    }
+
+    /**
+     * Returns the id of the node in the network's symbol table.
+     *
+     * @return the id of the node, or -1 if not assigned yet
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Assigns the id of the node, used when the symbol table of a hand-built network is created.
+     *
+     * @param id the id of the node
+     */
+    void setId(int id) {
+        this.id = id;
     }
 
     /**
@@ -55,6 +101,7 @@ public class Node {
      */
     public void addOutcome(String outcome) {
         this.outcomes.add(outcome);
+        this.factor = null;
     }
 
     /**
@@ -73,6 +120,7 @@ public class Node {
      */
     public void addParent(Node parent) {
         this.parents.add(parent);
+        this.factor = null;
     }
 
     /**
@@ -108,7 +156,40 @@ public class Node {
      * @param probabilities the list of probabilities for the CPT
      */
     public void generateCPT(List<Double> probabilities) {
-        this.cpt = createCPT(probabilities);
+        double[] values = new double[probabilities.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = probabilities.get(i);
+        }
+        generateCPT(values);
+    }
+
+    /**
+     * Generates the Conditional Probability Table (CPT) for the node using the given probabilities.
+     *
+     * @param probabilities the probabilities for the CPT in row-major order, the node's own outcome changes fastest
+     */
+    public void generateCPT(double[] probabilities) {
+        setProbabilities(probabilities.clone());
+    }
+
+    /**
+     * Returns the probabilities of the CPT without copying them.
+     *
+     * @return the probabilities for the CPT in row-major order, must not be modified
+     */
+    double[] getProbabilities() {
+        return probabilities;
+    }
+
+    /**
+     * Sets the probabilities of the CPT without copying them, for loaders that parse them into a fresh array.
+     *
+     * @param probabilities the probabilities for the CPT in row-major order, owned by the node from now on
+     */
+    void setProbabilities(double[] probabilities) {
+        this.probabilities = probabilities;
+        this.cpt = null;
+        this.factor = null;
     }
 
     /**
@@ -117,22 +198,46 @@ public class Node {
      * @return the CPT for the node
      */
     public Map<List<String>, Double> getCPT() {
+        if (cpt == null) {
+            cpt = createCPT(probabilities);
+        }
         return cpt;
     }
 
     /**
      * Converts the node to a factor representation.
+     * The factor is built and stored sparsely if mostly zero on the first call, later calls copy it without scanning the CPT.
      *
      * @return the factor representation of the node
      */
     public Factor toFactor() {
+        Factor built = factor;
+        if (built == null) { // built at most a few times when queries race, every copy is equal
+            built = buildFactor();
+            factor = built;
+        }
+        return built.copy();
+    }
+
+    /**
+     * Builds the factor of the CPT.
+     *
+     * @return the factor, sharing the probabilities unless it is stored sparsely
+     */
+    private Factor buildFactor() {
         List<String> columnNames = new ArrayList<>();
-        for (Node parent : parents) {
-            columnNames.add(parent.getName());
+        int[] variables = new int[parents.size() + 1];
+        List<List<String>> domains = new ArrayList<>();
+        for (int i = 0; i < parents.size(); i++) {
+            columnNames.add(parents.get(i).getName());
+            variables[i] = parents.get(i).getId();
+            domains.add(parents.get(i).getOutcomes());
         }
         columnNames.add(this.name);
+        variables[parents.size()] = this.id;
+        domains.add(this.outcomes);
 
-        return new Factor(columnNames, this.cpt);
+        return Factor.wrap(columnNames, variables, domains, this.probabilities); // the CPT layout is already the factor layout
     }
 
     /**
@@ -141,16 +246,16 @@ public class Node {
      * @param probabilities the list of probabilities
      * @return the created CPT
      */
-    private Map<List<String>, Double> createCPT(List<Double> probabilities) {
+    private Map<List<String>, Double> createCPT(double[] probabilities) {
         Map<List<String>, Double> result = new HashMap<>();
 
         // Calculate combination sizes once and store them
         int[] combinationSizes = calculateCombinationSizes();
 
         // Populate the CPT using the index formula
-        for (int i = 0; i < probabilities.size(); i++) {
+        for (int i = 0; i < probabilities.length; i++) {
             List<String> keys = generateCombinationFromIndex(i, combinationSizes);
-            result.put(keys, probabilities.get(i));
+            result.put(keys, probabilities[i]);
         }
 
         return result;
@@ -209,7 +314,7 @@ public class Node {
         }
         sb.append("\n");
         sb.append("CPT: \n");
-        for (Map.Entry<List<String>, Double> entry : cpt.entrySet()) {
+        for (Map.Entry<List<String>, Double> entry : getCPT().entrySet()) {
             sb.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
         }
         return sb.toString();
@@ -6,12 +6,28 @@ import java.util.AbstractMap.SimpleEntry;
  */
 public class Query {
 
+    /**
+     * Hidden variables part of an elimination query that asks for a planned elimination order.
+     */
+    public static final String AUTO_ORDER = "auto";
+
+    /**
+     * Hidden variables part of an elimination query that asks for an approximate answer by sampling.
+     */
+    public static final String SAMPLE = "sample";
+
+    /**
+     * Query part of an all-marginals query that asks for every variable that is not observed.
+     */
+    public static final String ALL_VARIABLES = "*";
+
     /**
      * Enumeration for the type of query.
      */
     public enum QueryType {
         BAYES_BALL,
-        ELIMINATION
+        ELIMINATION,
+        MARGINALS
     }
 
     private QueryType type;
@@ -19,6 +35,9 @@ public class Query {
     private String queryValue;
     private List<SimpleEntry<String, String>> evidence;
     private List<String> hiddenVariables;
+    private EliminationOrderPlanner.Heuristic orderHeuristic; // null when the hidden variables are eliminated in the given order
+    private ApproximateInference.Settings sampling; // null when the query is answered exactly
+    private List<String> marginalVariables; // variables of an all-marginals query, empty for every unobserved one
 
     /**
      * Constructs a Query from a query string.
@@ -32,6 +51,9 @@ public class Query {
         this.queryValue = parsedQuery.queryValue;
         this.evidence = parsedQuery.evidence;
         this.hiddenVariables = new ArrayList<>(parsedQuery.hiddenVariables); // Ensure mutable list
+        this.orderHeuristic = parsedQuery.orderHeuristic;
+        this.sampling = parsedQuery.sampling;
+        this.marginalVariables = parsedQuery.marginalVariables;
     }
     /**
      * Constructs a Query
@@ -41,14 +63,21 @@ public class Query {
      * @param queryValue the query value
      * @param evidence the list of evidence
      * @param hiddenVariables the list of hidden variables
+     * @param orderHeuristic the heuristic that orders the hidden variables, or null to keep the given order
+     * @param sampling the sampling settings, or null to answer the query exactly
+     * @param marginalVariables the variables of an all-marginals query, empty for every unobserved one
      */
 
-    private Query(QueryType type, String queryVariable, String queryValue, List<SimpleEntry<String, String>> evidence, List<String> hiddenVariables) {
+    private Query(QueryType type, String queryVariable, String queryValue, List<SimpleEntry<String, String>> evidence, List<String> hiddenVariables,
+                  EliminationOrderPlanner.Heuristic orderHeuristic, ApproximateInference.Settings sampling, List<String> marginalVariables) {
         this.type = type;
         this.queryVariable = queryVariable;
         this.queryValue = queryValue;
         this.evidence = evidence;
         this.hiddenVariables = hiddenVariables;
+        this.orderHeuristic = orderHeuristic;
+        this.sampling = sampling;
+        this.marginalVariables = marginalVariables;
     }
 
     /**
@@ -62,6 +91,26 @@ public class Query {
         this.queryValue = query.queryValue;
         this.evidence = new ArrayList<>(query.evidence);
         this.hiddenVariables = new ArrayList<>(query.hiddenVariables);
+        this.orderHeuristic = query.orderHeuristic;
+        this.sampling = query.sampling;
+        this.marginalVariables = new ArrayList<>(query.marginalVariables);
+    }
+
+    /**
+     * Constructs an elimination query from its parts instead of a query line, e.g. for evidence that changes between
+     * queries.
+     *
+     * @param queryVariable the query variable
+     * @param queryValue the query value
+     * @param evidence the list of evidence, may be empty
+     * @param hiddenVariables the hidden variables in elimination order, ignored when a heuristic is given
+     * @param orderHeuristic the heuristic that orders all hidden variables, or null to keep the given order
+     * @return the query
+     */
+    public static Query elimination(String queryVariable, String queryValue, List<SimpleEntry<String, String>> evidence,
+                                    List<String> hiddenVariables, EliminationOrderPlanner.Heuristic orderHeuristic) {
+        return new Query(QueryType.ELIMINATION, queryVariable, queryValue, new ArrayList<>(evidence),
+                new ArrayList<>(hiddenVariables), orderHeuristic, null, new ArrayList<>());
     }
 
     /**
@@ -71,7 +120,9 @@ public class Query {
      * @return the parsed Query object
      */
     private Query parseQuery(String queryString) {
-        if (queryString.startsWith("P(")) { // Variable elimination query
+        if (isMarginalsQuery(queryString)) { // All-marginals query
+            return parseMarginalsQuery(queryString);
+        } else if (queryString.startsWith("P(")) { // Variable elimination query
             return parseVariableEliminationQuery(queryString);
         } else { // Bayes Ball query
             return parseBayesBallQuery(queryString);
@@ -86,6 +137,8 @@ public class Query {
      */
     private Query parseVariableEliminationQuery(String query) {
         // Example query: P(Q=q|E1=e1, E2=e2, …, Ek=ek) H1-H2-…-Hj
+        // or with a planned order: P(Q=q|E1=e1, …, Ek=ek) auto[:min-degree|min-fill|weighted-min-fill]
+        // or approximately: P(Q=q|E1=e1, …, Ek=ek) sample[:lw|gibbs][:n=N][:ci=W][:seed=S][:burn-in=B]
         String[] parts = query.split("\\|");
         String[] queryPart = parts[0].substring(2).split("=");  // Remove "P(" and split by "="
         String queryVariable = queryPart[0];
@@ -102,11 +155,74 @@ public class Query {
             evidence.add(new SimpleEntry<>(evParts[0].trim(), evParts[1].trim()));
         }
 
-        List<String> hiddenVariables = evidenceAndHidden.length > 1
-                ? new ArrayList<>(Arrays.asList(evidenceAndHidden[1].split("-")))  // Ensure mutable list
-                : new ArrayList<>();
+        List<String> hiddenVariables = new ArrayList<>();
+        EliminationOrderPlanner.Heuristic orderHeuristic = null;
+        ApproximateInference.Settings sampling = null;
+        String hiddenString = evidenceAndHidden.length > 1 ? evidenceAndHidden[1].trim() : "";
+        if (hiddenString.equals(AUTO_ORDER) || hiddenString.startsWith(AUTO_ORDER + ":")) { // hidden variables are found and ordered later
+            orderHeuristic = hiddenString.equals(AUTO_ORDER)
+                    ? EliminationOrderPlanner.Heuristic.MIN_FILL
+                    : EliminationOrderPlanner.Heuristic.fromName(hiddenString.substring(AUTO_ORDER.length() + 1));
+        } else if (hiddenString.equals(SAMPLE) || hiddenString.startsWith(SAMPLE + ":")) { // every other variable is sampled
+            sampling = ApproximateInference.Settings.parse(hiddenString.substring(SAMPLE.length()));
+        } else if (!hiddenString.isEmpty()) {
+            hiddenVariables.addAll(Arrays.asList(hiddenString.split("-")));  // Ensure mutable list
+        }
+
+        return new Query(QueryType.ELIMINATION, queryVariable, queryValue, evidence, hiddenVariables, orderHeuristic, sampling, new ArrayList<>());
+    }
+
+    /**
+     * Checks if a query string asks for the distributions of variables instead of the probability of one outcome,
+     * i.e. its query part has no "=".
+     *
+     * @param query the query string
+     * @return true for an all-marginals query, false otherwise
+     */
+    private static boolean isMarginalsQuery(String query) {
+        if (!query.startsWith("P(")) {
+            return false;
+        }
+        int end = query.indexOf('|');
+        if (end == -1) {
+            end = query.indexOf(')');
+        }
+        return end != -1 && !query.substring(2, end).contains("=");
+    }
+
+    /**
+     * Parses an all-marginals query string. An order after the query is ignored, the query is answered in one pass.
+     *
+     * @param query the query string
+     * @return the parsed Query object
+     */
+    private Query parseMarginalsQuery(String query) {
+        // Example query: P(*|E1=e1, E2=e2, …, Ek=ek), or P(Q1,Q2,…,Qj|E1=e1, …, Ek=ek) for some variables only
+        // (evidence may be empty: P(*) or P(Q1,Q2))
+        int close = query.indexOf(')');
+        if (close == -1) {
+            throw new IllegalArgumentException("Missing ')' in query " + query);
+        }
+        String inside = query.substring(2, close);
+        int bar = inside.indexOf('|');
+        String variablesString = bar == -1 ? inside : inside.substring(0, bar);
+
+        List<String> marginalVariables = new ArrayList<>();
+        if (!variablesString.trim().equals(ALL_VARIABLES)) {
+            for (String variable : variablesString.split(",")) {
+                marginalVariables.add(variable.trim());
+            }
+        }
+
+        List<SimpleEntry<String, String>> evidence = new ArrayList<>();
+        if (bar != -1 && !inside.substring(bar + 1).trim().isEmpty()) {
+            for (String ev : inside.substring(bar + 1).split(",")) {
+                String[] evParts = ev.split("=");
+                evidence.add(new SimpleEntry<>(evParts[0].trim(), evParts[1].trim()));
+            }
+        }
 
-        return new Query(QueryType.ELIMINATION, queryVariable, queryValue, evidence, hiddenVariables);
+        return new Query(QueryType.MARGINALS, variablesString.trim(), null, evidence, new ArrayList<>(), null, null, marginalVariables);
     }
 
     /**
@@ -136,7 +252,7 @@ public class Query {
 
         List<String> hiddenVariables = new ArrayList<>(); // Bayes Ball query does not have hidden variables
 
-        return new Query(QueryType.BAYES_BALL, queryVariable, queryValue, evidence, hiddenVariables);
+        return new Query(QueryType.BAYES_BALL, queryVariable, queryValue, evidence, hiddenVariables, null, null, new ArrayList<>());
     }
 
     /**
@@ -206,6 +322,112 @@ public class Query {
         return hiddenVariables;
     }
 
+    /**
+     * Checks if the elimination order of the query is planned instead of given.
+     *
+     * @return true if the query asked for an "auto" order, false otherwise
+     */
+    public boolean isAutoOrder() {
+        return orderHeuristic != null;
+    }
+
+    /**
+     * Returns the heuristic that plans the elimination order.
+     *
+     * @return the heuristic, or null if the hidden variables are eliminated in the given order
+     */
+    public EliminationOrderPlanner.Heuristic getOrderHeuristic() {
+        return orderHeuristic;
+    }
+
+    /**
+     * Checks if the query is answered approximately by sampling instead of exactly.
+     *
+     * @return true if the query asked for "sample", false otherwise
+     */
+    public boolean isSampled() {
+        return sampling != null;
+    }
+
+    /**
+     * Returns the sampling settings of the query.
+     *
+     * @return the settings, or null if the query is answered exactly
+     */
+    public ApproximateInference.Settings getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Returns the variables of an all-marginals query.
+     *
+     * @return the variables, empty when every variable that is not observed is asked for
+     */
+    public List<String> getMarginalVariables() {
+        return Collections.unmodifiableList(marginalVariables);
+    }
+
+    /**
+     * Returns a copy of the query with the given hidden variables.
+     *
+     * @param hiddenVariables the new list of hidden variables
+     * @return the new query
+     */
+    public Query withHiddenVariables(List<String> hiddenVariables) {
+        Query query = new Query(this);
+        query.hiddenVariables = new ArrayList<>(hiddenVariables);
+        return query;
+    }
+
+    /**
+     * Returns the ids of the evidence variables, in the order they appear in the query.
+     *
+     * @param symbols the symbol table of the network
+     * @return the ids of the evidence variables
+     */
+    public int[] getEvidenceVariableIds(SymbolTable symbols) {
+        int[] ids = new int[evidence.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = symbols.getVariableId(evidence.get(i).getKey());
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of the evidence outcomes, in the order they appear in the query.
+     *
+     * @param symbols the symbol table of the network
+     * @return the ids of the outcomes of the evidence variables
+     */
+    public int[] getEvidenceOutcomeIds(SymbolTable symbols) {
+        int[] ids = new int[evidence.size()];
+        for (int i = 0; i < ids.length; i++) {
+            int variable = symbols.getVariableId(evidence.get(i).getKey());
+            ids[i] = symbols.getOutcomeId(variable, evidence.get(i).getValue());
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the set of ids of the evidence variables.
+     *
+     * @param symbols the symbol table of the network
+     * @return the set of evidence variable ids
+     */
+    public BitSet getEvidenceSet(SymbolTable symbols) {
+        return symbols.getVariableSet(getEvidenceVariables());
+    }
+
+    /**
+     * Returns the ids of the hidden variables, in elimination order.
+     *
+     * @param symbols the symbol table of the network
+     * @return the ids of the hidden variables
+     */
+    public int[] getHiddenVariableIds(SymbolTable symbols) {
+        return symbols.getVariableIds(hiddenVariables);
+    }
+
     /**
      * Returns a string representation of the query.
      *
@@ -219,6 +441,9 @@ public class Query {
                 ", queryValue='" + queryValue + '\'' +
                 ", evidence=" + evidence +
                 ", hiddenVariables=" + hiddenVariables +
+                ", orderHeuristic=" + orderHeuristic +
+                ", sampling=" + sampling +
+                ", marginalVariables=" + marginalVariables +
                 '}';
     }
 }
@@ -0,0 +1,258 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measurements of answering one query: the time spent in every phase, how many nodes were pruned, the largest factor
+ * that was built, the bytes allocated on the thread that answered it and whether the result came from the result cache.
+ * <p>
+ * Allocations of fork-join tasks that help with a large query run on other threads and are not included.
+ */
+public class QueryMetrics {
+    public static final String CSV_HEADER = "query,type,parseNanos,pruneNanos,eliminationNanos,totalNanos,prunedNodes,maxFactorSize,allocatedBytes,resultCache";
+
+    /**
+     * Enumeration for what the result cache contributed to the answer of a query.
+     */
+    public enum CacheResult {
+        NONE, // the query was not looked up, the cache is off or doesn't hold this kind of query
+        HIT, // the result line was cached
+        MISS // the query was answered from scratch
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String query; // the query line
+    private String type = "unknown"; // kind of query and engine that answered it
+    private long parseNanos;
+    private long pruneNanos;
+    private long eliminationNanos;
+    private long totalNanos;
+    private int prunedNodes;
+    private int maxFactorSize;
+    private long allocatedBytes = -1; // -1 if the runtime can't measure it
+    private CacheResult cacheResult = CacheResult.NONE;
+    private long startNanos;
+    private long startAllocatedBytes;
+
+    /**
+     * Constructs empty metrics for a query.
+     *
+     * @param query the query line
+     */
+    public QueryMetrics(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Starts measuring the total time and the allocations of the current thread.
+     */
+    public void start() {
+        startAllocatedBytes = currentThreadAllocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops measuring the total time and the allocations of the current thread.
+     */
+    public void finish() {
+        totalNanos = System.nanoTime() - startNanos;
+        long allocated = currentThreadAllocatedBytes();
+        allocatedBytes = allocated < 0 || startAllocatedBytes < 0 ? -1 : allocated - startAllocatedBytes;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread.
+     *
+     * @return the allocated bytes, or -1 if the runtime doesn't support measuring them
+     */
+    private static long currentThreadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the query line.
+     *
+     * @return the query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the kind of the query and the engine that answered it, e.g. "variable-elimination".
+     *
+     * @return the type of the query
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Sets the kind of the query and the engine that answered it.
+     *
+     * @param type the type of the query
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the time spent parsing the query line.
+     *
+     * @return the parse time in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Sets the time spent parsing the query line.
+     *
+     * @param parseNanos the parse time in nanoseconds
+     */
+    public void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    /**
+     * Returns the time spent removing the irrelevant nodes.
+     *
+     * @return the pruning time in nanoseconds
+     */
+    public long getPruneNanos() {
+        return pruneNanos;
+    }
+
+    /**
+     * Sets the time spent removing the irrelevant nodes.
+     *
+     * @param pruneNanos the pruning time in nanoseconds
+     */
+    public void setPruneNanos(long pruneNanos) {
+        this.pruneNanos = pruneNanos;
+    }
+
+    /**
+     * Returns the time spent computing the answer: planning, eliminating and normalizing, or the Bayes Ball traversal.
+     *
+     * @return the elimination time in nanoseconds
+     */
+    public long getEliminationNanos() {
+        return eliminationNanos;
+    }
+
+    /**
+     * Sets the time spent computing the answer.
+     *
+     * @param eliminationNanos the elimination time in nanoseconds
+     */
+    public void setEliminationNanos(long eliminationNanos) {
+        this.eliminationNanos = eliminationNanos;
+    }
+
+    /**
+     * Returns the time between {@link #start()} and {@link #finish()}.
+     *
+     * @return the total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the number of nodes removed from the network before answering.
+     *
+     * @return the number of pruned nodes
+     */
+    public int getPrunedNodes() {
+        return prunedNodes;
+    }
+
+    /**
+     * Sets the number of nodes removed from the network before answering.
+     *
+     * @param prunedNodes the number of pruned nodes
+     */
+    public void setPrunedNodes(int prunedNodes) {
+        this.prunedNodes = prunedNodes;
+    }
+
+    /**
+     * Returns the number of entries of the largest factor built while answering.
+     *
+     * @return the size of the largest factor, 0 if no factor was built
+     */
+    public int getMaxFactorSize() {
+        return maxFactorSize;
+    }
+
+    /**
+     * Sets the number of entries of the largest factor built while answering.
+     *
+     * @param maxFactorSize the size of the largest factor
+     */
+    public void setMaxFactorSize(int maxFactorSize) {
+        this.maxFactorSize = maxFactorSize;
+    }
+
+    /**
+     * Returns what the result cache contributed to the answer.
+     *
+     * @return the cache result, {@link CacheResult#NONE} if the query was not looked up
+     */
+    public CacheResult getCacheResult() {
+        return cacheResult;
+    }
+
+    /**
+     * Sets what the result cache contributed to the answer.
+     *
+     * @param cacheResult the cache result
+     */
+    public void setCacheResult(CacheResult cacheResult) {
+        this.cacheResult = cacheResult;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the thread that answered the query.
+     *
+     * @return the allocated bytes, or -1 if the runtime can't measure them
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the metrics as a JSON object.
+     *
+     * @return the JSON object on one line
+     */
+    public String toJson() {
+        return "{\"query\":\"" + query.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+                + ",\"type\":\"" + type + "\""
+                + ",\"parseNanos\":" + parseNanos
+                + ",\"pruneNanos\":" + pruneNanos
+                + ",\"eliminationNanos\":" + eliminationNanos
+                + ",\"totalNanos\":" + totalNanos
+                + ",\"prunedNodes\":" + prunedNodes
+                + ",\"maxFactorSize\":" + maxFactorSize
+                + ",\"allocatedBytes\":" + allocatedBytes
+                + ",\"resultCache\":\"" + cacheResult.name().toLowerCase() + "\"}";
+    }
+
+    /**
+     * Returns the metrics as a CSV row in the order of {@link #CSV_HEADER}.
+     *
+     * @return the CSV row, the query is quoted since it contains commas
+     */
+    public String toCsv() {
+        return "\"" + query.replace("\"", "\"\"") + "\"," + type + "," + parseNanos + "," + pruneNanos + ","
+                + eliminationNanos + "," + totalNanos + "," + prunedNodes + "," + maxFactorSize + "," + allocatedBytes + "," + cacheResult.name().toLowerCase();
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.*;
+
+/**
+ * Remembers the result lines of answered queries so that a repeated query is answered without pruning or eliminating
+ * anything. Queries are keyed by a canonical form, so the same question written differently finds the same entry:
+ * <ul>
+ *     <li>Variable elimination: the query variable and value, the evidence sorted by variable and the elimination
+ *     order, which the counts of the result depend on. An "auto" order is keyed by its heuristic, since the planned
+ *     order only depends on the query and the evidence.</li>
+ *     <li>Bayes Ball: the two variables in sorted order, since d-separation is symmetric, and the sorted evidence
+ *     variables, since their values don't matter.</li>
+ * </ul>
+ * The cache holds a bounded number of entries and drops the least recently used ones. All methods are thread safe.
+ */
+public class QueryResultCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Map<String, String> entries; // result lines by canonical key, least recently used first
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxEntries the largest number of entries kept
+     */
+    public QueryResultCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("A result cache needs room for at least one entry");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the canonical key of the result line of a query.
+     *
+     * @param query the query
+     * @return the key, equal for queries that have the same result line
+     */
+    public static String resultKey(Query query) {
+        if (query.getType() == Query.QueryType.BAYES_BALL) {
+            String first = query.getQueryVariable();
+            String second = query.getQueryValue(); // the second node of a Bayes Ball query
+            if (first.compareTo(second) > 0) {
+                String swap = first;
+                first = second;
+                second = swap;
+            }
+            return "ball:" + first + "-" + second + "|" + String.join(",", new TreeSet<>(query.getEvidenceVariables()));
+        }
+        String order = query.isAutoOrder()
+                ? Query.AUTO_ORDER + ":" + query.getOrderHeuristic().name()
+                : String.join("-", query.getHiddenVariables());
+        return "result:" + eliminationKey(query) + " " + order;
+    }
+
+    /**
+     * Returns the query variable and value with the evidence sorted by variable.
+     *
+     * @param query the elimination query
+     * @return the canonical query part
+     */
+    private static String eliminationKey(Query query) {
+        Map<String, String> evidence = new TreeMap<>();
+        for (AbstractMap.SimpleEntry<String, String> entry : query.getEvidence()) {
+            evidence.put(entry.getKey(), entry.getValue());
+        }
+        StringJoiner key = new StringJoiner(",", "P(" + query.getQueryVariable() + "=" + query.getQueryValue() + "|", ")");
+        for (Map.Entry<String, String> entry : evidence.entrySet()) {
+            key.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns a cached entry and marks it as recently used.
+     *
+     * @param key the canonical key
+     * @return the cached result line, or null if there is none
+     */
+    public synchronized String get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Caches an entry, dropping the least recently used one when the cache is full.
+     *
+     * @param key the canonical key
+     * @param value the result line
+     */
+    public synchronized void put(String key, String value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Long-running query server that keeps its networks loaded, with their engines built and their caches warm, so every
+ * query only pays for answering it. Requests are the query lines of {@code input.txt}, read from standard input or
+ * from the connections of a Unix domain socket, and every request gets the response {@code output.txt} would hold:
+ * one line, or for an all-marginals query one line per variable followed by its {@code *,} summary line.
+ * <p>
+ * Requests are pipelined: a client may send many lines without waiting, they are answered concurrently on the
+ * executor of the run and the responses are streamed back in request order as soon as they are ready. The output is
+ * flushed whenever no response is pending, so a single request is answered right away.
+ * <p>
+ * Besides queries, a connection understands these lines:
+ * <ul>
+ *     <li>{@code @name <query>}: answers the query on the network loaded under the name instead of the default one.</li>
+ *     <li>{@code :load name path}: loads a network (XML or compiled) under a name, it becomes the default if it is
+ *     the first one. Responds {@code ok name}.</li>
+ *     <li>{@code :use name}: makes a loaded network the default of the connection. Responds {@code ok name}.</li>
+ *     <li>{@code :networks}: responds with the names of the loaded networks, separated by commas.</li>
+ *     <li>{@code :quit}: closes the connection after the pending responses.</li>
+ * </ul>
+ * A request that fails is answered with {@code error: <message>} and the connection stays open. Blank lines are
+ * ignored.
+ */
+public class QueryServer implements Closeable {
+    private final RunOptions options;
+    private final InferenceMetrics metrics;
+    private final ExecutorService executor;
+    private final Map<String, LoadedNetwork> networks = new ConcurrentHashMap<>(); // loaded networks by name
+    private volatile String defaultNetwork; // name of the first loaded network, null if none
+
+    /**
+     * Constructs a server without networks.
+     *
+     * @param options the options of the run, they select the engine and the executor and apply to every query
+     * @param metrics the collector the metrics of every query are recorded in
+     */
+    public QueryServer(RunOptions options, InferenceMetrics metrics) {
+        this.options = options;
+        this.metrics = metrics;
+        this.executor = options.newExecutor();
+    }
+
+    /**
+     * Loads a network and builds its engine, replacing a network loaded under the same name.
+     *
+     * @param name the name of the network in requests
+     * @param path the path of the XML or compiled network file
+     * @throws IOException if the network can't be read
+     */
+    public void load(String name, String path) throws IOException {
+        BayesianNetwork network = BayesianNetwork.load(path);
+        networks.put(name, new LoadedNetwork(network, Ex1.createEngine(network, options)));
+        synchronized (this) {
+            if (defaultNetwork == null) {
+                defaultNetwork = name;
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the loaded networks.
+     *
+     * @return the names in sorted order
+     */
+    public List<String> getNetworkNames() {
+        return new ArrayList<>(new TreeSet<>(networks.keySet()));
+    }
+
+    /**
+     * Answers the requests of one client until it quits or closes its input.
+     *
+     * @param in the requests, one per line
+     * @param out the responses, one per request line, in request order
+     * @throws IOException if the connection fails
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        BlockingQueue<Future<String>> pending = new LinkedBlockingQueue<>(); // responses in request order
+        Future<String> end = CompletableFuture.completedFuture(null); // marks the end of the requests
+        Thread responder = new Thread(() -> respond(pending, end, writer), "query-server-responder");
+        responder.start();
+        try {
+            String defaultName = defaultNetwork;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals(":quit")) {
+                    break;
+                }
+                if (line.startsWith(":use ")) { // only changes this connection, so it is done in order right here
+                    String name = line.substring(5).trim();
+                    pending.add(CompletableFuture.completedFuture(networks.containsKey(name) ? "ok " + name : "error: unknown network " + name));
+                    defaultName = networks.containsKey(name) ? name : defaultName;
+                    continue;
+                }
+                if (defaultName == null) { // the first network may have been loaded by another connection
+                    defaultName = defaultNetwork;
+                }
+                pending.add(submit(line, defaultName));
+            }
+        } finally {
+            pending.add(end);
+            try {
+                responder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts answering one request line. Commands and the network of a query are resolved before the next line is
+     * read, so a query sent after a {@code :load} sees the loaded network.
+     *
+     * @param line the request line
+     * @param defaultName the network of queries without a name, null if none is loaded
+     * @return the response
+     */
+    private Future<String> submit(String line, String defaultName) {
+        try {
+            if (line.startsWith(":load ")) {
+                String[] parts = line.substring(6).trim().split("\\s+", 2);
+                if (parts.length < 2) {
+                    return CompletableFuture.completedFuture("error: usage :load <name> <path>");
+                }
+                load(parts[0], parts[1]);
+                return CompletableFuture.completedFuture("ok " + parts[0]);
+            }
+            if (line.equals(":networks")) {
+                return CompletableFuture.completedFuture(String.join(",", getNetworkNames()));
+            }
+            if (line.startsWith(":")) {
+                return CompletableFuture.completedFuture("error: unknown command " + line.split("\\s+")[0]);
+            }
+            String name = defaultName;
+            String query = line;
+            if (line.startsWith("@")) { // @name <query>
+                int space = line.indexOf(' ');
+                name = space == -1 ? line.substring(1) : line.substring(1, space);
+                query = space == -1 ? "" : line.substring(space + 1).trim();
+            }
+            LoadedNetwork network = name == null ? null : networks.get(name);
+            if (network == null) {
+                return CompletableFuture.completedFuture(name == null ? "error: no network loaded" : "error: unknown network " + name);
+            }
+            String request = query;
+            return executor.submit(() -> answer(network, request));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.completedFuture(errorLine(e));
+        }
+    }
+
+    /**
+     * Answers one query on a loaded network and records its metrics, whether it is answered or fails.
+     *
+     * @param network the network
+     * @param query the query line
+     * @return the result line, or the error of the query
+     */
+    private String answer(LoadedNetwork network, String query) {
+        QueryMetrics queryMetrics = new QueryMetrics(query);
+        try {
+            return Ex1.processQuery(network.network, network.engine, query, options, queryMetrics);
+        } catch (IOException | RuntimeException e) {
+            return errorLine(e);
+        } finally {
+            metrics.record(queryMetrics);
+        }
+    }
+
+    /**
+     * Describes a failure as a response line.
+     *
+     * @param e the failure
+     * @return "error: " followed by the message of the failure, or its class name if it has no message
+     */
+    private static String errorLine(Throwable e) {
+        return "error: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+
+    /**
+     * Writes the responses in request order until the end marker, flushing whenever no response is pending.
+     *
+     * @param pending the responses
+     * @param end the end marker
+     * @param writer the output of the connection
+     */
+    private static void respond(BlockingQueue<Future<String>> pending, Future<String> end, Writer writer) {
+        try {
+            while (true) {
+                Future<String> response = pending.take();
+                if (response == end) {
+                    break;
+                }
+                String line;
+                try {
+                    line = response.get();
+                } catch (ExecutionException e) {
+                    line = errorLine(e.getCause()); // an Error that escaped answer()
+                }
+                writer.write(line + "\n");
+                if (pending.isEmpty()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) { // the client went away, its pending answers are dropped
+            System.err.println("Query server connection closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Listens on a Unix domain socket and serves every connection on its own thread, until the process ends.
+     * A stale socket file left by an earlier server is replaced, and the file is removed when the server stops.
+     *
+     * @param socket the path of the socket file
+     * @throws IOException if the socket can't be opened
+     */
+    public void listen(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.err.println("Query server listening on " + socket);
+            while (true) {
+                SocketChannel client = server.accept();
+                Thread connection = new Thread(() -> {
+                    try (client) {
+                        serve(new ChannelInput(client), new ChannelOutput(client));
+                    } catch (IOException e) {
+                        System.err.println("Query server connection failed: " + e.getMessage());
+                    }
+                }, "query-server-connection");
+                connection.setDaemon(true);
+                connection.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the executor, queries still running are interrupted.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the server of {@code --serve}: loads the networks of the {@code --network} options and serves standard
+     * input and output, or the Unix domain socket given with the option.
+     *
+     * @param options the options of the run
+     * @param metrics the collector of the query metrics
+     * @throws IOException if a network can't be loaded or the socket can't be opened
+     */
+    public static void run(RunOptions options, InferenceMetrics metrics) throws IOException {
+        try (QueryServer server = new QueryServer(options, metrics)) {
+            for (Map.Entry<String, String> network : options.getNetworks().entrySet()) {
+                server.load(network.getKey(), network.getValue());
+            }
+            if (options.getServeSocket() == null) {
+                PrintStream responses = System.out;
+                System.setOut(System.err); // anything else printed, like the --verbose output, must not mix with the responses
+                server.serve(System.in, responses);
+            } else {
+                server.listen(Paths.get(options.getServeSocket()));
+            }
+        }
+    }
+
+    /**
+     * Reads from a socket channel. Unlike the streams of {@code Channels}, which lock the whole channel, it lets the
+     * responses be written while a read is waiting for the next request.
+     */
+    private static final class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    /**
+     * Writes to a socket channel without locking out the reads, see {@link ChannelInput}.
+     */
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * A loaded network and the engine built for it.
+     */
+    private static final class LoadedNetwork {
+        private final BayesianNetwork network;
+        private final InferenceEngine engine; // null for variable elimination
+
+        LoadedNetwork(BayesianNetwork network, InferenceEngine engine) {
+            this.network = network;
+            this.engine = engine;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the command line options of a run of {@link Ex1}.
+ */
+public class RunOptions {
+    static final String USAGE = "Usage: java Ex1 [--engine=ve|jt|lbp] [--lbp-damping=D] [--lbp-tolerance=T] [--lbp-iterations=N]"
+            + " [--threads=N] [--executor=forkjoin|virtual] [--metrics=json|csv] [--jmx] [--verbose]"
+            + " [--memory-budget=SIZE[k|m|g]] [--over-budget=replan|reject] [--dry-run] [--result-cache[=ENTRIES]]"
+            + " [--serve[=SOCKET]] [--network=[NAME=]PATH]...\n"
+            + "       java Ex1 --compile <network.xml> <network" + CompiledNetwork.EXTENSION + ">";
+
+    /**
+     * Enumeration for the engine that answers elimination queries.
+     */
+    public enum Engine {
+        VARIABLE_ELIMINATION,
+        JUNCTION_TREE,
+        LOOPY_BELIEF_PROPAGATION
+    }
+
+    /**
+     * Enumeration for the executor that answers queries in parallel.
+     */
+    public enum ExecutorKind {
+        FORK_JOIN, // work-stealing pool with one worker per thread
+        VIRTUAL // one virtual thread per query, needs a Java runtime with virtual threads
+    }
+
+    private Engine engine = Engine.VARIABLE_ELIMINATION;
+    private int threads = 1;
+    private ExecutorKind executor = ExecutorKind.FORK_JOIN;
+    private boolean executorSet;
+    private String compileInput; // XML network to compile instead of answering queries, null if none
+    private String compileOutput;
+    private InferenceMetrics.Format metricsFormat; // format of the metrics file written next to the output, null if none
+    private boolean jmx;
+    private boolean verbose;
+    private long memoryBudget = -1; // largest estimated memory of an elimination query in bytes, -1 for no limit
+    private boolean replanOverBudget = true; // re-plan queries over the budget with a cheaper order before rejecting them
+    private boolean dryRun;
+    private double damping = LoopyBeliefPropagation.DEFAULT_DAMPING;
+    private double tolerance = LoopyBeliefPropagation.DEFAULT_TOLERANCE;
+    private int maxIterations = LoopyBeliefPropagation.DEFAULT_MAX_ITERATIONS;
+    private boolean serve;
+    private String serveSocket; // Unix domain socket of the query server, null to serve standard input and output
+    private final Map<String, String> networks = new LinkedHashMap<>(); // networks the query server loads, by name
+    private int resultCacheSize; // entries of the result cache of every network, 0 without a cache
+
+    /**
+     * Parses the command line options.
+     * Supported options: {@code --engine=ve|jt|lbp}, {@code --lbp-damping=D}, {@code --lbp-tolerance=T},
+     * {@code --lbp-iterations=N}, {@code --threads=N}, {@code --executor=forkjoin|virtual},
+     * {@code --metrics=json|csv}, {@code --jmx}, {@code --verbose}, {@code --memory-budget=SIZE[k|m|g]},
+     * {@code --over-budget=replan|reject}, {@code --dry-run}, {@code --serve[=SOCKET]}, {@code --network=[NAME=]PATH},
+     * {@code --result-cache[=ENTRIES]} and {@code --compile <network.xml> <network.bnc>}.
+     *
+     * @param args the command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    public static RunOptions parse(String[] args) {
+        RunOptions options = new RunOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--compile")) { // the only option with separate arguments
+                if (i + 2 >= args.length) {
+                    throw new IllegalArgumentException("Usage: --compile <network.xml> <network" + CompiledNetwork.EXTENSION + ">");
+                }
+                options.compileInput = args[++i];
+                options.compileOutput = args[++i];
+                continue;
+            }
+            String[] parts = arg.split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            try {
+                switch (parts[0]) {
+                    case "--engine":
+                        options.engine = parseEngine(value);
+                        break;
+                    case "--threads":
+                        options.threads = Integer.parseInt(value);
+                        if (options.threads < 1) {
+                            throw new IllegalArgumentException("Number of threads must be positive");
+                        }
+                        break;
+                    case "--executor":
+                        options.executor = parseExecutor(value);
+                        options.executorSet = true;
+                        break;
+                    case "--metrics":
+                        options.metricsFormat = parseMetricsFormat(value);
+                        break;
+                    case "--jmx":
+                        options.jmx = true;
+                        break;
+                    case "--verbose":
+                        options.verbose = true;
+                        break;
+                    case "--memory-budget":
+                        options.memoryBudget = parseSize(value);
+                        break;
+                    case "--over-budget":
+                        options.replanOverBudget = parseOverBudget(value);
+                        break;
+                    case "--dry-run":
+                        options.dryRun = true;
+                        break;
+                    case "--lbp-damping":
+                        options.damping = Double.parseDouble(value);
+                        if (options.damping < 0 || options.damping >= 1) {
+                            throw new IllegalArgumentException("Damping must be in [0, 1)");
+                        }
+                        break;
+                    case "--lbp-tolerance":
+                        options.tolerance = Double.parseDouble(value);
+                        if (options.tolerance <= 0) {
+                            throw new IllegalArgumentException("Tolerance must be positive");
+                        }
+                        break;
+                    case "--serve":
+                        options.serve = true;
+                        options.serveSocket = value.isEmpty() ? null : value;
+                        break;
+                    case "--network":
+                        options.addNetwork(value);
+                        break;
+                    case "--result-cache":
+                        options.resultCacheSize = value.isEmpty() ? QueryResultCache.DEFAULT_MAX_ENTRIES : Integer.parseInt(value);
+                        if (options.resultCacheSize < 1) {
+                            throw new IllegalArgumentException("Result cache size must be positive");
+                        }
+                        break;
+                    case "--lbp-iterations":
+                        options.maxIterations = Integer.parseInt(value);
+                        if (options.maxIterations < 1) {
+                            throw new IllegalArgumentException("Number of iterations must be positive");
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value " + value + " for " + parts[0]);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Parses the name of an engine.
+     *
+     * @param name the name of the engine
+     * @return the engine
+     */
+    private static Engine parseEngine(String name) {
+        switch (name) {
+            case "ve":
+                return Engine.VARIABLE_ELIMINATION;
+            case "jt":
+                return Engine.JUNCTION_TREE;
+            case "lbp":
+                return Engine.LOOPY_BELIEF_PROPAGATION;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + name + ", expected ve, jt or lbp");
+        }
+    }
+
+    /**
+     * Parses the name of an executor.
+     *
+     * @param name the name of the executor
+     * @return the executor kind
+     */
+    private static ExecutorKind parseExecutor(String name) {
+        switch (name) {
+            case "forkjoin":
+                return ExecutorKind.FORK_JOIN;
+            case "virtual":
+                return ExecutorKind.VIRTUAL;
+            default:
+                throw new IllegalArgumentException("Unknown executor " + name + ", expected forkjoin or virtual");
+        }
+    }
+
+    /**
+     * Parses the name of a metrics file format.
+     *
+     * @param name the name of the format
+     * @return the format
+     */
+    private static InferenceMetrics.Format parseMetricsFormat(String name) {
+        switch (name) {
+            case "json":
+                return InferenceMetrics.Format.JSON;
+            case "csv":
+                return InferenceMetrics.Format.CSV;
+            default:
+                throw new IllegalArgumentException("Unknown metrics format " + name + ", expected json or csv");
+        }
+    }
+
+    /**
+     * Parses a number of bytes with an optional binary suffix, e.g. "512m".
+     *
+     * @param text the size
+     * @return the number of bytes
+     */
+    private static long parseSize(String text) {
+        String digits = text.trim().toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("k") || digits.endsWith("m") || digits.endsWith("g")) {
+            unit = 1L << (10 * ("kmg".indexOf(digits.charAt(digits.length() - 1)) + 1));
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        long size;
+        try {
+            size = Math.multiplyExact(Long.parseLong(digits), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid memory budget " + text + ", expected bytes with an optional k, m or g suffix");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        return size;
+    }
+
+    /**
+     * Adds a network for the query server, named after its file when no name is given.
+     *
+     * @param value the network, "NAME=PATH" or "PATH"
+     */
+    private void addNetwork(String value) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Usage: --network=[NAME=]PATH");
+        }
+        String[] parts = value.split("=", 2);
+        String path = parts.length > 1 ? parts[1] : value;
+        String name = parts.length > 1 ? parts[0] : Paths.get(path).getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        networks.put(name, path);
+    }
+
+    /**
+     * Parses what to do with queries over the memory budget.
+     *
+     * @param name the name of the policy
+     * @return true to re-plan the queries, false to reject them
+     */
+    private static boolean parseOverBudget(String name) {
+        switch (name) {
+            case "replan":
+                return true;
+            case "reject":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown over-budget policy " + name + ", expected replan or reject");
+        }
+    }
+
+    /**
+     * Checks if the queries are answered in parallel, i.e. more than one thread or an executor was requested.
+     *
+     * @return true if the queries are answered in parallel, false otherwise
+     */
+    public boolean isParallel() {
+        return threads > 1 || executorSet;
+    }
+
+    /**
+     * Creates the executor that answers the queries in parallel.
+     *
+     * @return a new executor, to be shut down by the caller
+     * @throws IllegalStateException if virtual threads were requested but the runtime doesn't support them
+     */
+    public ExecutorService newExecutor() {
+        if (executor == ExecutorKind.VIRTUAL) {
+            try { // looked up by reflection so the project still compiles for runtimes without virtual threads
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads are not supported by this Java runtime", e);
+            }
+        }
+        return new ForkJoinPool(threads);
+    }
+
+    /**
+     * Returns the number of threads that answer the queries.
+     *
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Checks if a network should be compiled instead of answering queries.
+     *
+     * @return true if {@code --compile} was given, false otherwise
+     */
+    public boolean isCompile() {
+        return compileInput != null;
+    }
+
+    /**
+     * Returns the XML network to compile.
+     *
+     * @return the path to the XML file, or null if nothing is compiled
+     */
+    public String getCompileInput() {
+        return compileInput;
+    }
+
+    /**
+     * Returns the path of the compiled network.
+     *
+     * @return the path of the compiled file, or null if nothing is compiled
+     */
+    public String getCompileOutput() {
+        return compileOutput;
+    }
+
+    /**
+     * Returns the engine that answers elimination queries.
+     *
+     * @return the engine
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns the format of the per-query metrics file written next to the output.
+     *
+     * @return the format, or null if no metrics file is written
+     */
+    public InferenceMetrics.Format getMetricsFormat() {
+        return metricsFormat;
+    }
+
+    /**
+     * Checks if the query statistics are exposed over JMX.
+     *
+     * @return true if {@code --jmx} was given, false otherwise
+     */
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    /**
+     * Checks if the network and the final factors are printed to the standard output.
+     *
+     * @return true if {@code --verbose} was given, false otherwise
+     */
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * Returns the largest estimated memory an elimination query may need.
+     *
+     * @return the budget in bytes, or -1 if there is no limit
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Checks if queries over the memory budget are re-planned with a cheaper order before being rejected.
+     *
+     * @return true to re-plan, false to reject them right away
+     */
+    public boolean isReplanOverBudget() {
+        return replanOverBudget;
+    }
+
+    /**
+     * Checks if elimination queries are only estimated, reporting the predicted counts without computing them.
+     *
+     * @return true if {@code --dry-run} was given, false otherwise
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Returns the share of the old message that loopy belief propagation keeps when it sends a message.
+     *
+     * @return the damping, in [0, 1)
+     */
+    public double getDamping() {
+        return damping;
+    }
+
+    /**
+     * Returns the largest change of a message that loopy belief propagation counts as converged.
+     *
+     * @return the tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Returns the most iterations of a loopy belief propagation.
+     *
+     * @return the iteration limit
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Checks if the program runs as a query server instead of answering the queries of {@code input.txt}.
+     *
+     * @return true if {@code --serve} was given, false otherwise
+     */
+    public boolean isServe() {
+        return serve;
+    }
+
+    /**
+     * Returns the Unix domain socket the query server listens on.
+     *
+     * @return the path of the socket, or null to serve standard input and output
+     */
+    public String getServeSocket() {
+        return serveSocket;
+    }
+
+    /**
+     * Returns the networks the query server loads at start-up.
+     *
+     * @return the paths of the networks by name, in the order they were given
+     */
+    public Map<String, String> getNetworks() {
+        return Collections.unmodifiableMap(networks);
+    }
+
+    /**
+     * Returns the number of result lines the result cache of every network keeps.
+     *
+     * @return the number of entries, 0 if queries are not cached
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.*;
+
+/**
+ * Immutable table that assigns dense int ids to the variables of a Bayesian network and to the outcomes of every variable.
+ * Variables are numbered 0..n-1 and the outcomes of a variable 0..k-1 in the order they are declared,
+ * so the inference code can work with ints and only translate names at the parsing and output boundaries.
+ */
+public final class SymbolTable {
+    private final List<String> variables; // name of every variable id
+    private final Map<String, Integer> variableIds; // id of every variable name
+    private final List<List<String>> outcomes; // outcomes of every variable id
+    private final List<Map<String, Integer>> outcomeIds; // id of every outcome of every variable
+
+    /**
+     * Constructs a symbol table for the given variables.
+     *
+     * @param variables the names of the variables, the position of a name is its id
+     * @param outcomes the outcomes of every variable, the position of an outcome is its id
+     */
+    public SymbolTable(List<String> variables, List<List<String>> outcomes) {
+        if (variables.size() != outcomes.size()) {
+            throw new IllegalArgumentException("Every variable needs its outcomes");
+        }
+        this.variables = List.copyOf(variables);
+        this.variableIds = new HashMap<>();
+        this.outcomes = new ArrayList<>();
+        this.outcomeIds = new ArrayList<>();
+        for (int v = 0; v < variables.size(); v++) {
+            if (variableIds.put(variables.get(v), v) != null) {
+                throw new IllegalArgumentException("Variable " + variables.get(v) + " is declared twice");
+            }
+            List<String> variableOutcomes = List.copyOf(outcomes.get(v));
+            Map<String, Integer> ids = new HashMap<>();
+            for (int o = 0; o < variableOutcomes.size(); o++) {
+                if (ids.put(variableOutcomes.get(o), o) != null) {
+                    throw new IllegalArgumentException("Outcome " + variableOutcomes.get(o) + " of " + variables.get(v) + " is declared twice");
+                }
+            }
+            this.outcomes.add(variableOutcomes);
+            this.outcomeIds.add(ids);
+        }
+    }
+
+    /**
+     * Returns the number of variables in the table.
+     *
+     * @return the number of variables
+     */
+    public int getVariableCount() {
+        return variables.size();
+    }
+
+    /**
+     * Checks if the table contains a variable.
+     *
+     * @param name the name of the variable
+     * @return true if the variable is known, false otherwise
+     */
+    public boolean containsVariable(String name) {
+        return variableIds.containsKey(name);
+    }
+
+    /**
+     * Returns the id of a variable.
+     *
+     * @param name the name of the variable
+     * @return the id of the variable
+     * @throws IllegalArgumentException if the variable is unknown
+     */
+    public int getVariableId(String name) {
+        Integer id = variableIds.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("Variable " + name + " not found in the network.");
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name of a variable.
+     *
+     * @param variable the id of the variable
+     * @return the name of the variable
+     */
+    public String getVariableName(int variable) {
+        return variables.get(variable);
+    }
+
+    /**
+     * Returns the number of outcomes of a variable.
+     *
+     * @param variable the id of the variable
+     * @return the number of outcomes
+     */
+    public int getCardinality(int variable) {
+        return outcomes.get(variable).size();
+    }
+
+    /**
+     * Returns the outcomes of a variable, the position of an outcome is its id.
+     *
+     * @param variable the id of the variable
+     * @return the outcomes of the variable
+     */
+    public List<String> getOutcomes(int variable) {
+        return outcomes.get(variable);
+    }
+
+    /**
+     * Returns the id of an outcome of a variable.
+     *
+     * @param variable the id of the variable
+     * @param outcome the name of the outcome
+     * @return the id of the outcome
+     * @throws IllegalArgumentException if the outcome is unknown
+     */
+    public int getOutcomeId(int variable, String outcome) {
+        Integer id = outcomeIds.get(variable).get(outcome);
+        if (id == null) {
+            throw new IllegalArgumentException("Outcome " + outcome + " not found for " + variables.get(variable));
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name of an outcome of a variable.
+     *
+     * @param variable the id of the variable
+     * @param outcome the id of the outcome
+     * @return the name of the outcome
+     */
+    public String getOutcomeName(int variable, int outcome) {
+        return outcomes.get(variable).get(outcome);
+    }
+
+    /**
+     * Returns the ids of the given variables.
+     *
+     * @param names the names of the variables
+     * @return the ids of the variables, in the same order
+     */
+    public int[] getVariableIds(Collection<String> names) {
+        int[] ids = new int[names.size()];
+        int i = 0;
+        for (String name : names) {
+            ids[i++] = getVariableId(name);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the set of ids of the given variables.
+     *
+     * @param names the names of the variables
+     * @return the set of variable ids
+     */
+    public BitSet getVariableSet(Collection<String> names) {
+        BitSet set = new BitSet(variables.size());
+        for (String name : names) {
+            set.set(getVariableId(name));
+        }
+        return set;
+    }
+}
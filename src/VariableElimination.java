@@ -6,12 +6,24 @@ import java.util.AbstractMap.SimpleEntry;
  */
 public class VariableElimination {
     private List<Factor> factors;
+    private final MessageCache cache; // factors and messages of earlier runs, null if nothing is reused
 
     /**
      * Constructs a VariableElimination instance with an empty list of factors.
      */
     public VariableElimination() {
+        this(null);
+    }
+
+    /**
+     * Constructs a VariableElimination instance that reuses the instantiated factors and the bucket messages of earlier
+     * runs with the same cache, so a run only computes what its evidence changed.
+     *
+     * @param cache the factors and messages of earlier runs, null to compute everything
+     */
+    public VariableElimination(MessageCache cache) {
         this.factors = new ArrayList<>();
+        this.cache = cache;
     }
 
     /**
@@ -21,19 +33,58 @@ public class VariableElimination {
      * @param evidence the list of evidence variables and their values
      */
     public void initializeFactors(BayesianNetwork network, List<SimpleEntry<String, String>> evidence) {
-        for (Node node : network.getNodes()) {
-            Factor factor = node.toFactor();
-            for (SimpleEntry<String, String> e : evidence) { // instantiate evidence variables
-                if (factor.containsVariable(e.getKey())) {
-                    factor = factor.instantiate(e.getKey(), e.getValue());
-                }
-            }
+        SymbolTable symbols = network.getSymbolTable();
+        initializeFactors(network, evidenceVariables(symbols, evidence), evidenceOutcomes(symbols, evidence));
+    }
+
+    /**
+     * Initializes the factors of the Bayesian network by creating factors for each node and instantiating them with evidence.
+     *
+     * @param network the Bayesian network
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     */
+    public void initializeFactors(BayesianNetwork network, int[] evidenceVariables, int[] evidenceOutcomes) {
+        initializeFactors(new NetworkView(network), evidenceVariables, evidenceOutcomes);
+    }
+
+    /**
+     * Initializes the factors of the nodes of a view by creating factors for each node and instantiating them with evidence.
+     * The CPTs are read from the shared network without copying.
+     *
+     * @param view the view of the Bayesian network
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     */
+    public void initializeFactors(NetworkView view, int[] evidenceVariables, int[] evidenceOutcomes) {
+        for (Node node : view.getNodes()) {
+            Factor factor = cache == null
+                    ? instantiate(node, evidenceVariables, evidenceOutcomes)
+                    : cache.initialFactor(node, evidenceVariables, evidenceOutcomes, () -> instantiate(node, evidenceVariables, evidenceOutcomes));
             if(!factor.canBeDiscarded()) // don't add factors that can be discarded (contain one variable only)
                 factors.add(factor);
         }
         factors.sort(Comparator.naturalOrder()); // sort factors by their size
     }
 
+    /**
+     * Creates the factor of a node and instantiates it with the evidence on its family.
+     *
+     * @param node the node
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @return the instantiated factor
+     */
+    private static Factor instantiate(Node node, int[] evidenceVariables, int[] evidenceOutcomes) {
+        Factor factor = node.toFactor();
+        for (int e = 0; e < evidenceVariables.length; e++) { // instantiate evidence variables
+            if (factor.containsVariable(evidenceVariables[e])) {
+                factor = factor.instantiate(evidenceVariables[e], evidenceOutcomes[e]);
+            }
+        }
+        return factor;
+    }
+
     /**
      * Runs the variable elimination algorithm on the Bayesian network.
      *
@@ -43,55 +94,77 @@ public class VariableElimination {
      * @return the result of the variable elimination, including the final factor and the number of multiplications and additions performed
      */
     public FactorOperationResult runVariableElimination(BayesianNetwork network, List<SimpleEntry<String, String>> evidence, List<String> hiddenVariables) {
-        int multiplications = 0; // number of multiplications performed
-        int additions = 0; // number of additions performed
+        SymbolTable symbols = network.getSymbolTable();
+        return runVariableElimination(network, evidenceVariables(symbols, evidence), evidenceOutcomes(symbols, evidence),
+                symbols.getVariableIds(hiddenVariables));
+    }
 
-        initializeFactors(network, evidence); // initialize factors with evidence
+    /**
+     * Runs the variable elimination algorithm on the Bayesian network.
+     *
+     * @param network the Bayesian network
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @param hiddenVariables the ids of the hidden variables to eliminate, in elimination order
+     * @return the result of the variable elimination, including the final factor and the number of multiplications and additions performed
+     */
+    public FactorOperationResult runVariableElimination(BayesianNetwork network, int[] evidenceVariables, int[] evidenceOutcomes, int[] hiddenVariables) {
+        return runVariableElimination(new NetworkView(network), evidenceVariables, evidenceOutcomes, hiddenVariables);
+    }
 
-        for (int i = 0; i < hiddenVariables.size(); i++) { // iterate over hidden variables
-            String hidden = hiddenVariables.get(i);
-            int[] indexes = findFactorsWithVariable(hidden); // find two first factors that contain the hidden variable
-            if (indexes[0] == -1) { // if not found, return null
-                System.out.println("Didn't find factor with hidden value: " + hidden);
-                return null;
-            }
-            while (indexes[1] != -1) { // while there are still two factors that contain the hidden variable
-                Factor first = factors.get(indexes[0]);
-                Factor second = factors.get(indexes[1]);
-                FactorOperationResult joinRes = first.join(second); // join the two factors
-                factors.remove(first); // remove the factors from the list
-                factors.remove(second);
-                factors.add(joinRes.getFactor()); // add the joined factor to the list
-                factors.sort(Comparator.naturalOrder()); // sort the factors by their size
-                multiplications += joinRes.getMultiplications(); // join uses only multiplications
-                indexes = findFactorsWithVariable(hidden); // find the next two factors that contain the hidden variable
-            }
+    /**
+     * Runs the variable elimination algorithm on the nodes of a view of the Bayesian network.
+     *
+     * @param view the (pruned) view of the Bayesian network
+     * @param evidenceVariables the ids of the evidence variables
+     * @param evidenceOutcomes the ids of the outcomes of the evidence variables, in the same order
+     * @param hiddenVariables the ids of the hidden variables to eliminate, in elimination order
+     * @return the result of the variable elimination, including the final factor and the number of multiplications and additions performed
+     */
+    public FactorOperationResult runVariableElimination(NetworkView view, int[] evidenceVariables, int[] evidenceOutcomes, int[] hiddenVariables) {
+        initializeFactors(view, evidenceVariables, evidenceOutcomes); // initialize factors with evidence
 
-            // last factor that contains the specific hidden variable
-            Factor toElim = factors.get(indexes[0]);
-            FactorOperationResult elimRes = toElim.eliminate(hidden); // eliminate the hidden variable from the factor
-            additions += elimRes.getAdditions(); // elimination uses only additions
-            factors.remove(toElim); // remove the factor from the list
-            if (!elimRes.getFactor().canBeDiscarded()) { // dont add the factor if it can be discarded (contains one variable only)
-                factors.add(elimRes.getFactor()); // add the factor to the list
-                factors.sort(Comparator.naturalOrder()); // sort the factors by their size
-            }
+        // every factor goes to the bucket of its first hidden variable, independent buckets are eliminated in parallel
+        EliminationTree tree = new EliminationTree(factors, hiddenVariables, cache);
+        if (tree.getMissingVariable() != -1) { // if not found, return null
+            System.err.println("Didn't find factor with hidden value: " + view.getSymbolTable().getVariableName(tree.getMissingVariable()));
+            return null;
         }
+        FactorOperationResult finalResult = tree.run(); // the final factor and the number of multiplications and additions performed
+        factors.clear();
+        factors.add(finalResult.getFactor()); // the final factor is the only one left in the list
+        return finalResult;
+    }
 
-        while (factors.size() > 1) { // join the remaining factors
-            Factor first = factors.get(0);
-            Factor second = factors.get(1);
-            FactorOperationResult joinRes = first.join(second); // join the two factors
-            factors.remove(first);  // remove the factors from the list
-            factors.remove(second);
-            factors.add(joinRes.getFactor()); // add the joined factor to the list
-            factors.sort(Comparator.naturalOrder()); // sort the factors by their size
-            multiplications += joinRes.getMultiplications(); // join uses only multiplications
+    /**
+     * Returns the ids of the evidence variables.
+     *
+     * @param symbols the symbol table of the network
+     * @param evidence the list of evidence variables and their values
+     * @return the ids of the evidence variables
+     */
+    private static int[] evidenceVariables(SymbolTable symbols, List<SimpleEntry<String, String>> evidence) {
+        int[] ids = new int[evidence.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = symbols.getVariableId(evidence.get(i).getKey());
         }
-        Factor finalFactor = factors.get(0); // the final factor is the only one left in the list
-        FactorOperationResult finalResult = new FactorOperationResult(finalFactor, multiplications, additions); // return the final factor and the number of multiplications and additions performed
+        return ids;
+    }
 
-        return finalResult;
+    /**
+     * Returns the ids of the outcomes of the evidence variables.
+     *
+     * @param symbols the symbol table of the network
+     * @param evidence the list of evidence variables and their values
+     * @return the ids of the outcomes, in the same order as the evidence
+     */
+    private static int[] evidenceOutcomes(SymbolTable symbols, List<SimpleEntry<String, String>> evidence) {
+        int[] ids = new int[evidence.size()];
+        for (int i = 0; i < ids.length; i++) {
+            int variable = symbols.getVariableId(evidence.get(i).getKey());
+            ids[i] = symbols.getOutcomeId(variable, evidence.get(i).getValue());
+        }
+        return ids;
     }
 
     /**
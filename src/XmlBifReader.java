@@ -0,0 +1,372 @@
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Streaming loader for Bayesian networks in the XMLBIF format.
+ * The file is read once with StAX, without building a DOM tree, and the probability tables are parsed straight from
+ * the character events into primitive arrays. DEFINITION elements may appear before or after the VARIABLE elements
+ * they refer to, as they are only resolved once the whole file was read.
+ * Any problem is reported as a {@link NetworkParseException} with its position in the file.
+ */
+public class XmlBifReader {
+    private final String source; // name of the parsed file, used in error messages
+    private final XMLStreamReader reader;
+    private final List<String> names = new ArrayList<>(); // name of every variable, in declaration order
+    private final Set<String> declared = new HashSet<>(); // names of the variables read so far
+    private final List<List<String>> outcomes = new ArrayList<>(); // outcomes of every variable
+    private final List<int[]> variableLocations = new ArrayList<>(); // line and column of every variable
+    private final List<Definition> definitions = new ArrayList<>(); // definitions in document order
+    private final StringBuilder token = new StringBuilder(); // number that is being parsed, may span several events
+    private double[] buffer = new double[64]; // numbers of the table that is being parsed
+
+    /**
+     * Constructs a reader over an XML stream.
+     *
+     * @param reader the XML stream
+     * @param source the name of the parsed file
+     */
+    private XmlBifReader(XMLStreamReader reader, String source) {
+        this.reader = reader;
+        this.source = source;
+    }
+
+    /**
+     * Loads a Bayesian network from an XMLBIF file.
+     *
+     * @param filename the path to the XML file
+     * @return the frozen Bayesian network
+     * @throws NetworkParseException if the file is not a valid network
+     * @throws IOException if the file can't be read
+     */
+    public static BayesianNetwork read(String filename) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(filename)))) {
+            return read(in, filename);
+        }
+    }
+
+    /**
+     * Loads a Bayesian network from an XMLBIF stream.
+     *
+     * @param in the stream to read, left open
+     * @param source the name of the stream, used in error messages
+     * @return the frozen Bayesian network
+     * @throws NetworkParseException if the stream is not a valid network
+     * @throws IOException if the stream can't be read
+     */
+    public static BayesianNetwork read(InputStream in, String source) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false); // network files never need entities
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(in);
+            XmlBifReader parser = new XmlBifReader(reader, source);
+            parser.readDocument();
+            return parser.buildNetwork();
+        } catch (XMLStreamException e) {
+            Location location = e.getLocation();
+            throw new NetworkParseException(source, location != null ? location.getLineNumber() : -1,
+                    location != null ? location.getColumnNumber() : -1, "Malformed XML: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the variables and definitions of the document in a single pass.
+     *
+     * @throws XMLStreamException if the XML is malformed
+     * @throws NetworkParseException if an element is invalid
+     */
+    private void readDocument() throws XMLStreamException, NetworkParseException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "VARIABLE":
+                        readVariable();
+                        break;
+                    case "DEFINITION":
+                    case "PROBABILITY": // name of the element in XMLBIF 0.2
+                        readDefinition(reader.getLocalName());
+                        break;
+                    default: // NETWORK, BIF, PROPERTY and other elements carry nothing we need
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a VARIABLE element, the reader is positioned at its start.
+     *
+     * @throws XMLStreamException if the XML is malformed
+     * @throws NetworkParseException if the variable is invalid
+     */
+    private void readVariable() throws XMLStreamException, NetworkParseException {
+        int[] location = location();
+        String name = null;
+        List<String> variableOutcomes = new ArrayList<>();
+        while (!endOf("VARIABLE")) {
+            if (reader.isStartElement()) {
+                if (reader.getLocalName().equals("NAME")) {
+                    name = reader.getElementText().trim();
+                } else if (reader.getLocalName().equals("OUTCOME")) {
+                    variableOutcomes.add(reader.getElementText().trim());
+                }
+            }
+        }
+        if (name == null || name.isEmpty()) {
+            throw error(location, "VARIABLE without a NAME");
+        }
+        if (!declared.add(name)) {
+            throw error(location, "Variable " + name + " is declared twice");
+        }
+        if (variableOutcomes.isEmpty()) {
+            throw error(location, "Variable " + name + " has no OUTCOME");
+        }
+        if (new HashSet<>(variableOutcomes).size() != variableOutcomes.size()) {
+            throw error(location, "Variable " + name + " declares an outcome twice");
+        }
+        names.add(name);
+        outcomes.add(variableOutcomes);
+        variableLocations.add(location);
+    }
+
+    /**
+     * Reads a DEFINITION element, the reader is positioned at its start.
+     *
+     * @param element the name of the element
+     * @throws XMLStreamException if the XML is malformed
+     * @throws NetworkParseException if the definition is invalid
+     */
+    private void readDefinition(String element) throws XMLStreamException, NetworkParseException {
+        Definition definition = new Definition(location());
+        while (!endOf(element)) {
+            if (reader.isStartElement()) {
+                if (reader.getLocalName().equals("FOR")) {
+                    definition.name = reader.getElementText().trim();
+                } else if (reader.getLocalName().equals("GIVEN")) {
+                    definition.parents.add(reader.getElementText().trim());
+                } else if (reader.getLocalName().equals("TABLE")) {
+                    definition.table = readTable();
+                }
+            }
+        }
+        if (definition.name == null) {
+            throw error(definition.location, element + " without a FOR");
+        }
+        if (definition.table == null) {
+            throw error(definition.location, "Definition of " + definition.name + " has no TABLE");
+        }
+        definitions.add(definition);
+    }
+
+    /**
+     * Reads the numbers of a TABLE element straight from its character events, the reader is positioned at its start.
+     *
+     * @return the numbers of the table
+     * @throws XMLStreamException if the XML is malformed
+     * @throws NetworkParseException if the table is invalid
+     */
+    private double[] readTable() throws XMLStreamException, NetworkParseException {
+        int[] location = location();
+        int count = 0;
+        token.setLength(0);
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                throw error(location(), "Unexpected element " + reader.getLocalName() + " in TABLE");
+            }
+            if (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA
+                    && event != XMLStreamConstants.SPACE) {
+                continue; // comments and processing instructions
+            }
+            char[] chars = reader.getTextCharacters();
+            int end = reader.getTextStart() + reader.getTextLength();
+            for (int i = reader.getTextStart(); i < end; i++) {
+                if (Character.isWhitespace(chars[i])) {
+                    count = addNumber(count, location);
+                } else {
+                    token.append(chars[i]);
+                }
+            }
+        }
+        count = addNumber(count, location);
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Parses the pending token, if there is one, and adds it to the buffer.
+     *
+     * @param count the number of numbers in the buffer
+     * @param location the line and column of the table
+     * @return the new number of numbers in the buffer
+     * @throws NetworkParseException if the token is not a valid probability
+     */
+    private int addNumber(int count, int[] location) throws NetworkParseException {
+        if (token.length() == 0) {
+            return count;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(token.toString());
+        } catch (NumberFormatException e) {
+            throw error(location, "Invalid probability '" + token + "' in TABLE");
+        }
+        if (!(value >= 0) || Double.isInfinite(value)) {
+            throw error(location, "Invalid probability '" + token + "' in TABLE");
+        }
+        token.setLength(0);
+        if (count == buffer.length) {
+            buffer = Arrays.copyOf(buffer, count * 2);
+        }
+        buffer[count] = value;
+        return count + 1;
+    }
+
+    /**
+     * Resolves the definitions against the declared variables and builds the network.
+     *
+     * @return the frozen Bayesian network
+     * @throws NetworkParseException if a definition doesn't match the variables
+     */
+    private BayesianNetwork buildNetwork() throws NetworkParseException {
+        SymbolTable symbols = new SymbolTable(names, outcomes);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            Node node = new Node(i, names.get(i)); // variables are numbered in declaration order
+            for (String outcome : outcomes.get(i)) {
+                node.addOutcome(outcome);
+            }
+            nodes.add(node);
+        }
+
+        boolean[] defined = new boolean[nodes.size()];
+        for (Definition definition : definitions) {
+            if (!symbols.containsVariable(definition.name)) {
+                throw error(definition.location, "Node " + definition.name + " not found in the network.");
+            }
+            int id = symbols.getVariableId(definition.name);
+            if (defined[id]) {
+                throw error(definition.location, "Node " + definition.name + " is defined twice");
+            }
+            defined[id] = true;
+            Node node = nodes.get(id);
+            long size = node.getOutcomes().size();
+            for (String parentName : definition.parents) {
+                if (!symbols.containsVariable(parentName)) {
+                    throw error(definition.location, "Parent node " + parentName + " not found in the network.");
+                }
+                Node parent = nodes.get(symbols.getVariableId(parentName));
+                node.addParent(parent);
+                parent.addChild(node);
+                size *= parent.getOutcomes().size();
+            }
+            if (definition.table.length != size) {
+                throw error(definition.location, "Table of " + definition.name + " has " + definition.table.length
+                        + " probabilities, expected " + size);
+            }
+            node.setProbabilities(definition.table);
+        }
+        for (int i = 0; i < defined.length; i++) {
+            if (!defined[i]) {
+                throw error(variableLocations.get(i), "Variable " + names.get(i) + " has no DEFINITION");
+            }
+        }
+        checkAcyclic(nodes);
+        return new BayesianNetwork(nodes, symbols);
+    }
+
+    /**
+     * Fails if the parents of the nodes form a cycle, by removing nodes without remaining parents until none is left.
+     *
+     * @param nodes the nodes of the network, indexed by id
+     * @throws NetworkParseException if the network has a cycle
+     */
+    private void checkAcyclic(List<Node> nodes) throws NetworkParseException {
+        int[] remainingParents = new int[nodes.size()];
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node node : nodes) {
+            remainingParents[node.getId()] = node.getParents().size();
+            if (remainingParents[node.getId()] == 0) {
+                ready.add(node);
+            }
+        }
+        int removed = 0;
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            removed++;
+            for (Node child : node.getChildren()) {
+                if (--remainingParents[child.getId()] == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        if (removed < nodes.size()) {
+            for (int i = 0; i < remainingParents.length; i++) {
+                if (remainingParents[i] > 0) {
+                    throw error(variableLocations.get(i), "The network has a cycle through " + names.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the reader and checks if it reached the end of an element.
+     *
+     * @param element the name of the element
+     * @return true if the reader is at the end of the element, false otherwise
+     * @throws XMLStreamException if the XML is malformed
+     */
+    private boolean endOf(String element) throws XMLStreamException {
+        int event = reader.next();
+        return event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(element);
+    }
+
+    /**
+     * Returns the current position of the reader.
+     *
+     * @return the line and column
+     */
+    private int[] location() {
+        Location location = reader.getLocation();
+        return new int[]{location.getLineNumber(), location.getColumnNumber()};
+    }
+
+    /**
+     * Creates the exception for a problem at a position of the file.
+     *
+     * @param location the line and column of the problem
+     * @param message the description of the problem
+     * @return the exception to throw
+     */
+    private NetworkParseException error(int[] location, String message) {
+        return new NetworkParseException(source, location[0], location[1], message);
+    }
+
+    /**
+     * Helper class to hold a definition until the variables it refers to are known.
+     */
+    private static final class Definition {
+        final int[] location;
+        String name;
+        final List<String> parents = new ArrayList<>();
+        double[] table;
+
+        Definition(int[] location) {
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes Bayesian networks in the XMLBIF format read by {@link XmlBifReader}, laid out like {@code alarm_net.xml}.
+ * Variables are written in the order of their ids, so reading the file back gives the same ids.
+ */
+public class XmlBifWriter {
+
+    /**
+     * Writes a Bayesian network to an XMLBIF file.
+     *
+     * @param network the Bayesian network
+     * @param path the path of the XML file
+     * @throws IOException if the file can't be written
+     */
+    public static void write(BayesianNetwork network, Path path) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8))) {
+            write(network, out);
+        }
+    }
+
+    /**
+     * Writes a Bayesian network in the XMLBIF format.
+     *
+     * @param network the Bayesian network
+     * @param out the writer, left open
+     * @throws IOException if the network can't be written
+     */
+    public static void write(BayesianNetwork network, Writer out) throws IOException {
+        int variables = network.getSymbolTable().getVariableCount();
+        out.write("<NETWORK>\n");
+        for (int id = 0; id < variables; id++) {
+            Node node = network.getNode(id);
+            if (node == null) {
+                continue;
+            }
+            out.write("<VARIABLE>\n\t<NAME>" + escape(node.getName()) + "</NAME>\n");
+            for (String outcome : node.getOutcomes()) {
+                out.write("\t<OUTCOME>" + escape(outcome) + "</OUTCOME>\n");
+            }
+            out.write("</VARIABLE>\n\n");
+        }
+        for (int id = 0; id < variables; id++) {
+            Node node = network.getNode(id);
+            if (node == null) {
+                continue;
+            }
+            out.write("<DEFINITION>\n\t<FOR>" + escape(node.getName()) + "</FOR>\n");
+            for (Node parent : node.getParents()) {
+                out.write("\t<GIVEN>" + escape(parent.getName()) + "</GIVEN>\n");
+            }
+            out.write("\t<TABLE>");
+            double[] probabilities = node.getProbabilities();
+            for (int i = 0; i < probabilities.length; i++) {
+                if (i > 0) {
+                    out.write(' ');
+                }
+                out.write(Double.toString(probabilities[i]));
+            }
+            out.write("</TABLE>\n</DEFINITION>\n\n");
+        }
+        out.write("</NETWORK>\n");
+    }
+
+    /**
+     * Escapes the characters that can't appear in XML text.
+     *
+     * @param text the text
+     * @return the escaped text
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}